@@ -33,7 +33,6 @@ import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 
 import java.io.IOException;
-import java.net.InetSocketAddress;
 
 /**
  * @author Mike Heath
@@ -62,8 +61,8 @@ public class Main {
 	@Bean
 	MetronClient metronClient() {
 		return MetronClientBuilder
-				.create("norouter")
-				.metronAgent(new InetSocketAddress(metronProperties.getAddress(), metronProperties.getPort()))
+				.create(metronProperties.getOrigin())
+				.metronAgent(metronProperties.getAgentAddress())
 				.build();
 	}
 
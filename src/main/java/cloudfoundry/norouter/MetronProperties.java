@@ -17,7 +17,12 @@ package cloudfoundry.norouter;
 
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
+import java.net.InetSocketAddress;
+
 /**
+ * Where and as what norouter sends dropsonde envelopes. Everything that talks to Metron uses these properties so the
+ * envelopes share an origin and a destination.
+ *
  * @author Mike Heath
  */
 @ConfigurationProperties(prefix = "metron")
@@ -25,6 +30,7 @@ public class MetronProperties {
 
 	private String address = "127.0.0.1";
 	private int port = 3457;
+	private String origin = "norouter";
 
 	public String getAddress() {
 		return address;
@@ -42,4 +48,16 @@ public class MetronProperties {
 		this.port = port;
 	}
 
+	public String getOrigin() {
+		return origin;
+	}
+
+	public void setOrigin(String origin) {
+		this.origin = origin;
+	}
+
+	public InetSocketAddress getAgentAddress() {
+		return new InetSocketAddress(address, port);
+	}
+
 }
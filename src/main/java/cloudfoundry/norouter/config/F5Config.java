@@ -16,17 +16,23 @@
 package cloudfoundry.norouter.config;
 
 import cloudfoundry.norouter.f5.Agent;
+import cloudfoundry.norouter.f5.RouteDataGroup;
+import cloudfoundry.norouter.f5.StalePoolSweeper;
+import cloudfoundry.norouter.f5.StripedExecutor;
 import cloudfoundry.norouter.f5.client.HttpClientIControlClient;
 import cloudfoundry.norouter.f5.client.IControlClient;
 import cloudfoundry.norouter.routingtable.RouteRegistrar;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
 
+import java.time.Duration;
+
 /**
  * @author Mike Heath
  */
@@ -50,12 +56,40 @@ public class F5Config {
 				.user(properties.getUser())
 				.password(properties.getPassword())
 				.skipVerifyTls(properties.isSkipTlsVerification())
+				.tokenAuthentication(properties.isTokenAuthentication())
+				.maxConnections(properties.getHttpMaxConnections())
+				.connectTimeout(properties.getHttpConnectTimeoutMillis())
+				.socketTimeout(properties.getHttpSocketTimeoutMillis())
+				.connectionRequestTimeout(properties.getHttpConnectionRequestTimeoutMillis())
+				.keepAlive(properties.getHttpKeepAliveMillis())
+				.connectionTimeToLive(properties.getHttpConnectionTimeToLiveMillis())
+				.idleConnectionTimeout(properties.getHttpIdleConnectionTimeoutMillis())
 				.build();
 	}
 
 	@Bean
 	Agent agent() {
-		return new Agent(properties.getPoolNamePrefix(), iControlClient(), routeRegistrar);
+		final StripedExecutor executor = new StripedExecutor("agent", properties.getAgentThreads(), properties.getAgentQueueSize());
+		return new Agent(
+				properties.getPoolNamePrefix(),
+				iControlClient(),
+				routeRegistrar,
+				executor,
+				new StalePoolSweeper(properties.getAgentStalePoolSweeps(), properties.getAgentStalePoolDeletesPerSecond()),
+				Duration.ofMillis(properties.getAgentCoalesceMillis()),
+				Duration.ofMinutes(properties.getAgentFullReconcileMinutes()),
+				Duration.ofSeconds(properties.getAgentHeartbeatTtlSeconds()),
+				properties.getAgentTransactionBatchSize());
+	}
+
+	@Bean
+	@ConditionalOnProperty(prefix = "f5", name = "routingMode", havingValue = "datagroup")
+	RouteDataGroup routeDataGroup() {
+		return new RouteDataGroup(
+				properties.getRouteDataGroupName(),
+				iControlClient(),
+				agent(),
+				Duration.ofMillis(properties.getRouteDataGroupFlushMillis()));
 	}
 
 
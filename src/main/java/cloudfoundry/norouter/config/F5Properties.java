@@ -25,19 +25,76 @@ import java.net.URI;
 @ConfigurationProperties("f5")
 public class F5Properties {
 
+	public enum RoutingMode {
+		/**
+		 * The router iRule selects the pool named after the request's host.
+		 */
+		POOL,
+		/**
+		 * The router iRule looks up the request's host in a data group of routed hosts.
+		 */
+		DATAGROUP
+	}
+
+	public enum LoggingProtocol { TCP, UDP }
+
+	public enum LoggingFormat { TEXT, BINARY }
+
+	public enum LoggingRequestIds { RANDOM, SEQUENTIAL }
+
+	/**
+	 * Which log messages to drop when the emitter queues are full.
+	 */
+	public enum LoggingShedPolicy { DROP_OLDEST, DROP_NEWEST }
+
 	private URI url;
 	private String user;
 	private String password;
 
 	private boolean skipTlsVerification = true;
+	private boolean tokenAuthentication = true;
+
+	private int httpMaxConnections = 20;
+	private int httpConnectTimeoutMillis = 10_000;
+	private int httpSocketTimeoutMillis = 60_000;
+	private int httpConnectionRequestTimeoutMillis = 30_000;
+	private long httpKeepAliveMillis = 30_000;
+	private long httpConnectionTimeToLiveMillis = 300_000;
+	private long httpIdleConnectionTimeoutMillis = 30_000;
 
 	private String poolNamePrefix = "zz_cf-pool_";
 	private String iRuleNamePrefix = "zz_cf-irule_";
+	private RoutingMode routingMode = RoutingMode.POOL;
+	private boolean consolidatedIRule = false;
+	private boolean sessionAffinity = true;
+	private String routeDataGroupName = "zz_cf-routes";
+	private long routeDataGroupFlushMillis = 1000;
+	private boolean loggingEnabled = true;
 	private String loggingPoolName = "zz_cf-logging-pool";
 	private int loggingPort = 2015;
+	private LoggingProtocol loggingProtocol = LoggingProtocol.TCP;
+	private LoggingFormat loggingFormat = LoggingFormat.TEXT;
+	private LoggingRequestIds loggingRequestIds = LoggingRequestIds.RANDOM;
+	private boolean loggingNativeTransport = true;
+	private int loggingListeners = Runtime.getRuntime().availableProcessors();
+	private int loggingThreads = 0;
+	private boolean loggingPooledBuffers = true;
+	private int loggingEmitters = Runtime.getRuntime().availableProcessors();
+	private int loggingMaxQueuedEvents = 65536;
+	private int loggingMaxQueuedEventsPerConnection = 8192;
+	private LoggingShedPolicy loggingShedPolicy = LoggingShedPolicy.DROP_OLDEST;
 
 	private String ltmId = "f5.ltmId";
 
+	private int agentThreads = 8;
+	private int agentQueueSize = 10000;
+	private long agentCoalesceMillis = 250;
+	private int agentFullReconcileMinutes = 30;
+	private int agentHeartbeatTtlSeconds = 300;
+	private int agentTransactionBatchSize = 4;
+	private int agentStalePoolSweeps = 2;
+	private double agentStalePoolDeletesPerSecond = 2;
+
 	public String getUser() {
 		return user;
 	}
@@ -70,6 +127,46 @@ public class F5Properties {
 		this.iRuleNamePrefix = iRuleNamePrefix;
 	}
 
+	public RoutingMode getRoutingMode() {
+		return routingMode;
+	}
+
+	public void setRoutingMode(RoutingMode routingMode) {
+		this.routingMode = routingMode;
+	}
+
+	public boolean isConsolidatedIRule() {
+		return consolidatedIRule;
+	}
+
+	public void setConsolidatedIRule(boolean consolidatedIRule) {
+		this.consolidatedIRule = consolidatedIRule;
+	}
+
+	public boolean isSessionAffinity() {
+		return sessionAffinity;
+	}
+
+	public void setSessionAffinity(boolean sessionAffinity) {
+		this.sessionAffinity = sessionAffinity;
+	}
+
+	public String getRouteDataGroupName() {
+		return routeDataGroupName;
+	}
+
+	public void setRouteDataGroupName(String routeDataGroupName) {
+		this.routeDataGroupName = routeDataGroupName;
+	}
+
+	public long getRouteDataGroupFlushMillis() {
+		return routeDataGroupFlushMillis;
+	}
+
+	public void setRouteDataGroupFlushMillis(long routeDataGroupFlushMillis) {
+		this.routeDataGroupFlushMillis = routeDataGroupFlushMillis;
+	}
+
 	public URI getUrl() {
 		return url;
 	}
@@ -86,6 +183,78 @@ public class F5Properties {
 		this.skipTlsVerification = skipTlsVerification;
 	}
 
+	public boolean isTokenAuthentication() {
+		return tokenAuthentication;
+	}
+
+	public void setTokenAuthentication(boolean tokenAuthentication) {
+		this.tokenAuthentication = tokenAuthentication;
+	}
+
+	public int getHttpMaxConnections() {
+		return httpMaxConnections;
+	}
+
+	public void setHttpMaxConnections(int httpMaxConnections) {
+		this.httpMaxConnections = httpMaxConnections;
+	}
+
+	public int getHttpConnectTimeoutMillis() {
+		return httpConnectTimeoutMillis;
+	}
+
+	public void setHttpConnectTimeoutMillis(int httpConnectTimeoutMillis) {
+		this.httpConnectTimeoutMillis = httpConnectTimeoutMillis;
+	}
+
+	public int getHttpSocketTimeoutMillis() {
+		return httpSocketTimeoutMillis;
+	}
+
+	public void setHttpSocketTimeoutMillis(int httpSocketTimeoutMillis) {
+		this.httpSocketTimeoutMillis = httpSocketTimeoutMillis;
+	}
+
+	public int getHttpConnectionRequestTimeoutMillis() {
+		return httpConnectionRequestTimeoutMillis;
+	}
+
+	public void setHttpConnectionRequestTimeoutMillis(int httpConnectionRequestTimeoutMillis) {
+		this.httpConnectionRequestTimeoutMillis = httpConnectionRequestTimeoutMillis;
+	}
+
+	public long getHttpKeepAliveMillis() {
+		return httpKeepAliveMillis;
+	}
+
+	public void setHttpKeepAliveMillis(long httpKeepAliveMillis) {
+		this.httpKeepAliveMillis = httpKeepAliveMillis;
+	}
+
+	public long getHttpConnectionTimeToLiveMillis() {
+		return httpConnectionTimeToLiveMillis;
+	}
+
+	public void setHttpConnectionTimeToLiveMillis(long httpConnectionTimeToLiveMillis) {
+		this.httpConnectionTimeToLiveMillis = httpConnectionTimeToLiveMillis;
+	}
+
+	public long getHttpIdleConnectionTimeoutMillis() {
+		return httpIdleConnectionTimeoutMillis;
+	}
+
+	public void setHttpIdleConnectionTimeoutMillis(long httpIdleConnectionTimeoutMillis) {
+		this.httpIdleConnectionTimeoutMillis = httpIdleConnectionTimeoutMillis;
+	}
+
+	public boolean isLoggingEnabled() {
+		return loggingEnabled;
+	}
+
+	public void setLoggingEnabled(boolean loggingEnabled) {
+		this.loggingEnabled = loggingEnabled;
+	}
+
 	public String getLoggingPoolName() {
 		return loggingPoolName;
 	}
@@ -102,6 +271,110 @@ public class F5Properties {
 		this.loggingPort = loggingPort;
 	}
 
+	public LoggingProtocol getLoggingProtocol() {
+		return loggingProtocol;
+	}
+
+	public void setLoggingProtocol(LoggingProtocol loggingProtocol) {
+		this.loggingProtocol = loggingProtocol;
+	}
+
+	public boolean isLoggingUdp() {
+		return loggingProtocol == LoggingProtocol.UDP;
+	}
+
+	public LoggingFormat getLoggingFormat() {
+		return loggingFormat;
+	}
+
+	public void setLoggingFormat(LoggingFormat loggingFormat) {
+		this.loggingFormat = loggingFormat;
+	}
+
+	public boolean isLoggingBinary() {
+		return loggingFormat == LoggingFormat.BINARY;
+	}
+
+	public LoggingRequestIds getLoggingRequestIds() {
+		return loggingRequestIds;
+	}
+
+	public void setLoggingRequestIds(LoggingRequestIds loggingRequestIds) {
+		this.loggingRequestIds = loggingRequestIds;
+	}
+
+	public boolean isLoggingSequentialRequestIds() {
+		return loggingRequestIds == LoggingRequestIds.SEQUENTIAL;
+	}
+
+	public boolean isLoggingNativeTransport() {
+		return loggingNativeTransport;
+	}
+
+	public void setLoggingNativeTransport(boolean loggingNativeTransport) {
+		this.loggingNativeTransport = loggingNativeTransport;
+	}
+
+	public int getLoggingListeners() {
+		return loggingListeners;
+	}
+
+	public void setLoggingListeners(int loggingListeners) {
+		this.loggingListeners = loggingListeners;
+	}
+
+	public int getLoggingThreads() {
+		return loggingThreads;
+	}
+
+	public void setLoggingThreads(int loggingThreads) {
+		this.loggingThreads = loggingThreads;
+	}
+
+	public boolean isLoggingPooledBuffers() {
+		return loggingPooledBuffers;
+	}
+
+	public void setLoggingPooledBuffers(boolean loggingPooledBuffers) {
+		this.loggingPooledBuffers = loggingPooledBuffers;
+	}
+
+	public int getLoggingEmitters() {
+		return loggingEmitters;
+	}
+
+	public void setLoggingEmitters(int loggingEmitters) {
+		this.loggingEmitters = loggingEmitters;
+	}
+
+	public int getLoggingMaxQueuedEvents() {
+		return loggingMaxQueuedEvents;
+	}
+
+	public void setLoggingMaxQueuedEvents(int loggingMaxQueuedEvents) {
+		this.loggingMaxQueuedEvents = loggingMaxQueuedEvents;
+	}
+
+	public int getLoggingMaxQueuedEventsPerConnection() {
+		return loggingMaxQueuedEventsPerConnection;
+	}
+
+	public void setLoggingMaxQueuedEventsPerConnection(int loggingMaxQueuedEventsPerConnection) {
+		this.loggingMaxQueuedEventsPerConnection = loggingMaxQueuedEventsPerConnection;
+	}
+
+	public LoggingShedPolicy getLoggingShedPolicy() {
+		return loggingShedPolicy;
+	}
+
+	public void setLoggingShedPolicy(LoggingShedPolicy loggingShedPolicy) {
+		this.loggingShedPolicy = loggingShedPolicy;
+	}
+
+	public boolean isLoggingShedOldest() {
+		return loggingShedPolicy == LoggingShedPolicy.DROP_OLDEST;
+	}
+
 	public String getLtmId() {
 		return ltmId;
 	}
@@ -110,4 +383,68 @@ public class F5Properties {
 		this.ltmId = ltmId;
 	}
 
+	public int getAgentThreads() {
+		return agentThreads;
+	}
+
+	public void setAgentThreads(int agentThreads) {
+		this.agentThreads = agentThreads;
+	}
+
+	public int getAgentQueueSize() {
+		return agentQueueSize;
+	}
+
+	public void setAgentQueueSize(int agentQueueSize) {
+		this.agentQueueSize = agentQueueSize;
+	}
+
+	public long getAgentCoalesceMillis() {
+		return agentCoalesceMillis;
+	}
+
+	public void setAgentCoalesceMillis(long agentCoalesceMillis) {
+		this.agentCoalesceMillis = agentCoalesceMillis;
+	}
+
+	public int getAgentFullReconcileMinutes() {
+		return agentFullReconcileMinutes;
+	}
+
+	public void setAgentFullReconcileMinutes(int agentFullReconcileMinutes) {
+		this.agentFullReconcileMinutes = agentFullReconcileMinutes;
+	}
+
+	public int getAgentHeartbeatTtlSeconds() {
+		return agentHeartbeatTtlSeconds;
+	}
+
+	public void setAgentHeartbeatTtlSeconds(int agentHeartbeatTtlSeconds) {
+		this.agentHeartbeatTtlSeconds = agentHeartbeatTtlSeconds;
+	}
+
+	public int getAgentTransactionBatchSize() {
+		return agentTransactionBatchSize;
+	}
+
+	public void setAgentTransactionBatchSize(int agentTransactionBatchSize) {
+		this.agentTransactionBatchSize = agentTransactionBatchSize;
+	}
+
+	public int getAgentStalePoolSweeps() {
+		return agentStalePoolSweeps;
+	}
+
+	public void setAgentStalePoolSweeps(int agentStalePoolSweeps) {
+		this.agentStalePoolSweeps = agentStalePoolSweeps;
+	}
+
+	public double getAgentStalePoolDeletesPerSecond() {
+		return agentStalePoolDeletesPerSecond;
+	}
+
+	public void setAgentStalePoolDeletesPerSecond(double agentStalePoolDeletesPerSecond) {
+		this.agentStalePoolDeletesPerSecond = agentStalePoolDeletesPerSecond;
+	}
+
 }
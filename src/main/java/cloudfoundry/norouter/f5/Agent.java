@@ -17,12 +17,16 @@
 package cloudfoundry.norouter.f5;
 
 import cloudfoundry.norouter.NorouterUtil;
-import cloudfoundry.norouter.f5.client.ConflictException;
+import cloudfoundry.norouter.f5.DesiredState.DesiredMember;
+import cloudfoundry.norouter.f5.DesiredState.DesiredPool;
+import cloudfoundry.norouter.f5.PoolShadow.ShadowPool;
 import cloudfoundry.norouter.f5.client.IControlClient;
+import cloudfoundry.norouter.f5.client.IControlException;
 import cloudfoundry.norouter.f5.client.Monitors;
 import cloudfoundry.norouter.f5.client.Pool;
 import cloudfoundry.norouter.f5.client.PoolMember;
 import cloudfoundry.norouter.f5.client.ResourceNotFoundException;
+import cloudfoundry.norouter.f5.client.Transaction;
 import cloudfoundry.norouter.routingtable.RouteDetails;
 import cloudfoundry.norouter.routingtable.RouteRegisterEvent;
 import cloudfoundry.norouter.routingtable.RouteRegistrar;
@@ -33,197 +37,710 @@ import org.springframework.context.ApplicationEvent;
 import org.springframework.context.ApplicationListener;
 import org.springframework.context.event.ContextRefreshedEvent;
 import org.springframework.core.Ordered;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
 
 import java.net.InetSocketAddress;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
 
 /**
+ * Keeps the pools on the LTM in line with the routes norouter knows about. Route events update the desired state of
+ * a pool and mark it dirty. Dirty pools are reconciled by comparing their desired state with the state of the pool on
+ * the LTM and applying only the difference. All pools are reconciled periodically to repair any drift.
+ *
  * @author Mike Heath
  */
 // TODO Should we loggregate when pool members are added/removed?
-// TODO If we throw an exception adding a route, what do we do?
+@ManagedResource(objectName = "norouter:type=Agent")
 public class Agent implements ApplicationListener<ApplicationEvent>, Ordered, AutoCloseable {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(Agent.class);
 
 	private static final Duration POOL_STALE_TIME = Duration.ofMinutes(5);
+	private static final long RETRY_DELAY_MILLIS = 1000;
 
 	private final String poolNamePrefix;
 	private final IControlClient client;
 	private final RouteRegistrar routeRegistrar;
 
+	/**
+	 * Pools are reconciled on this executor. Reconciliation is keyed by pool name so a pool is never reconciled
+	 * concurrently with itself while different pools are reconciled in parallel.
+	 */
+	private final StripedExecutor executor;
+
+	/**
+	 * How long route events for a pool are collected before the pool is reconciled.
+	 */
+	private final Duration reconcileDelay;
+
+	/**
+	 * The minimum number of changes to a pool that are applied in a single iControl transaction. A value of 0 disables
+	 * transactions.
+	 */
+	private final int transactionBatchSize;
+
+	/**
+	 * The pools the LTM should have.
+	 */
+	private final DesiredState desiredState = new DesiredState();
+
+	/**
+	 * The state of the pools on the LTM as last read or written by this agent.
+	 */
+	private final PoolShadow shadow = new PoolShadow();
+
+	/**
+	 * Fingerprints of the routes last applied to the LTM, used to drop heartbeats without touching the desired state.
+	 */
+	private final RouteFingerprints fingerprints;
+
+	/**
+	 * Pools waiting to be reconciled.
+	 */
+	private final Set<String> dirtyPools = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Dirty pools that should be reread from the LTM before they are reconciled.
+	 */
+	private final Set<String> unverifiedPools = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Pools reconciled since the route data group last took them, so it only looks at the hosts that may have changed.
+	 */
+	private final Set<String> routeChanges = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Set when the shadow is reread from the LTM, which can change any host, until the route data group takes it.
+	 */
+	private final AtomicBoolean shadowRefreshed = new AtomicBoolean();
+
+	private final LongAdder receivedEvents = new LongAdder();
+	private final LongAdder heartbeats = new LongAdder();
+	private final LongAdder coalescedEvents = new LongAdder();
+	private final LongAdder reconciledPools = new LongAdder();
+	private final LongAdder appliedChanges = new LongAdder();
+	private final LongAdder committedTransactions = new LongAdder();
+	private final LongAdder failedTransactions = new LongAdder();
+	private final LongAdder sweptPools = new LongAdder();
+	private final LongAdder deletedStalePools = new LongAdder();
+	private volatile long lastSweepMillis;
+
+	/**
+	 * Decides when empty pools are deleted and paces the deletes.
+	 */
+	private final StalePoolSweeper sweeper;
+
+	/**
+	 * Runs the delayed reconciliation of dirty pools. Tasks on this thread must never block.
+	 */
 	private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
 
-	public Agent(String poolNamePrefix, IControlClient client, RouteRegistrar routeRegistrar) {
+	/**
+	 * Runs the periodic reconciliation of all pools so a full pass doesn't hold up the reconciliation of dirty pools.
+	 */
+	private final ScheduledExecutorService fullReconcileScheduler = Executors.newSingleThreadScheduledExecutor();
+
+	public Agent(
+			String poolNamePrefix,
+			IControlClient client,
+			RouteRegistrar routeRegistrar,
+			StripedExecutor executor,
+			StalePoolSweeper sweeper,
+			Duration reconcileDelay,
+			Duration fullReconcileInterval,
+			Duration heartbeatTtl,
+			int transactionBatchSize) {
 		this.poolNamePrefix = poolNamePrefix;
 		this.client = client;
 		this.routeRegistrar = routeRegistrar;
-		scheduler.scheduleAtFixedRate(this::removeStalePools, 30, 30, TimeUnit.MINUTES);
+		this.executor = executor;
+		this.sweeper = sweeper;
+		this.reconcileDelay = reconcileDelay;
+		this.transactionBatchSize = transactionBatchSize;
+		this.fingerprints = new RouteFingerprints(heartbeatTtl);
+		final long fullReconcileMillis = fullReconcileInterval.toMillis();
+		fullReconcileScheduler.scheduleAtFixedRate(() -> {
+			try {
+				reconcileAll();
+				removeStalePools();
+			} catch (RuntimeException e) {
+				LOGGER.error("Error reconciling pools", e);
+			}
+		}, fullReconcileMillis, fullReconcileMillis, TimeUnit.MILLISECONDS);
 	}
 
 	@Override
 	public void close() throws Exception {
-		scheduler.shutdownNow().forEach(Runnable::run);
+		fullReconcileScheduler.shutdownNow();
+		scheduler.shutdownNow();
+		executor.close();
+	}
+
+	@ManagedAttribute(description = "Number of pool reconciliations waiting to run")
+	public int getQueueDepth() {
+		return executor.getQueueDepth();
+	}
+
+	@ManagedAttribute(description = "Number of route events received")
+	public long getReceivedEvents() {
+		return receivedEvents.sum();
+	}
+
+	@ManagedAttribute(description = "Number of route registrations dropped because the route was recently applied")
+	public long getHeartbeats() {
+		return heartbeats.sum();
+	}
+
+	@ManagedAttribute(description = "Number of route events that did not require a pool to be reconciled")
+	public long getCoalescedEvents() {
+		return coalescedEvents.sum();
+	}
+
+	@ManagedAttribute(description = "Number of pools reconciled")
+	public long getReconciledPools() {
+		return reconciledPools.sum();
+	}
+
+	@ManagedAttribute(description = "Number of changes applied to the LTM")
+	public long getAppliedChanges() {
+		return appliedChanges.sum();
+	}
+
+	@ManagedAttribute(description = "Number of pool reconciliations committed in a single iControl transaction")
+	public long getCommittedTransactions() {
+		return committedTransactions.sum();
+	}
+
+	@ManagedAttribute(description = "Number of iControl transactions that failed and were applied change by change")
+	public long getFailedTransactions() {
+		return failedTransactions.sum();
+	}
+
+	@ManagedAttribute(description = "Number of pools examined by stale pool sweeps")
+	public long getSweptPools() {
+		return sweptPools.sum();
+	}
+
+	@ManagedAttribute(description = "Number of pools found stale on the last sweep that have not been deleted yet")
+	public int getMarkedStalePools() {
+		return sweeper.size();
+	}
+
+	@ManagedAttribute(description = "Number of stale pools deleted")
+	public long getDeletedStalePools() {
+		return deletedStalePools.sum();
+	}
+
+	@ManagedAttribute(description = "Time in milliseconds the last stale pool sweep took, including its paced deletes")
+	public long getLastSweepMillis() {
+		return lastSweepMillis;
 	}
 
+	@ManagedAttribute(description = "Number of pool reconciliations waiting to run on each lane")
+	public int[] getLaneQueueDepths() {
+		return executor.getLaneQueueDepths();
+	}
+
+	@ManagedAttribute(description = "Number of pool reconciliations run on each lane")
+	public long[] getLaneCompletedEvents() {
+		return executor.getLaneCompletedTasks();
+	}
+
+	@ManagedAttribute(description = "Average time in milliseconds a pool reconciliation waits to start running on each lane")
+	public double[] getLaneAverageQueueWaitMillis() {
+		return executor.getLaneAverageQueueWaitMillis();
+	}
+
+	@ManagedAttribute(description = "Average time in milliseconds from queuing a pool reconciliation to its completion on each lane")
+	public double[] getLaneAverageLatencyMillis() {
+		return executor.getLaneAverageLatencyMillis();
+	}
+
+	@ManagedAttribute(description = "Number of pools tracked in the in-memory copy of the LTM state")
+	public int getShadowPools() {
+		return shadow.size();
+	}
+
+	@ManagedAttribute(description = "Number of pools with routes registered")
+	public int getDesiredPools() {
+		return desiredState.size();
+	}
+
+	/**
+	 * Rereads the pools managed by norouter from the LTM to pick up any changes made outside of this agent.
+	 */
+	public void refreshShadow() {
+		LOGGER.info("Reading pools prefixed with {}", poolNamePrefix);
+		final long scanStarted = System.nanoTime();
+		shadow.refresh(client.streamAllPools(true, "description")
+				.filter(pool -> pool.getName().startsWith(poolNamePrefix)), scanStarted);
+		shadowRefreshed.set(true);
+		LOGGER.info("Tracking {} pools", shadow.size());
+	}
+
+	/**
+	 * Rereads the LTM and reconciles every pool with routes.
+	 */
+	public void reconcileAll() {
+		refreshShadow();
+		LOGGER.info("Reconciling {} pools", desiredState.size());
+		desiredState.getPoolNames().forEach(poolName -> {
+			dirtyPools.add(poolName);
+			executor.execute(poolName, () -> reconcile(poolName));
+		});
+	}
+
+	/**
+	 * Marks the empty pools no route needs and deletes those that stayed stale over consecutive sweeps. The shadow was
+	 * just refreshed by paging through the pools on the LTM, so finding stale pools makes no further iControl calls.
+	 * The deletes are paced by the {@link StalePoolSweeper}.
+	 */
 	public void removeStalePools() {
 		LOGGER.info("Checking for stale pools prefixed with {}", poolNamePrefix);
-		client.getAllPools(true).stream()
-				.filter(pool -> pool.getName().startsWith(poolNamePrefix))
-				.filter(pool -> !pool.getMembers().isPresent() || pool.getMembers().get().size() == 0)
-				.filter(pool -> {
-					// Filter out non stale pools.
-					final Optional<PoolDescription> description = PoolDescription.fromJsonish(pool.getDescription());
-					if (description.isPresent()) {
-						final Duration timeSinceModified = Duration.between(description.get().getModified(), Instant.now());
-						return POOL_STALE_TIME.compareTo(timeSinceModified) < 0;
-					}
-					return false;
-				})
-				.forEach(pool -> safeDeletePool(pool.getName()));
+		final long sweepStarted = System.nanoTime();
+		final Collection<ShadowPool> pools = shadow.getPools();
+		final List<String> stalePools = pools.stream()
+				.filter(this::isStale)
+				.map(ShadowPool::getName)
+				.collect(Collectors.toList());
+		sweptPools.add(pools.size());
+		final List<String> expiredPools = sweeper.sweep(stalePools);
+		LOGGER.info("Found {} stale pools, deleting {} that were stale on previous sweeps", stalePools.size(), expiredPools.size());
+		if (expiredPools.isEmpty()) {
+			lastSweepMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - sweepStarted);
+			return;
+		}
+		final AtomicInteger remaining = new AtomicInteger(expiredPools.size());
+		final Runnable finished = () -> {
+			if (remaining.decrementAndGet() == 0) {
+				lastSweepMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - sweepStarted);
+			}
+		};
+		expiredPools.forEach(poolName -> scheduleStalePoolDelete(poolName, finished));
+	}
+
+	private void scheduleStalePoolDelete(String poolName, Runnable finished) {
+		boolean scheduled = false;
+		try {
+			scheduler.schedule(() -> submitStalePoolDelete(poolName, finished), sweeper.nextDeleteDelayNanos(), TimeUnit.NANOSECONDS);
+			scheduled = true;
+		} finally {
+			if (!scheduled) {
+				finishStalePoolDelete(poolName, finished);
+			}
+		}
+	}
+
+	/**
+	 * Queues the delete on the pool's lane so it is ordered with any reconciliation of the pool. The scheduler thread
+	 * is shared with reconciliations so a full lane gets the delete a later slot instead of blocking.
+	 */
+	private void submitStalePoolDelete(String poolName, Runnable finished) {
+		final boolean queued;
+		try {
+			queued = executor.tryExecute(poolName, () -> {
+				try {
+					deleteStalePool(poolName);
+				} finally {
+					finishStalePoolDelete(poolName, finished);
+				}
+			});
+		} catch (RuntimeException e) {
+			finishStalePoolDelete(poolName, finished);
+			throw e;
+		}
+		if (!queued) {
+			scheduleStalePoolDelete(poolName, finished);
+		}
+	}
+
+	private void finishStalePoolDelete(String poolName, Runnable finished) {
+		sweeper.finished(poolName);
+		finished.run();
+	}
+
+	private boolean isStale(ShadowPool pool) {
+		if (pool.hasMembers() || desiredState.getPool(pool.getName()).filter(desired -> !desired.isReleased()).isPresent()) {
+			return false;
+		}
+		final Optional<PoolDescription> description = pool.getDescription();
+		if (description.isPresent()) {
+			final Duration timeSinceModified = Duration.between(description.get().getModified(), Instant.now());
+			return POOL_STALE_TIME.compareTo(timeSinceModified) < 0;
+		}
+		return false;
+	}
+
+	private void deleteStalePool(String poolName) {
+		// A route may have been registered for the pool since it was marked
+		final Optional<ShadowPool> pool = shadow.getPool(poolName);
+		if (pool.isPresent() && isStale(pool.get()) && safeDeletePool(poolName)) {
+			deletedStalePools.increment();
+		}
 	}
 
+	/**
+	 * @return the pool for each host with a pool on the LTM that has members, keyed by the lower case host.
+	 */
+	Map<String, String> getRoutedHosts() {
+		final Map<String, String> hosts = new HashMap<>();
+		shadow.getPools().stream()
+				.filter(ShadowPool::hasMembers)
+				.forEach(pool -> hosts.put(routedHost(pool.getName()), pool.getName()));
+		return hosts;
+	}
+
+	/**
+	 * @return the lower case host routed to the pool.
+	 */
+	String routedHost(String poolName) {
+		return poolName.substring(poolNamePrefix.length()).toLowerCase(Locale.ENGLISH);
+	}
+
+	/**
+	 * @return {@code true} if the pool is on the LTM and has members.
+	 */
+	boolean isRouted(String poolName) {
+		return shadow.getPool(poolName).map(ShadowPool::hasMembers).orElse(false);
+	}
+
+	/**
+	 * Takes the pools reconciled since the last call. Their hosts may have been added to or removed from the LTM.
+	 */
+	Set<String> takeRouteChanges() {
+		final Set<String> changes = new HashSet<>();
+		for (final Iterator<String> i = routeChanges.iterator(); i.hasNext(); ) {
+			changes.add(i.next());
+			i.remove();
+		}
+		return changes;
+	}
+
+	/**
+	 * @return {@code true} if the shadow was reread from the LTM since the last call, so any host may have changed.
+	 */
+	boolean takeShadowRefreshed() {
+		return shadowRefreshed.getAndSet(false);
+	}
+
+	/**
+	 * Registers the pool members on the LTM as routes and as the initial desired state.
+	 */
 	public void populateRouteRegistrar() {
-		client.getAllPools(true).stream()
-				.filter(pool -> pool.getName().startsWith(poolNamePrefix))
-				.forEach(pool -> pool.getMembers().ifPresent(members ->
-						members.forEach(member -> {
-							final String host = pool.getName().substring(poolNamePrefix.length());
-							final InetSocketAddress address = NorouterUtil.toSocketAddress(member.getName());
-							final PoolMemberDescription description = PoolMemberDescription
-									.fromJsonish(member.getDescription())
-									.orElse(new PoolMemberDescription());
-							LOGGER.info("Registering existing route from F5 for host {} with target {}", host, address);
-							routeRegistrar.insertRoute(
-									host,
-									address,
-									description.getApplicationGuid(),
-									description.getApplicationIndex(),
-									description.getPrivateInstanceId());
-						})));
+		shadow.getPools().forEach(pool -> pool.getMemberNames().forEach(member -> {
+			final String host = pool.getName().substring(poolNamePrefix.length());
+			final InetSocketAddress address = NorouterUtil.toSocketAddress(member);
+			final PoolMemberDescription description = pool.getMemberDescription(member)
+					.orElse(new PoolMemberDescription());
+			LOGGER.info("Registering existing route from F5 for host {} with target {}", host, address);
+			desiredState.register(pool.getName(), address, description);
+			fingerprints.applied(pool.getName(), member, description);
+			routeRegistrar.insertRoute(
+					host,
+					address,
+					description.getApplicationGuid(),
+					description.getApplicationIndex(),
+					description.getPrivateInstanceId());
+		}));
 	}
 
 	public void registerRoute(RouteDetails route) {
-		final String poolName = poolNamePrefix + route.getHost();
+		final String poolName = poolName(route.getHost());
+		// Check the desired state as well in case a reconciliation recorded the fingerprint after an unregister
+		if (fingerprints.isCurrent(poolName, route) && desiredState.containsMember(poolName, route.getAddress().toString())) {
+			receivedEvents.increment();
+			heartbeats.increment();
+			return;
+		}
+		final boolean changed = desiredState.register(poolName, route.getAddress(), new PoolMemberDescription(route));
+		if (!changed) {
+			// The route hasn't been applied recently, make sure the LTM still has it
+			unverifiedPools.add(poolName);
+		}
+		markDirty(poolName, true);
+	}
 
-		final PoolDescription poolDescription = new PoolDescription(Instant.now(), Instant.now());
-		final String poolDescriptionJsonish = poolDescription.toJsonish();
+	public void unregisterRoute(RouteUnregisterEvent unregisterEvent) {
+		// TODO Differentiate unregister events from timeout events
+		final String poolName = poolName(unregisterEvent.getHost());
+		fingerprints.remove(poolName, unregisterEvent.getAddress().toString());
+		markDirty(poolName, desiredState.unregister(poolName, unregisterEvent.getAddress(), unregisterEvent.isLast()));
+	}
 
-		final Pool pool = Pool.create()
-				.name(poolName)
-				.description(poolDescriptionJsonish)
-						// TODO Provide mechanism to make monitor configurable
-				.monitor(Monitors.TCP_HALF_OPEN)
-						// TODO Make reselect tries configurable
-				.reselectTries(3)
-				.build();
+	private void markDirty(String poolName, boolean changed) {
+		receivedEvents.increment();
+		if (!changed || !dirtyPools.add(poolName)) {
+			coalescedEvents.increment();
+			return;
+		}
+		if (reconcileDelay.isZero() || reconcileDelay.isNegative()) {
+			executor.execute(poolName, () -> reconcile(poolName));
+		} else {
+			scheduler.schedule(() -> submitReconcile(poolName), reconcileDelay.toMillis(), TimeUnit.MILLISECONDS);
+		}
+	}
 
-		boolean poolCreated = false;
-		try {
-			client.createPool(pool);
-			LOGGER.info("Created pool {}", poolName);
-			poolCreated = true;
-		} catch (ConflictException e) {
-			// Pool already exists, good
+	/**
+	 * Queues the reconciliation of a dirty pool from the scheduler thread. If the pool's lane is full, the submission
+	 * is retried later instead of blocking the scheduler and every other pool waiting on it.
+	 */
+	private void submitReconcile(String poolName) {
+		if (!executor.tryExecute(poolName, () -> reconcile(poolName))) {
+			scheduler.schedule(() -> submitReconcile(poolName), retryDelayMillis(), TimeUnit.MILLISECONDS);
 		}
+	}
 
-		try {
-			final PoolMemberDescription poolMemberDescription = new PoolMemberDescription(route);
-			client.addPoolMember(poolName, route.getAddress(), poolMemberDescription.toJsonish());
-			LOGGER.info("Added pool member {} to pool {}", route.getAddress(), poolName);
-
-			if (!poolCreated) {
-				// If we didn't create the pool but added the pool member, update the modified fields in the
-				// pool description
-				updatePoolModifiedTimestamp(poolName);
-				LOGGER.debug("Updated modified field on pool {}", poolName);
-			}
-		} catch (ConflictException e) {
-			// Pool member already exists
-			updatePoolMemberDescription(poolName, route);
+	/**
+	 * Marks the pool dirty again from its own lane. The reconciliation goes through the scheduler because queuing
+	 * directly could block the lane on its own full queue.
+	 */
+	private void retryReconcile(String poolName) {
+		if (dirtyPools.add(poolName)) {
+			scheduler.schedule(() -> submitReconcile(poolName), retryDelayMillis(), TimeUnit.MILLISECONDS);
 		}
 	}
 
-	public void unregisterRoute(RouteUnregisterEvent unregisterEvent) {
-		final String poolName = poolNamePrefix + unregisterEvent.getHost();
-		final InetSocketAddress poolMember = unregisterEvent.getAddress();
+	private long retryDelayMillis() {
+		return Math.max(reconcileDelay.toMillis(), RETRY_DELAY_MILLIS);
+	}
+
+	private String poolName(String host) {
+		return poolNamePrefix + host;
+	}
 
-		boolean removedPoolMember = false;
+	/**
+	 * Brings the pool on the LTM in line with its desired state. Must only be called on the pool's lane.
+	 */
+	private void reconcile(String poolName) {
+		// Clear the dirty flag first so changes made while reconciling schedule another pass
+		dirtyPools.remove(poolName);
+		final Optional<DesiredPool> desired = desiredState.getPool(poolName);
+		if (!desired.isPresent()) {
+			return;
+		}
+		reconciledPools.increment();
 		try {
-			LOGGER.info("Removing pool member {} from pool {}", poolMember, poolName);
-			client.deletePoolMember(poolName, poolMember);
-			removedPoolMember = true;
-		} catch (ResourceNotFoundException e) {
-			// The pool member was already removed
+			if (unverifiedPools.remove(poolName)) {
+				rereadPool(poolName);
+			}
+			boolean applied;
+			try {
+				applied = apply(PoolDiff.between(poolName, desired.get(), shadow.getPool(poolName)));
+			} catch (ResourceNotFoundException e) {
+				applied = false;
+			}
+			if (!applied) {
+				// The shadow was out of date, reread the pool and try again
+				LOGGER.debug("Pool {} changed on the LTM, rereading it", poolName);
+				rereadPool(poolName);
+				applied = apply(PoolDiff.between(poolName, desired.get(), shadow.getPool(poolName)));
+			}
+			if (!applied) {
+				// Only record what is known to be on the LTM, try again once the other writer has settled
+				LOGGER.info("Pool {} is still changing on the LTM, reconciling it again later", poolName);
+				retryReconcile(poolName);
+				return;
+			}
+			desiredState.forgetRemoved(poolName, desired.get());
+			desired.get().getMembers().forEach((member, desiredMember) ->
+					fingerprints.applied(poolName, member, desiredMember.getDescription()));
+		} catch (RuntimeException e) {
+			LOGGER.error("Error reconciling pool {}", poolName, e);
+		} finally {
+			// Only after the shadow is updated, so the data group doesn't take the change and read the old state
+			routeChanges.add(poolName);
 		}
+	}
 
-		boolean deletedPool = false;
-		try {
-			if (unregisterEvent.isLast()) {
-				deletedPool = safeDeletePool(poolName);
+	/**
+	 * @return {@code false} if the LTM didn't match the shadow and the pool should be reread and reconciled again.
+	 */
+	private boolean apply(PoolDiff diff) {
+		if (diff.isEmpty()) {
+			return true;
+		}
+		appliedChanges.add(diff.size());
+		if (transactionBatchSize > 0 && diff.size() >= transactionBatchSize && applyInTransaction(diff)) {
+			return true;
+		}
+		return applyIndividually(diff);
+	}
+
+	/**
+	 * @return {@code false} if the LTM didn't match the shadow and the pool should be reread and reconciled again.
+	 */
+	private boolean applyIndividually(PoolDiff diff) {
+		final String poolName = diff.getPoolName();
+		if (diff.getCreatePool().isPresent()) {
+			if (!client.createPoolIfAbsent(newPool(poolName, diff.getCreatePool().get()))) {
+				return false;
 			}
-			if (!deletedPool && removedPoolMember) {
-				updatePoolModifiedTimestamp(poolName);
-				LOGGER.debug("Updated modified field on pool {}", poolName);
+			LOGGER.info("Created pool {}", poolName);
+			shadow.created(poolName, diff.getCreatePool().get());
+		}
+		final ShadowPool pool = shadow.getPool(poolName).get();
+		boolean matchedShadow = true;
+		for (Map.Entry<String, DesiredMember> entry : diff.getMembersToAdd().entrySet()) {
+			final DesiredMember desiredMember = entry.getValue();
+			if (client.addPoolMemberIfAbsent(poolName, desiredMember.getAddress(), desiredMember.getDescription().toJsonish())) {
+				pool.putMember(entry.getKey(), desiredMember.getDescription());
+				LOGGER.info("Added pool member {} to pool {}", entry.getKey(), poolName);
+			} else {
+				// The member's description on the LTM is unknown so it will be checked when the pool is reread
+				matchedShadow = false;
 			}
-		} catch (ResourceNotFoundException e) {
-			// The pool was already removed
+		}
+		for (Map.Entry<String, DesiredMember> entry : diff.getMembersToUpdate().entrySet()) {
+			final String member = entry.getKey();
+			final PoolMemberDescription description = updatedDescription(pool, member, entry.getValue());
+			try {
+				client.updatePoolMemberDescription(poolName, entry.getValue().getAddress(), description.toJsonish());
+				pool.putMember(member, description);
+			} catch (ResourceNotFoundException e) {
+				// The member was removed from the LTM behind our back, it is added back when the pool is reread
+				LOGGER.info("Pool member {} of pool {} is missing from the LTM", member, poolName);
+				pool.removeMember(member);
+				matchedShadow = false;
+			}
+		}
+		diff.getMembersToDelete().forEach((member, address) -> {
+			LOGGER.info("Removing pool member {} from pool {}", member, poolName);
+			client.deletePoolMemberIfPresent(poolName, address);
+			pool.removeMember(member);
+		});
+		if (diff.isDeletePool()) {
+			deleteReleasedPool(poolName);
+		}
+		diff.getPoolDescription().ifPresent(description -> {
+			client.updatePoolDescription(poolName, description.toJsonish());
+			pool.setDescription(description);
+			LOGGER.debug("Updated modified field on pool {}", poolName);
+		});
+		return matchedShadow;
+	}
+
+	/**
+	 * Applies a diff in a single transaction. The pool is deleted, if needed, after the transaction commits because
+	 * deleting a pool requires rereading it.
+	 *
+	 * @return {@code true} if the transaction committed, {@code false} if the diff should be applied change by change.
+	 */
+	private boolean applyInTransaction(PoolDiff diff) {
+		final String poolName = diff.getPoolName();
+		final Optional<ShadowPool> existingPool = shadow.getPool(poolName);
+		try (final Transaction transaction = client.beginTransaction()) {
+			diff.getCreatePool().ifPresent(description -> transaction.createPool(newPool(poolName, description)));
+			diff.getMembersToAdd().forEach((member, desiredMember) ->
+					transaction.addPoolMember(poolName, desiredMember.getAddress(), desiredMember.getDescription().toJsonish()));
+			final Map<String, PoolMemberDescription> updatedDescriptions = new HashMap<>();
+			diff.getMembersToUpdate().forEach((member, desiredMember) -> {
+				final PoolMemberDescription description = updatedDescription(existingPool.get(), member, desiredMember);
+				updatedDescriptions.put(member, description);
+				transaction.updatePoolMemberDescription(poolName, desiredMember.getAddress(), description.toJsonish());
+			});
+			diff.getMembersToDelete().forEach((member, address) -> transaction.deletePoolMember(poolName, address));
+			diff.getPoolDescription().ifPresent(description -> transaction.updatePoolDescription(poolName, description.toJsonish()));
+			transaction.commit();
+			committedTransactions.increment();
+			LOGGER.info("Applied {} changes to pool {} in transaction {}", transaction.size(), poolName, transaction.getId());
+
+			final ShadowPool pool = diff.getCreatePool().isPresent() ? shadow.created(poolName, diff.getCreatePool().get()) : existingPool.get();
+			diff.getMembersToAdd().forEach((member, desiredMember) -> pool.putMember(member, desiredMember.getDescription()));
+			updatedDescriptions.forEach(pool::putMember);
+			diff.getMembersToDelete().keySet().forEach(pool::removeMember);
+			diff.getPoolDescription().ifPresent(pool::setDescription);
+		} catch (IControlException e) {
+			failedTransactions.increment();
+			LOGGER.debug("Transaction failed, applying changes to pool {} individually", poolName, e);
+			return false;
+		}
+		if (diff.isDeletePool()) {
+			deleteReleasedPool(poolName);
+		}
+		return true;
+	}
+
+	private void deleteReleasedPool(String poolName) {
+		safeDeletePool(poolName);
+		if (!shadow.getPool(poolName).isPresent()) {
+			desiredState.removeIfReleased(poolName);
 		}
 	}
 
-	private void updatePoolModifiedTimestamp(String poolName) {
-		final Pool pool = client.getPool(poolName);
-		final PoolDescription description = PoolDescription.fromJsonish(pool.getDescription()).orElse(new PoolDescription());
+	private PoolMemberDescription updatedDescription(ShadowPool pool, String member, DesiredMember desiredMember) {
+		final PoolMemberDescription description = new PoolMemberDescription();
+		pool.getMemberDescription(member).ifPresent(existing -> description.setCreated(existing.getCreated()));
 		description.setModified(Instant.now());
-		client.updatePoolDescription(poolName, description.toJsonish());
-	}
-
-	private void updatePoolMemberDescription(String poolName, RouteDetails route) {
-		final Pool pool = client.getPool(poolName);
-		pool.getMembers().ifPresent(members -> members.stream()
-				.filter(member -> member.getName().equals(route.getAddress().toString()))
-				.findFirst()
-				.ifPresent(member -> {
-					final Optional<PoolMemberDescription> existingDescription = PoolMemberDescription.fromJsonish(member.getDescription());
-					final PoolMemberDescription desiredDescription = new PoolMemberDescription(route);
-					boolean update = true;
-					if (existingDescription.isPresent()) {
-						final PoolMemberDescription description = existingDescription.get();
-						desiredDescription.setCreated(description.getCreated());
-						desiredDescription.setModified(description.getModified());
-						update = !desiredDescription.equals(description);
-					}
-					if (update) {
-						desiredDescription.setModified(Instant.now());
-						client.updatePoolMemberDescription(poolName, route.getAddress(), desiredDescription.toJsonish());
-					}
-				}));
+		description.setApplicationGuid(desiredMember.getDescription().getApplicationGuid());
+		description.setApplicationIndex(desiredMember.getDescription().getApplicationIndex());
+		description.setPrivateInstanceId(desiredMember.getDescription().getPrivateInstanceId());
+		return description;
+	}
+
+	private Pool newPool(String poolName, PoolDescription description) {
+		return Pool.create()
+				.name(poolName)
+				.description(description.toJsonish())
+						// TODO Provide mechanism to make monitor configurable
+				.monitor(Monitors.TCP_HALF_OPEN)
+						// TODO Make reselect tries configurable
+				.reselectTries(3)
+				.build();
+	}
+
+	private void rereadPool(String poolName) {
+		try {
+			shadow.update(client.getPool(poolName));
+		} catch (ResourceNotFoundException e) {
+			shadow.remove(poolName);
+		}
 	}
 
+	/**
+	 * Deletes the pool if it has no members and was created by norouter. The pool is reread from the LTM rather than
+	 * checked against the shadow because other norouter instances may be adding members to the same pool.
+	 */
 	private boolean safeDeletePool(String name) {
 		try {
 			final Pool pool = client.getPool(name);
 			final Optional<Collection<PoolMember>> members = pool.getMembers();
 			if (members.isPresent() && members.get().size() > 0) {
 				LOGGER.info("Can not delete pool {} because it still has pool members.", name);
+				shadow.update(pool);
 				return false;
 			}
 			final Optional<PoolDescription> description = PoolDescription.fromJsonish(pool.getDescription());
 			if (description.isPresent()) {
-				client.deletePool(name);
+				client.deletePoolIfPresent(name);
+				shadow.remove(name);
 				LOGGER.info("Deleted pool {}", name);
 				return true;
 			} else {
 				LOGGER.info("Can not delete pool {} because it has a missing/invalid description.", name);
 			}
+			shadow.update(pool);
 			return false;
 		} catch (ResourceNotFoundException e) {
+			shadow.remove(name);
 			return false;
 		}
 	}
@@ -233,9 +750,9 @@ public class Agent implements ApplicationListener<ApplicationEvent>, Ordered, Au
 		if (event instanceof RouteRegisterEvent) {
 			registerRoute((RouteDetails) event);
 		} else if (event instanceof RouteUnregisterEvent) {
-			// TODO Differentiate unregister events from timeout events
 			unregisterRoute((RouteUnregisterEvent) event);
 		} else if (event instanceof ContextRefreshedEvent) {
+			refreshShadow();
 			removeStalePools();
 			populateRouteRegistrar();
 		}
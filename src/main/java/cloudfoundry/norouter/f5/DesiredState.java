@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package cloudfoundry.norouter.f5;
+
+import java.net.InetSocketAddress;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The pools and pool members the LTM should have according to the routes norouter knows about. Each pool is
+ * immutable; changes replace the pool so readers always see a consistent set of members.
+ *
+ * @author Mike Heath
+ */
+class DesiredState {
+
+	private final Map<String, DesiredPool> pools = new ConcurrentHashMap<>();
+
+	/**
+	 * @return {@code true} if the pool member is new or its route details changed.
+	 */
+	public boolean register(String poolName, InetSocketAddress address, PoolMemberDescription description) {
+		final String member = address.toString();
+		final boolean[] changed = new boolean[1];
+		pools.compute(poolName, (name, pool) -> {
+			final DesiredMember existing = pool == null ? null : pool.members.get(member);
+			if (existing != null && sameRoute(existing.description, description)) {
+				// Un-release the pool if the last member was unregistered and registered again
+				return pool.released ? new DesiredPool(pool.members, pool.removed, false) : pool;
+			}
+			changed[0] = true;
+			final Map<String, DesiredMember> members = pool == null ? new HashMap<>() : new HashMap<>(pool.members);
+			members.put(member, new DesiredMember(address, description));
+			final Set<String> removed = pool == null ? new HashSet<>() : new HashSet<>(pool.removed);
+			removed.remove(member);
+			return new DesiredPool(members, removed, false);
+		});
+		return changed[0];
+	}
+
+	/**
+	 * @param last {@code true} if this was the last route for the pool's host, in which case the pool may be deleted
+	 * @return {@code true} if the desired state of the pool changed.
+	 */
+	public boolean unregister(String poolName, InetSocketAddress address, boolean last) {
+		final String member = address.toString();
+		final boolean[] changed = new boolean[1];
+		pools.computeIfPresent(poolName, (name, pool) -> {
+			final Map<String, DesiredMember> members = new HashMap<>(pool.members);
+			members.remove(member);
+			final boolean released = pool.released || last && members.isEmpty();
+			if (members.size() == pool.members.size() && released == pool.released && pool.removed.contains(member)) {
+				return pool;
+			}
+			changed[0] = true;
+			final Set<String> removed = new HashSet<>(pool.removed);
+			removed.add(member);
+			return new DesiredPool(members, removed, released);
+		});
+		return changed[0];
+	}
+
+	/**
+	 * Forgets the members that were unregistered from the pool once a reconciliation has removed them from the LTM.
+	 * Does nothing if the pool changed since {@code applied} was read, the next reconciliation will forget them.
+	 */
+	public void forgetRemoved(String poolName, DesiredPool applied) {
+		if (applied.removed.isEmpty()) {
+			return;
+		}
+		pools.computeIfPresent(poolName, (name, pool) ->
+				pool == applied ? new DesiredPool(pool.members, Collections.emptySet(), pool.released) : pool);
+	}
+
+	public Optional<DesiredPool> getPool(String poolName) {
+		return Optional.ofNullable(pools.get(poolName));
+	}
+
+	public boolean containsMember(String poolName, String member) {
+		final DesiredPool pool = pools.get(poolName);
+		return pool != null && pool.members.containsKey(member);
+	}
+
+	public Collection<String> getPoolNames() {
+		return Collections.unmodifiableCollection(pools.keySet());
+	}
+
+	public int size() {
+		return pools.size();
+	}
+
+	/**
+	 * Forgets a released pool once it has been deleted from the LTM. Does nothing if a route was registered for the
+	 * pool in the meantime.
+	 */
+	public void removeIfReleased(String poolName) {
+		pools.computeIfPresent(poolName, (name, pool) -> pool.released && pool.members.isEmpty() ? null : pool);
+	}
+
+	private static boolean sameRoute(PoolMemberDescription a, PoolMemberDescription b) {
+		return Objects.equals(a.getApplicationGuid(), b.getApplicationGuid())
+				&& Objects.equals(a.getApplicationIndex(), b.getApplicationIndex())
+				&& Objects.equals(a.getPrivateInstanceId(), b.getPrivateInstanceId());
+	}
+
+	static class DesiredPool {
+		private final Map<String, DesiredMember> members;
+		private final Set<String> removed;
+		private final boolean released;
+
+		private DesiredPool(Map<String, DesiredMember> members, Set<String> removed, boolean released) {
+			this.members = Collections.unmodifiableMap(members);
+			this.removed = Collections.unmodifiableSet(removed);
+			this.released = released;
+		}
+
+		/**
+		 * @return the desired pool members keyed by pool member name.
+		 */
+		public Map<String, DesiredMember> getMembers() {
+			return members;
+		}
+
+		/**
+		 * @return the pool members that were unregistered and may still be on the LTM. Members on the LTM that are
+		 * neither desired nor removed were added by another norouter and are left alone.
+		 */
+		public Set<String> getRemoved() {
+			return removed;
+		}
+
+		/**
+		 * @return {@code true} if the last route for the pool was unregistered and the pool should be deleted.
+		 */
+		public boolean isReleased() {
+			return released;
+		}
+	}
+
+	static class DesiredMember {
+		private final InetSocketAddress address;
+		private final PoolMemberDescription description;
+
+		private DesiredMember(InetSocketAddress address, PoolMemberDescription description) {
+			this.address = address;
+			this.description = description;
+		}
+
+		public InetSocketAddress getAddress() {
+			return address;
+		}
+
+		public PoolMemberDescription getDescription() {
+			return description;
+		}
+	}
+}
@@ -18,6 +18,8 @@ package cloudfoundry.norouter.f5;
 import cloudfoundry.norouter.config.F5Properties;
 import cloudfoundry.norouter.config.F5RouterVipProperties;
 import cloudfoundry.norouter.f5.client.IControlClient;
+import cloudfoundry.norouter.f5.client.IRule;
+import cloudfoundry.norouter.f5.client.ResourceNotFoundException;
 import cloudfoundry.norouter.f5.client.VirtualServer;
 import cloudfoundry.norouter.f5.dropsonde.LoggingPoolPopulator;
 import org.slf4j.Logger;
@@ -28,11 +30,23 @@ import org.springframework.context.ApplicationListener;
 import org.springframework.context.event.ContextRefreshedEvent;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.stereotype.Component;
-import org.springframework.util.StreamUtils;
 import org.stringtemplate.v4.ST;
+import org.stringtemplate.v4.STGroup;
+import org.stringtemplate.v4.STGroupFile;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
 
 /**
  * @author Mike Heath
@@ -42,6 +56,13 @@ public class F5Initializer implements ApplicationListener<ContextRefreshedEvent>
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(F5Initializer.class);
 
+	private static final int INITIALIZER_THREADS = 4;
+
+	private static final String CONTENT_HASH_PREFIX = "norouter-content-hash ";
+	private static final int CONTENT_HASH_LENGTH = 32;
+
+	private static final String IRULE_TEMPLATES = "templates/irules/norouter.stg";
+
 	@Autowired
 	F5Properties properties;
 
@@ -54,66 +75,184 @@ public class F5Initializer implements ApplicationListener<ContextRefreshedEvent>
 	@Autowired
 	LoggingPoolPopulator loggingPoolPopulator;
 
-	ST routerIRule() throws IOException {
-		final ClassPathResource resource = new ClassPathResource("templates/irules/router.tcl.st");
-		final String template = StreamUtils.copyToString(resource.getInputStream(), StandardCharsets.UTF_8);
-		return new ST(template, '`', '`');
-	}
-
-	ST loggingIRule() throws IOException {
-		final ClassPathResource resource = new ClassPathResource("templates/irules/logging.tcl.st");
-		final String template = StreamUtils.copyToString(resource.getInputStream(), StandardCharsets.UTF_8);
-		return new ST(template, '`', '`');
-	}
+	/**
+	 * Only present when routing with a data group.
+	 */
+	@Autowired(required = false)
+	RouteDataGroup routeDataGroup;
 
-	ST sessionAffinityIRule() throws IOException {
-		final ClassPathResource resource = new ClassPathResource("templates/irules/session-affinity.tcl.st");
-		final String template = StreamUtils.copyToString(resource.getInputStream(), StandardCharsets.UTF_8);
-		return new ST(template);
+	/**
+	 * The iRules are rendered from a single template group so the per-feature iRules and the consolidated iRule share
+	 * the same event handler bodies.
+	 */
+	STGroup iRuleTemplates() throws IOException {
+		final ClassPathResource resource = new ClassPathResource(IRULE_TEMPLATES);
+		return new STGroupFile(resource.getURL(), StandardCharsets.UTF_8.name(), '`', '`');
 	}
 
 	@Override
 	public void onApplicationEvent(ContextRefreshedEvent event) {
+		// The data group, the logging pool and each iRule are independent so they are written concurrently. An iRule
+		// can only be saved once the data group and logging pool it references exist.
+		final ExecutorService executor = Executors.newFixedThreadPool(INITIALIZER_THREADS);
 		try {
-			final String sessionAffinityIRule = sessionAffinityIRule().render();
-			final String sessionAffinityIruleName = properties.getiRuleNamePrefix() + "session_affinity";
-			LOGGER.info("Updating iRule {}", sessionAffinityIruleName);
-			client.createOrUpdateIRule(sessionAffinityIruleName, sessionAffinityIRule);
-
-			final String routerIRule = routerIRule()
-					.add("poolNamePrefix", properties.getPoolNamePrefix())
-					.render();
-			final String routerIRuleName = properties.getiRuleNamePrefix() + "router";
-			LOGGER.info("Updating iRule {}", routerIRuleName);
-			client.createOrUpdateIRule(routerIRuleName, routerIRule);
-
-			loggingPoolPopulator.updateLoggingPool();
-			final String loggingPoolName = properties.getLoggingPoolName();
-			final String loggingIRule = loggingIRule()
-					.add("logging_pool", loggingPoolName)
-					.add("ltm_id", properties.getLtmId())
-					.render();
-			final String loggingIRuleName = properties.getiRuleNamePrefix() + "logging";
-			LOGGER.info("Updating iRule {} using pool {} for handling logging events", loggingIRuleName, loggingPoolName);
-			client.createOrUpdateIRule(loggingIRuleName, loggingIRule);
+			final CompletableFuture<Void> dataGroup = CompletableFuture.runAsync(() -> {
+				if (routeDataGroup != null) {
+					routeDataGroup.createIfAbsent();
+				}
+			}, executor);
+			final CompletableFuture<Void> loggingPool = CompletableFuture.runAsync(() -> {
+				if (properties.isLoggingEnabled()) {
+					loggingPoolPopulator.updateLoggingPool();
+				}
+			}, executor);
+			final CompletableFuture<Void> references = CompletableFuture.allOf(dataGroup, loggingPool);
+			final List<CompletableFuture<String>> iRules = properties.isConsolidatedIRule() ?
+					updateConsolidatedIRule(references, executor) : updateIRules(references, executor);
 
-			LOGGER.info("Updating virtual server {}/{}", vipProperties.getName(), vipProperties.getDestination());
 			final VirtualServer.Builder routerBuilder = VirtualServer.create()
 					.name(vipProperties.getName())
-					.description(vipProperties.getDescription())
 					.destination(vipProperties.getDestination())
-					.source(vipProperties.getSource())
-					.addRule(sessionAffinityIruleName)
-					.addRule(routerIRuleName)
-					.addRule(loggingIRuleName);
+					.source(vipProperties.getSource());
+			iRules.forEach(iRule -> routerBuilder.addRule(iRule.join()));
 			vipProperties.getRules().forEach(routerBuilder::addRule);
 			routerBuilder
 					.addProfile(VirtualServer.Profile.TCP_PROFILE)
 					.addProfile(VirtualServer.Profile.HTTP_PROFILE);
-			client.createOrUpdateVirtualServer(routerBuilder.build());
+			updateVirtualServer(routerBuilder);
 		} catch (IOException e) {
 			throw new BeanInitializationException("Error initializing F5 LTM", e);
+		} catch (CompletionException e) {
+			throw new BeanInitializationException("Error initializing F5 LTM", e.getCause());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Installs a separate iRule for each enabled feature.
+	 *
+	 * @return the names of the iRules to attach to the virtual server, in order, once each iRule has been saved.
+	 */
+	private List<CompletableFuture<String>> updateIRules(CompletableFuture<Void> references, Executor executor) throws IOException {
+		final STGroup templates = iRuleTemplates();
+		final List<CompletableFuture<String>> iRules = new ArrayList<>();
+		if (properties.isSessionAffinity()) {
+			final String sessionAffinityIRule = templates.getInstanceOf("sessionAffinity").render();
+			final String sessionAffinityIruleName = properties.getiRuleNamePrefix() + "session_affinity";
+			iRules.add(CompletableFuture.supplyAsync(() -> updateIRule(sessionAffinityIruleName, sessionAffinityIRule), executor));
+		}
+
+		final ST routerTemplate = templates.getInstanceOf("router");
+		if (routeDataGroup == null) {
+			routerTemplate.add("pool_name_prefix", properties.getPoolNamePrefix());
+		} else {
+			routerTemplate.add("data_group", routeDataGroup.getName());
+		}
+		final String routerIRule = routerTemplate.render();
+		final String routerIRuleName = properties.getiRuleNamePrefix() + "router";
+		iRules.add(references.thenApplyAsync(ignored -> updateIRule(routerIRuleName, routerIRule), executor));
+
+		if (properties.isLoggingEnabled()) {
+			final String loggingIRule = templates.getInstanceOf("logging")
+					.add("binary_logging", properties.isLoggingBinary())
+					.add("logging_pool", properties.getLoggingPoolName())
+					.add("hsl_proto", properties.isLoggingUdp() ? "UDP" : "TCP")
+					.add("ltm_id", properties.getLtmId())
+					.add("sequential_request_ids", properties.isLoggingSequentialRequestIds())
+					.render();
+			final String loggingIRuleName = properties.getiRuleNamePrefix() + "logging";
+			iRules.add(references.thenApplyAsync(ignored -> updateIRule(loggingIRuleName, loggingIRule), executor));
+		}
+		return iRules;
+	}
+
+	/**
+	 * Installs a single iRule generated from the enabled features so each request event is dispatched once. Without
+	 * logging, the request's headers aren't captured at all.
+	 *
+	 * @return the name of the iRule to attach to the virtual server once it has been saved.
+	 */
+	private List<CompletableFuture<String>> updateConsolidatedIRule(CompletableFuture<Void> references, Executor executor) throws IOException {
+		final ST template = iRuleTemplates().getInstanceOf("norouter")
+				.add("session_affinity", properties.isSessionAffinity())
+				.add("logging", properties.isLoggingEnabled())
+				.add("binary_logging", properties.isLoggingBinary())
+				.add("logging_pool", properties.getLoggingPoolName())
+				.add("hsl_proto", properties.isLoggingUdp() ? "UDP" : "TCP")
+				.add("ltm_id", properties.getLtmId())
+				.add("sequential_request_ids", properties.isLoggingSequentialRequestIds());
+		template.add("pool_name_prefix", properties.getPoolNamePrefix());
+		template.add("data_group", routeDataGroup == null ? null : routeDataGroup.getName());
+		final String iRule = template.render();
+		final String iRuleName = properties.getiRuleNamePrefix() + "norouter";
+		LOGGER.info("Rendered iRule {} (session affinity: {}, logging: {})", iRuleName, properties.isSessionAffinity(), properties.isLoggingEnabled());
+		return Collections.singletonList(references.thenApplyAsync(ignored -> updateIRule(iRuleName, iRule), executor));
+	}
+
+	/**
+	 * Saves the iRule unless the LTM already has the same rendered content. Saving an iRule makes every TMM recompile
+	 * it, so the hash of the content is appended to the body as a comment and compared on the next startup.
+	 *
+	 * @return the name of the iRule.
+	 */
+	private String updateIRule(String name, String body) {
+		final String hashComment = "# " + CONTENT_HASH_PREFIX + contentHash(body);
+		final IRule existing;
+		try {
+			existing = client.getIRule(name);
+		} catch (ResourceNotFoundException e) {
+			LOGGER.info("Creating iRule {}", name);
+			client.createIRule(name, body + "\n" + hashComment + "\n");
+			return name;
+		}
+		if (existing.getBody() != null && existing.getBody().contains(hashComment)) {
+			LOGGER.info("iRule {} is up to date", name);
+		} else {
+			LOGGER.info("Updating iRule {}", name);
+			client.updateIRule(name, body + "\n" + hashComment + "\n");
+		}
+		return name;
+	}
+
+	/**
+	 * Saves the virtual server unless its description records that it was built from the same settings.
+	 */
+	private void updateVirtualServer(VirtualServer.Builder builder) {
+		final VirtualServer desired = builder.build();
+		final String profiles = desired.getProfiles()
+				.map(items -> items.stream().map(VirtualServer.Profile::getName).collect(Collectors.joining(",")))
+				.orElse("");
+		final String hash = contentHash(String.join("|", desired.getName(), vipProperties.getDescription(),
+				desired.getDestination(), desired.getSource(), String.join(",", desired.getRules()), profiles));
+		final String hashSuffix = "[" + CONTENT_HASH_PREFIX + hash + "]";
+		final String description = vipProperties.getDescription() == null ? hashSuffix : vipProperties.getDescription() + " " + hashSuffix;
+		final VirtualServer virtualServer = builder.description(description).build();
+		try {
+			final VirtualServer existing = client.getVirtualServer(virtualServer.getName());
+			if (existing.getDescription() != null && existing.getDescription().endsWith(hashSuffix)) {
+				LOGGER.info("Virtual server {}/{} is up to date", virtualServer.getName(), virtualServer.getDestination());
+				return;
+			}
+			LOGGER.info("Updating virtual server {}/{}", virtualServer.getName(), virtualServer.getDestination());
+			client.updateVirtualServer(virtualServer);
+		} catch (ResourceNotFoundException e) {
+			LOGGER.info("Creating virtual server {}/{}", virtualServer.getName(), virtualServer.getDestination());
+			client.createVirtualServer(virtualServer);
 		}
 	}
-}
 
+	static String contentHash(String content) {
+		final byte[] digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256").digest(content.getBytes(StandardCharsets.UTF_8));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		final StringBuilder hash = new StringBuilder(CONTENT_HASH_LENGTH);
+		for (int i = 0; i < CONTENT_HASH_LENGTH / 2; i++) {
+			hash.append(Character.forDigit(digest[i] >> 4 & 0xf, 16)).append(Character.forDigit(digest[i] & 0xf, 16));
+		}
+		return hash.toString();
+	}
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package cloudfoundry.norouter.f5;
+
+import cloudfoundry.norouter.NorouterUtil;
+import cloudfoundry.norouter.f5.DesiredState.DesiredMember;
+import cloudfoundry.norouter.f5.DesiredState.DesiredPool;
+import cloudfoundry.norouter.f5.PoolShadow.ShadowPool;
+
+import java.net.InetSocketAddress;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * The minimal set of changes that bring a pool on the LTM in line with its desired state.
+ *
+ * @author Mike Heath
+ */
+class PoolDiff {
+
+	private final String poolName;
+	private final PoolDescription createPool;
+	private final Map<String, DesiredMember> membersToAdd = new LinkedHashMap<>();
+	private final Map<String, DesiredMember> membersToUpdate = new LinkedHashMap<>();
+	private final Map<String, InetSocketAddress> membersToDelete = new LinkedHashMap<>();
+	private final boolean deletePool;
+	private final PoolDescription poolDescription;
+
+	public static PoolDiff between(String poolName, DesiredPool desired, Optional<ShadowPool> actual) {
+		return new PoolDiff(poolName, desired, actual.orElse(null));
+	}
+
+	private PoolDiff(String poolName, DesiredPool desired, ShadowPool actual) {
+		this.poolName = poolName;
+		final Map<String, DesiredMember> desiredMembers = desired.getMembers();
+		if (actual == null) {
+			createPool = desiredMembers.isEmpty() ? null : new PoolDescription(Instant.now(), Instant.now());
+			membersToAdd.putAll(desiredMembers);
+			deletePool = false;
+			poolDescription = null;
+			return;
+		}
+		createPool = null;
+		desiredMembers.forEach((member, desiredMember) -> {
+			if (!actual.containsMember(member)) {
+				membersToAdd.put(member, desiredMember);
+			} else if (!isCurrent(actual.getMemberDescription(member), desiredMember.getDescription())) {
+				membersToUpdate.put(member, desiredMember);
+			}
+		});
+		// Only members this instance saw unregistered are deleted, other norouter instances may still have routes
+		// for members this instance hasn't heard of yet
+		actual.getMemberNames().stream()
+				.filter(member -> !desiredMembers.containsKey(member) && desired.getRemoved().contains(member))
+				.forEach(member -> membersToDelete.put(member, NorouterUtil.toSocketAddress(member)));
+		deletePool = desired.isReleased() && desiredMembers.isEmpty();
+		if (!deletePool && (membersToAdd.size() > 0 || membersToDelete.size() > 0)) {
+			poolDescription = new PoolDescription();
+			actual.getDescription().ifPresent(description -> poolDescription.setCreated(description.getCreated()));
+			poolDescription.setModified(Instant.now());
+		} else {
+			poolDescription = null;
+		}
+	}
+
+	/**
+	 * Members descriptions record when the member was created and modified. Only the route details are compared.
+	 */
+	private static boolean isCurrent(Optional<PoolMemberDescription> existing, PoolMemberDescription desired) {
+		if (!existing.isPresent()) {
+			return false;
+		}
+		final PoolMemberDescription comparable = new PoolMemberDescription();
+		comparable.setCreated(existing.get().getCreated());
+		comparable.setModified(existing.get().getModified());
+		comparable.setApplicationGuid(desired.getApplicationGuid());
+		comparable.setApplicationIndex(desired.getApplicationIndex());
+		comparable.setPrivateInstanceId(desired.getPrivateInstanceId());
+		return comparable.equals(existing.get());
+	}
+
+	public String getPoolName() {
+		return poolName;
+	}
+
+	/**
+	 * @return the description of the pool to create or an empty {@code Optional} if the pool exists.
+	 */
+	public Optional<PoolDescription> getCreatePool() {
+		return Optional.ofNullable(createPool);
+	}
+
+	public Map<String, DesiredMember> getMembersToAdd() {
+		return membersToAdd;
+	}
+
+	public Map<String, DesiredMember> getMembersToUpdate() {
+		return membersToUpdate;
+	}
+
+	public Map<String, InetSocketAddress> getMembersToDelete() {
+		return membersToDelete;
+	}
+
+	/**
+	 * @return {@code true} if the pool should be deleted once its members have been removed.
+	 */
+	public boolean isDeletePool() {
+		return deletePool;
+	}
+
+	/**
+	 * @return the new description for the pool if its members changed.
+	 */
+	public Optional<PoolDescription> getPoolDescription() {
+		return Optional.ofNullable(poolDescription);
+	}
+
+	/**
+	 * @return the number of iControl calls needed to apply this diff.
+	 */
+	public int size() {
+		return (createPool == null ? 0 : 1)
+				+ membersToAdd.size()
+				+ membersToUpdate.size()
+				+ membersToDelete.size()
+				+ (deletePool ? 1 : 0)
+				+ (poolDescription == null ? 0 : 1);
+	}
+
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+}
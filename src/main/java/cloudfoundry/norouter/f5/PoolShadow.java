@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package cloudfoundry.norouter.f5;
+
+import cloudfoundry.norouter.f5.client.Pool;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * An in-memory copy of the state of the pools managed by norouter on the LTM. The shadow is seeded by scanning the
+ * LTM, kept current with the changes the {@link Agent} makes and periodically refreshed to pick up drift.
+ *
+ * @author Mike Heath
+ */
+class PoolShadow {
+
+	private final Map<String, ShadowPool> pools = new ConcurrentHashMap<>();
+
+	public Optional<ShadowPool> getPool(String name) {
+		return Optional.ofNullable(pools.get(name));
+	}
+
+	public Collection<ShadowPool> getPools() {
+		return Collections.unmodifiableCollection(pools.values());
+	}
+
+	public int size() {
+		return pools.size();
+	}
+
+	/**
+	 * Records the state of a pool as read from the LTM.
+	 */
+	public ShadowPool update(Pool pool) {
+		final ShadowPool shadowPool = new ShadowPool(pool.getName(), PoolDescription.fromJsonish(pool.getDescription()).orElse(null));
+		pool.getMembers().ifPresent(members -> members.forEach(member ->
+				shadowPool.members.put(member.getName(), new ShadowMember(PoolMemberDescription.fromJsonish(member.getDescription()).orElse(null)))));
+		pools.put(pool.getName(), shadowPool);
+		return shadowPool;
+	}
+
+	/**
+	 * Records a pool we just created.
+	 */
+	public ShadowPool created(String name, PoolDescription description) {
+		final ShadowPool shadowPool = new ShadowPool(name, description);
+		pools.put(name, shadowPool);
+		return shadowPool;
+	}
+
+	public void remove(String name) {
+		pools.remove(name);
+	}
+
+	/**
+	 * Replaces the shadow with the pools read from the LTM. Pools that were changed after {@code scanStarted} are kept
+	 * as they are because the scan may have read them before the change was made.
+	 *
+	 * @param scanStarted the value of {@link System#nanoTime()} when the LTM scan started
+	 */
+	public void refresh(Stream<Pool> ltmPools, long scanStarted) {
+		final Set<String> seen = new HashSet<>();
+		ltmPools.forEach(pool -> {
+			seen.add(pool.getName());
+			final ShadowPool existing = pools.get(pool.getName());
+			if (existing == null || existing.lastChanged - scanStarted < 0) {
+				update(pool);
+			}
+		});
+		pools.values().removeIf(pool -> !seen.contains(pool.name) && pool.lastChanged - scanStarted < 0);
+	}
+
+	static class ShadowPool {
+		private final String name;
+		private final Map<String, ShadowMember> members = new ConcurrentHashMap<>();
+		private volatile PoolDescription description;
+		private volatile long lastChanged = System.nanoTime();
+
+		private ShadowPool(String name, PoolDescription description) {
+			this.name = name;
+			this.description = description;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public Optional<PoolDescription> getDescription() {
+			return Optional.ofNullable(description);
+		}
+
+		public void setDescription(PoolDescription description) {
+			this.description = description;
+			lastChanged = System.nanoTime();
+		}
+
+		public boolean hasMembers() {
+			return !members.isEmpty();
+		}
+
+		public Collection<String> getMemberNames() {
+			return Collections.unmodifiableCollection(members.keySet());
+		}
+
+		public boolean containsMember(String member) {
+			return members.containsKey(member);
+		}
+
+		/**
+		 * @return the description of the member or an empty {@code Optional} if the member does not exist or its
+		 * description is missing or invalid.
+		 */
+		public Optional<PoolMemberDescription> getMemberDescription(String member) {
+			final ShadowMember shadowMember = members.get(member);
+			return shadowMember == null ? Optional.empty() : Optional.ofNullable(shadowMember.description);
+		}
+
+		public void putMember(String member, PoolMemberDescription description) {
+			members.put(member, new ShadowMember(description));
+			lastChanged = System.nanoTime();
+		}
+
+		public void removeMember(String member) {
+			members.remove(member);
+			lastChanged = System.nanoTime();
+		}
+	}
+
+	private static class ShadowMember {
+		private final PoolMemberDescription description;
+
+		ShadowMember(PoolMemberDescription description) {
+			this.description = description;
+		}
+	}
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package cloudfoundry.norouter.f5;
+
+import cloudfoundry.norouter.f5.client.ConflictException;
+import cloudfoundry.norouter.f5.client.DataGroup;
+import cloudfoundry.norouter.f5.client.IControlClient;
+import cloudfoundry.norouter.f5.client.ResourceNotFoundException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.core.Ordered;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps an internal data group on the LTM mapping each routed host to its pool so the router iRule can find a host's
+ * pool with a single {@code class match} lookup.
+ *
+ * <p>The data group is built from the pools the {@link Agent} knows are on the LTM. Changes are collected and written
+ * in one update per flush interval rather than one update per route event. Only the hosts of the pools the agent
+ * reconciled since the last flush are checked, so a flush with no route changes costs nothing. All pools are scanned
+ * after the agent rereads the LTM.
+ *
+ * @author Mike Heath
+ */
+@ManagedResource(objectName = "norouter:type=RouteDataGroup")
+public class RouteDataGroup implements ApplicationListener<ContextRefreshedEvent>, Ordered, AutoCloseable {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(RouteDataGroup.class);
+
+	private final String name;
+	private final IControlClient client;
+	private final Agent agent;
+	private final Duration flushInterval;
+
+	private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+	private final LongAdder updates = new LongAdder();
+
+	/**
+	 * The records last written to the LTM or {@code null} if the data group hasn't been written yet.
+	 */
+	private volatile Map<String, String> flushed;
+
+	/**
+	 * Pools taken from the agent that haven't been written yet, kept if a flush fails. Guarded by {@code this}.
+	 */
+	private final Set<String> pendingChanges = new HashSet<>();
+	private boolean rescan = true;
+
+	public RouteDataGroup(String name, IControlClient client, Agent agent, Duration flushInterval) {
+		this.name = name;
+		this.client = client;
+		this.agent = agent;
+		this.flushInterval = flushInterval;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Creates the data group if it doesn't exist so an iRule referencing it can be installed. Existing records are
+	 * left alone until the first flush so routes keep working while norouter starts.
+	 */
+	public void createIfAbsent() {
+		try {
+			client.createDataGroup(new DataGroup(name, Collections.emptyMap()));
+			LOGGER.info("Created data group {}", name);
+		} catch (ConflictException e) {
+			LOGGER.debug("Data group {} already exists", name);
+		}
+	}
+
+	/**
+	 * Writes the routed hosts to the LTM if they changed since the last flush.
+	 */
+	public synchronized void flush() {
+		rescan |= agent.takeShadowRefreshed();
+		pendingChanges.addAll(agent.takeRouteChanges());
+		final Map<String, String> hosts;
+		if (rescan || flushed == null) {
+			hosts = agent.getRoutedHosts();
+		} else if (pendingChanges.isEmpty()) {
+			return;
+		} else {
+			hosts = new HashMap<>(flushed);
+			pendingChanges.forEach(poolName -> {
+				if (agent.isRouted(poolName)) {
+					hosts.put(agent.routedHost(poolName), poolName);
+				} else {
+					hosts.remove(agent.routedHost(poolName), poolName);
+				}
+			});
+		}
+		if (!hosts.equals(flushed)) {
+			try {
+				client.updateDataGroupRecords(name, hosts);
+			} catch (ResourceNotFoundException e) {
+				client.createDataGroup(new DataGroup(name, hosts));
+			}
+			flushed = hosts;
+			updates.increment();
+			LOGGER.debug("Updated data group {} with {} hosts", name, hosts.size());
+		}
+		pendingChanges.clear();
+		rescan = false;
+	}
+
+	@ManagedAttribute(description = "Number of hosts in the data group")
+	public int getHosts() {
+		final Map<String, String> hosts = flushed;
+		return hosts == null ? 0 : hosts.size();
+	}
+
+	@ManagedAttribute(description = "Number of times the data group was written to the LTM")
+	public long getUpdates() {
+		return updates.sum();
+	}
+
+	@Override
+	public void onApplicationEvent(ContextRefreshedEvent event) {
+		// The agent has read the pools from the LTM by now so the first flush won't empty the data group
+		final long flushMillis = flushInterval.toMillis();
+		scheduler.scheduleWithFixedDelay(() -> {
+			try {
+				flush();
+			} catch (RuntimeException e) {
+				LOGGER.error("Error updating data group {}", name, e);
+			}
+		}, 0, flushMillis, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public int getOrder() {
+		// Run after the agent
+		return 1;
+	}
+
+	@Override
+	public void close() {
+		scheduler.shutdownNow();
+	}
+
+}
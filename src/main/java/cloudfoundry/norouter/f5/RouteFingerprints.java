@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package cloudfoundry.norouter.f5;
+
+import cloudfoundry.norouter.routingtable.RouteDetails;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.LongSupplier;
+
+/**
+ * Remembers the route details of each pool member last applied to the LTM so that heartbeats that re-announce a
+ * route that is already in place can be dropped without any further work. Fingerprints expire so that routes are
+ * periodically re-verified against the LTM.
+ *
+ * @author Mike Heath
+ */
+class RouteFingerprints {
+
+	private final Map<String, Fingerprint> fingerprints = new ConcurrentHashMap<>();
+	private final long ttlNanos;
+	private final LongSupplier nanoTime;
+
+	public RouteFingerprints(Duration ttl) {
+		this(ttl, System::nanoTime);
+	}
+
+	RouteFingerprints(Duration ttl, LongSupplier nanoTime) {
+		this.ttlNanos = ttl.toNanos();
+		this.nanoTime = nanoTime;
+	}
+
+	/**
+	 * @return {@code true} if the route was applied with the same details within the TTL.
+	 */
+	public boolean isCurrent(String poolName, RouteDetails route) {
+		final Fingerprint fingerprint = fingerprints.get(key(poolName, route.getAddress().toString()));
+		return fingerprint != null
+				&& fingerprint.matches(route.getApplicationGuid(), route.getApplicationIndex(), route.getPrivateInstanceId())
+				&& nanoTime.getAsLong() - fingerprint.expires < 0;
+	}
+
+	/**
+	 * Records that the pool member is on the LTM with the given description.
+	 */
+	public void applied(String poolName, String member, PoolMemberDescription description) {
+		// Spread expiry so routes applied together are not all re-verified together
+		final long jitter = ttlNanos > 10 ? ThreadLocalRandom.current().nextLong(ttlNanos / 10) : 0;
+		fingerprints.put(key(poolName, member), new Fingerprint(
+				description.getApplicationGuid(),
+				description.getApplicationIndex(),
+				description.getPrivateInstanceId(),
+				nanoTime.getAsLong() + ttlNanos - jitter));
+	}
+
+	public void remove(String poolName, String member) {
+		fingerprints.remove(key(poolName, member));
+	}
+
+	public int size() {
+		return fingerprints.size();
+	}
+
+	private static String key(String poolName, String member) {
+		return poolName + '|' + member;
+	}
+
+	/**
+	 * Keeps the route details themselves rather than a hash of them so a collision can never drop a changed route.
+	 */
+	private static class Fingerprint {
+		private final UUID applicationGuid;
+		private final Integer applicationIndex;
+		private final String privateInstanceId;
+		private final long expires;
+
+		Fingerprint(UUID applicationGuid, Integer applicationIndex, String privateInstanceId, long expires) {
+			this.applicationGuid = applicationGuid;
+			this.applicationIndex = applicationIndex;
+			this.privateInstanceId = privateInstanceId;
+			this.expires = expires;
+		}
+
+		boolean matches(UUID applicationGuid, Integer applicationIndex, String privateInstanceId) {
+			return Objects.equals(this.applicationGuid, applicationGuid)
+					&& Objects.equals(this.applicationIndex, applicationIndex)
+					&& Objects.equals(this.privateInstanceId, privateInstanceId);
+		}
+	}
+}
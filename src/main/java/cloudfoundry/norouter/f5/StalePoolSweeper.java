@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package cloudfoundry.norouter.f5;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides which stale pools to delete and paces the deletes. A pool has to be found stale on several consecutive
+ * sweeps before it is deleted so a pool that is briefly empty while its application restarts is left alone. Deletes
+ * are spread out at a maximum rate so a sweep doesn't hold up route changes waiting on the same iControl connections.
+ * The rate holds across sweeps, so deletes still waiting from one sweep are not doubled up by the next.
+ *
+ * @author Mike Heath
+ */
+public class StalePoolSweeper {
+
+	private final int passes;
+	private final long deleteIntervalNanos;
+
+	/**
+	 * The number of consecutive sweeps each pool has been found stale.
+	 */
+	private final Map<String, Integer> marks = new ConcurrentHashMap<>();
+
+	/**
+	 * The pools with a delete scheduled that hasn't finished yet.
+	 */
+	private final Set<String> scheduled = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * The earliest time, from {@link System#nanoTime()}, the next delete may run.
+	 */
+	private final AtomicLong nextDeleteNanos = new AtomicLong(System.nanoTime());
+
+	/**
+	 * @param passes              the number of consecutive sweeps a pool must be found stale before it is deleted
+	 * @param maxDeletesPerSecond the maximum rate at which stale pools are deleted
+	 */
+	public StalePoolSweeper(int passes, double maxDeletesPerSecond) {
+		if (passes < 1) {
+			throw new IllegalArgumentException("passes must be at least 1");
+		}
+		if (maxDeletesPerSecond <= 0) {
+			throw new IllegalArgumentException("maxDeletesPerSecond must be greater than 0");
+		}
+		this.passes = passes;
+		this.deleteIntervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / maxDeletesPerSecond);
+	}
+
+	/**
+	 * Marks the pools found stale on this sweep. Pools that were marked on an earlier sweep but are no longer stale
+	 * lose their mark.
+	 *
+	 * @return the pools that have now been stale for the required number of consecutive sweeps and don't already
+	 * have a delete scheduled. The returned pools are considered scheduled until {@link #finished(String)} is called.
+	 */
+	public List<String> sweep(Collection<String> stalePools) {
+		final Set<String> stale = new HashSet<>(stalePools);
+		marks.keySet().retainAll(stale);
+		final List<String> expired = new ArrayList<>();
+		stale.forEach(poolName -> {
+			if (marks.merge(poolName, 1, Integer::sum) >= passes && scheduled.add(poolName)) {
+				expired.add(poolName);
+			}
+		});
+		return expired;
+	}
+
+	/**
+	 * Forgets the mark of a pool once its delete has run, whether or not the pool was deleted.
+	 */
+	public void finished(String poolName) {
+		marks.remove(poolName);
+		scheduled.remove(poolName);
+	}
+
+	/**
+	 * Reserves the next free delete slot. Slots are spaced at the maximum rate and shifted by up to half the spacing
+	 * so they don't line up with other periodic work.
+	 *
+	 * @return the delay until the reserved slot.
+	 */
+	public long nextDeleteDelayNanos() {
+		final long now = System.nanoTime();
+		final long next = nextDeleteNanos.getAndAccumulate(now, (slot, time) -> (slot - time < 0 ? time : slot) + deleteIntervalNanos);
+		final long slot = next - now < 0 ? now : next;
+		return slot - now + ThreadLocalRandom.current().nextLong(deleteIntervalNanos / 2 + 1);
+	}
+
+	/**
+	 * @return the number of pools currently marked as stale.
+	 */
+	public int size() {
+		return marks.size();
+	}
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package cloudfoundry.norouter.f5;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs tasks on a fixed number of single threaded lanes. Tasks submitted with the same key always land on the same
+ * lane so they run in the order they were submitted. Tasks with different keys may run in parallel.
+ *
+ * <p>Each lane has a bounded queue. When a lane's queue is full, the submitting thread blocks until there is room
+ * rather than running the task itself, which would break the ordering guarantee.
+ *
+ * @author Mike Heath
+ */
+public class StripedExecutor implements AutoCloseable {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(StripedExecutor.class);
+
+	private final Lane[] lanes;
+
+	public StripedExecutor(String name, int laneCount, int queueSize) {
+		if (laneCount < 1) {
+			throw new IllegalArgumentException("laneCount must be at least 1");
+		}
+		lanes = new Lane[laneCount];
+		for (int i = 0; i < laneCount; i++) {
+			lanes[i] = new Lane(name + "-" + i, queueSize);
+		}
+	}
+
+	public int getLaneCount() {
+		return lanes.length;
+	}
+
+	public int laneOf(Object key) {
+		final int hash = key.hashCode();
+		return ((hash ^ (hash >>> 16)) & Integer.MAX_VALUE) % lanes.length;
+	}
+
+	public void execute(Object key, Runnable task) {
+		execute(laneOf(key), task);
+	}
+
+	public void execute(int lane, Runnable task) {
+		lanes[lane].execute(task);
+	}
+
+	/**
+	 * Queues the task unless its lane is full.
+	 *
+	 * @return {@code false} if the lane's queue is full and the task was not queued.
+	 */
+	public boolean tryExecute(Object key, Runnable task) {
+		return lanes[laneOf(key)].tryExecute(task);
+	}
+
+	public int getQueueDepth() {
+		int depth = 0;
+		for (Lane lane : lanes) {
+			depth += lane.executor.getQueue().size();
+		}
+		return depth;
+	}
+
+	public int[] getLaneQueueDepths() {
+		final int[] depths = new int[lanes.length];
+		for (int i = 0; i < lanes.length; i++) {
+			depths[i] = lanes[i].executor.getQueue().size();
+		}
+		return depths;
+	}
+
+	public long[] getLaneCompletedTasks() {
+		final long[] completed = new long[lanes.length];
+		for (int i = 0; i < lanes.length; i++) {
+			completed[i] = lanes[i].completed.sum();
+		}
+		return completed;
+	}
+
+	/**
+	 * @return the average time, in milliseconds, a task waits in the queue before it starts running for each lane.
+	 */
+	public double[] getLaneAverageQueueWaitMillis() {
+		final double[] waits = new double[lanes.length];
+		for (int i = 0; i < lanes.length; i++) {
+			final long completed = lanes[i].completed.sum();
+			waits[i] = completed == 0 ? 0 : lanes[i].queueWaitNanos.sum() / (double) completed / 1_000_000;
+		}
+		return waits;
+	}
+
+	/**
+	 * @return the average time, in milliseconds, from submitting a task to its completion for each lane.
+	 */
+	public double[] getLaneAverageLatencyMillis() {
+		final double[] latencies = new double[lanes.length];
+		for (int i = 0; i < lanes.length; i++) {
+			final long completed = lanes[i].completed.sum();
+			latencies[i] = completed == 0 ? 0 : lanes[i].latencyNanos.sum() / (double) completed / 1_000_000;
+		}
+		return latencies;
+	}
+
+	@Override
+	public void close() {
+		for (Lane lane : lanes) {
+			lane.executor.shutdown();
+		}
+		for (Lane lane : lanes) {
+			try {
+				if (!lane.executor.awaitTermination(10, TimeUnit.SECONDS)) {
+					lane.executor.shutdownNow();
+				}
+			} catch (InterruptedException e) {
+				lane.executor.shutdownNow();
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private static class Lane {
+
+		private final ThreadPoolExecutor executor;
+		private final LongAdder completed = new LongAdder();
+		private final LongAdder queueWaitNanos = new LongAdder();
+		private final LongAdder latencyNanos = new LongAdder();
+
+		Lane(String name, int queueSize) {
+			executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueSize),
+					runnable -> {
+						final Thread thread = new Thread(runnable, name);
+						thread.setDaemon(true);
+						return thread;
+					},
+					(runnable, executor) -> {
+						if (executor.isShutdown()) {
+							throw new RejectedExecutionException("Executor " + name + " has been shut down");
+						}
+						try {
+							executor.getQueue().put(runnable);
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+							throw new RejectedExecutionException(e);
+						}
+					});
+			executor.prestartCoreThread();
+		}
+
+		void execute(Runnable task) {
+			executor.execute(instrument(task));
+		}
+
+		boolean tryExecute(Runnable task) {
+			if (executor.isShutdown()) {
+				throw new RejectedExecutionException("Executor has been shut down");
+			}
+			// The lane's only thread is started up front so queuing directly never strands a task
+			return executor.getQueue().offer(instrument(task));
+		}
+
+		private Runnable instrument(Runnable task) {
+			final long submitted = System.nanoTime();
+			return () -> {
+				queueWaitNanos.add(System.nanoTime() - submitted);
+				try {
+					task.run();
+				} catch (Throwable t) {
+					LOGGER.error("Error running task on " + Thread.currentThread().getName(), t);
+				} finally {
+					latencyNanos.add(System.nanoTime() - submitted);
+					completed.increment();
+				}
+			};
+		}
+	}
+
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.f5.client;
+
+import cloudfoundry.norouter.f5.client.AbstractIControlClient.ResourceParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static cloudfoundry.norouter.f5.client.AbstractIControlClient.DATA_GROUP_URI;
+import static cloudfoundry.norouter.f5.client.AbstractIControlClient.EXPAND_SUBCOLLECTIONS;
+import static cloudfoundry.norouter.f5.client.AbstractIControlClient.IRULE_URI;
+import static cloudfoundry.norouter.f5.client.AbstractIControlClient.POOL_URI;
+import static cloudfoundry.norouter.f5.client.AbstractIControlClient.VIRTUAL_URI;
+import static cloudfoundry.norouter.f5.client.AbstractIControlClient.membersUri;
+import static cloudfoundry.norouter.f5.client.AbstractIControlClient.parsePoolPage;
+import static cloudfoundry.norouter.f5.client.AbstractIControlClient.poolPageUri;
+import static cloudfoundry.norouter.f5.client.AbstractIControlClient.poolQuery;
+
+/**
+ * Builds the iControl requests of an {@link AsyncIControlClient} on top of a few non-blocking resource primitives.
+ * The URIs and the pool paging are shared with {@link AbstractIControlClient}.
+ *
+ * @author Mike Heath
+ */
+public abstract class AbstractAsyncIControlClient implements AsyncIControlClient {
+
+	protected final URI address;
+
+	protected final ObjectMapper mapper = new ObjectMapper();
+	protected final JsonNode DISABLE_POOL_MEMBER_BODY = mapper.createObjectNode()
+			.put("session", "user-disabled");
+
+	protected AbstractAsyncIControlClient(URI address) {
+		this.address = address;
+	}
+
+	@Override
+	public CompletableFuture<IRule> createIRule(String name, String body) {
+		return postResource(IRULE_URI, new IRule(name, body)).thenApply(node -> readValue(node, IRule.class));
+	}
+
+	@Override
+	public CompletableFuture<IRule> getIRule(String name) {
+		final String uri = IRULE_URI + "/" + name;
+		return getResource(uri).thenApply(node -> readValue(node, IRule.class));
+	}
+
+	@Override
+	public CompletableFuture<IRule> updateIRule(String name, String body) {
+		final String uri = IRULE_URI + "/" + name;
+		return putResource(uri, new IRule(name, body)).thenApply(node -> readValue(node, IRule.class));
+	}
+
+	@Override
+	public CompletableFuture<Void> deleteIRule(String name) {
+		final String uri = IRULE_URI + "/" + name;
+		return deleteResource(uri);
+	}
+
+	@Override
+	public CompletableFuture<IRule> createOrUpdateIRule(String name, String body) {
+		return onConflict(createIRule(name, body), () -> updateIRule(name, body));
+	}
+
+	@Override
+	public CompletableFuture<Pool> createPool(Pool pool) {
+		return postResource(POOL_URI, pool).thenApply(node -> readValue(node, Pool.class));
+	}
+
+	@Override
+	public CompletableFuture<Boolean> createPoolIfAbsent(Pool pool) {
+		return postResourceIfAbsent(POOL_URI, pool);
+	}
+
+	@Override
+	public CompletableFuture<Pool> getPool(String name) {
+		final String uri = POOL_URI + "/" + name + EXPAND_SUBCOLLECTIONS;
+		return getResource(uri).thenApply(node -> readValue(node, Pool.class));
+	}
+
+	@Override
+	public CompletableFuture<Void> deletePool(String name) {
+		final String uri = POOL_URI + "/" + name;
+		return deleteResource(uri);
+	}
+
+	@Override
+	public CompletableFuture<Boolean> deletePoolIfPresent(String name) {
+		final String uri = POOL_URI + "/" + name;
+		return deleteResourceIfPresent(uri);
+	}
+
+	@Override
+	public CompletableFuture<Collection<Pool>> getAllPools(boolean fetchPoolMembers, String... fields) {
+		return getPoolPages(poolQuery(fetchPoolMembers, fields), new ArrayList<>());
+	}
+
+	/**
+	 * Fetches the page of pools following the pools fetched so far, and then the pages after it.
+	 */
+	private CompletableFuture<Collection<Pool>> getPoolPages(String query, List<Pool> pools) {
+		return getResource(poolPageUri(query, pools.size()), parser -> parsePoolPage(mapper, parser))
+				.thenCompose(page -> {
+					pools.addAll(page.getPools());
+					return page.isLastPage() ? CompletableFuture.completedFuture(pools) : getPoolPages(query, pools);
+				});
+	}
+
+	@Override
+	public CompletableFuture<PoolMember> addPoolMember(String poolName, InetSocketAddress poolMember) {
+		return addPoolMember(poolName, poolMember, null);
+	}
+
+	@Override
+	public CompletableFuture<PoolMember> addPoolMember(String poolName, InetSocketAddress poolMember, String description) {
+		final PoolMember member = new PoolMember(poolMember.toString(), description);
+		return postResource(membersUri(poolName), member).thenApply(node -> readValue(node, PoolMember.class));
+	}
+
+	@Override
+	public CompletableFuture<Boolean> addPoolMemberIfAbsent(String poolName, InetSocketAddress poolMember, String description) {
+		return postResourceIfAbsent(membersUri(poolName), new PoolMember(poolMember.toString(), description));
+	}
+
+	@Override
+	public CompletableFuture<Void> deletePoolMember(String poolName, InetSocketAddress poolMember) {
+		return deleteResource(membersUri(poolName) + "/" + poolMember.toString());
+	}
+
+	@Override
+	public CompletableFuture<Boolean> deletePoolMemberIfPresent(String poolName, InetSocketAddress poolMember) {
+		return deleteResourceIfPresent(membersUri(poolName) + "/" + poolMember.toString());
+	}
+
+	@Override
+	public CompletableFuture<Pool> updatePoolDescription(String poolName, String description) {
+		final String uri = POOL_URI + "/" + poolName;
+		return putResource(uri, Collections.singletonMap("description", description))
+				.thenApply(node -> readValue(node, Pool.class));
+	}
+
+	@Override
+	public CompletableFuture<PoolMember> updatePoolMemberDescription(String poolName, InetSocketAddress member, String description) {
+		final String uri = membersUri(poolName) + "/" + member.toString();
+		return putResource(uri, Collections.singletonMap("description", description))
+				.thenApply(node -> readValue(node, PoolMember.class));
+	}
+
+	@Override
+	public CompletableFuture<PoolMember> disablePoolMember(String poolName, InetSocketAddress member) {
+		final String uri = membersUri(poolName) + "/" + member.toString();
+		return putResource(uri, DISABLE_POOL_MEMBER_BODY).thenApply(node -> readValue(node, PoolMember.class));
+	}
+
+	@Override
+	public CompletableFuture<VirtualServer> createVirtualServer(VirtualServer virtualServer) {
+		return postResource(VIRTUAL_URI, virtualServer).thenApply(node -> readValue(node, VirtualServer.class));
+	}
+
+	@Override
+	public CompletableFuture<VirtualServer> getVirtualServer(String name) {
+		final String uri = VIRTUAL_URI + "/" + name;
+		return getResource(uri).thenApply(node -> readValue(node, VirtualServer.class));
+	}
+
+	@Override
+	public CompletableFuture<VirtualServer> updateVirtualServer(VirtualServer virtualServer) {
+		final String uri = VIRTUAL_URI + "/" + virtualServer.getName();
+		return patchResource(uri, virtualServer).thenApply(node -> readValue(node, VirtualServer.class));
+	}
+
+	@Override
+	public CompletableFuture<VirtualServer> createOrUpdateVirtualServer(VirtualServer virtualServer) {
+		return onConflict(createVirtualServer(virtualServer), () -> updateVirtualServer(virtualServer));
+	}
+
+	@Override
+	public CompletableFuture<Void> deleteVirtualServer(String name) {
+		final String uri = VIRTUAL_URI + "/" + name;
+		return deleteResource(uri);
+	}
+
+	@Override
+	public CompletableFuture<DataGroup> createDataGroup(DataGroup dataGroup) {
+		return postResource(DATA_GROUP_URI, dataGroup).thenApply(node -> readValue(node, DataGroup.class));
+	}
+
+	@Override
+	public CompletableFuture<DataGroup> getDataGroup(String name) {
+		final String uri = DATA_GROUP_URI + "/" + name;
+		return getResource(uri).thenApply(node -> readValue(node, DataGroup.class));
+	}
+
+	@Override
+	public CompletableFuture<DataGroup> updateDataGroupRecords(String name, Map<String, String> records) {
+		final String uri = DATA_GROUP_URI + "/" + name;
+		return patchResource(uri, Collections.singletonMap("records", DataGroup.toRecords(records)))
+				.thenApply(node -> readValue(node, DataGroup.class));
+	}
+
+	@Override
+	public CompletableFuture<Void> deleteDataGroup(String name) {
+		final String uri = DATA_GROUP_URI + "/" + name;
+		return deleteResource(uri);
+	}
+
+	@Override
+	public CompletableFuture<DataGroup> createOrUpdateDataGroup(String name, Map<String, String> records) {
+		return onConflict(createDataGroup(new DataGroup(name, records)), () -> updateDataGroupRecords(name, records));
+	}
+
+	protected abstract CompletableFuture<JsonNode> getResource(String uri);
+	protected abstract <T> CompletableFuture<T> getResource(String uri, ResourceParser<T> parser);
+	protected abstract CompletableFuture<JsonNode> postResource(String uri, Object resource);
+	protected abstract CompletableFuture<JsonNode> putResource(String uri, Object resource);
+	protected abstract CompletableFuture<JsonNode> patchResource(String uri, Object resource);
+	protected abstract CompletableFuture<Void> deleteResource(String uri);
+
+	/**
+	 * Conditional versions of {@link #postResource(String, Object)} and {@link #deleteResource(String)} that report the
+	 * expected conflict or not found response as the result rather than a failure.
+	 */
+	protected abstract CompletableFuture<Boolean> postResourceIfAbsent(String uri, Object resource);
+	protected abstract CompletableFuture<Boolean> deleteResourceIfPresent(String uri);
+
+	// Requests that are queued in a transaction rather than being executed immediately
+	protected abstract CompletableFuture<JsonNode> postResource(String uri, Object resource, long transactionId);
+	protected abstract CompletableFuture<JsonNode> putResource(String uri, Object resource, long transactionId);
+	protected abstract CompletableFuture<Void> deleteResource(String uri, long transactionId);
+
+	/**
+	 * Unwraps the {@link CompletionException} that {@code CompletableFuture} wraps failures in.
+	 */
+	protected static Throwable unwrap(Throwable throwable) {
+		return throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable;
+	}
+
+	private static <T> CompletableFuture<T> onConflict(CompletableFuture<T> future, Supplier<CompletableFuture<T>> fallback) {
+		return future
+				.thenApply(CompletableFuture::completedFuture)
+				.exceptionally(throwable -> {
+					final Throwable cause = unwrap(throwable);
+					if (cause instanceof ConflictException) {
+						return fallback.get();
+					}
+					final CompletableFuture<T> failed = new CompletableFuture<>();
+					failed.completeExceptionally(cause);
+					return failed;
+				})
+				.thenCompose(Function.identity());
+	}
+
+	private <T> T readValue(JsonNode node, Class<T> type) {
+		return AbstractIControlClient.readValue(mapper, node, type);
+	}
+
+}
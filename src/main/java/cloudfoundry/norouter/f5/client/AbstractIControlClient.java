@@ -15,6 +15,8 @@
  */
 package cloudfoundry.norouter.f5.client;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
@@ -22,8 +24,20 @@ import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * @author Mike Heath <elcapo@gmail.com>
@@ -35,12 +49,18 @@ public abstract class AbstractIControlClient implements IControlClient {
 	protected static final String IRULE_URI = LTM_URI + "/rule";
 	protected static final String POOL_URI = LTM_URI + "/pool";
 	protected static final String VIRTUAL_URI = LTM_URI + "/virtual";
+	protected static final String DATA_GROUP_URI = LTM_URI + "/data-group/internal";
+	protected static final String TRANSACTION_URI = "/mgmt/tm/transaction";
+
+	protected static final int POOL_PAGE_SIZE = 250;
 
 	protected final URI address;
 
 	protected final ObjectMapper mapper = new ObjectMapper();
 	protected final JsonNode DISABLE_POOL_MEMBER_BODY = mapper.createObjectNode()
 			.put("session", "user-disabled");
+	protected final JsonNode COMMIT_TRANSACTION_BODY = mapper.createObjectNode()
+			.put("state", "VALIDATING");
 
 	protected AbstractIControlClient(URI address) {
 		this.address = address;
@@ -77,6 +97,11 @@ public abstract class AbstractIControlClient implements IControlClient {
 		return readValue(createdPool, Pool.class);
 	}
 
+	@Override
+	public boolean createPoolIfAbsent(Pool pool) {
+		return postResourceIfAbsent(POOL_URI, pool);
+	}
+
 	@Override
 	public Pool getPool(String name) {
 		final String uri = POOL_URI + "/" + name + EXPAND_SUBCOLLECTIONS;
@@ -90,6 +115,12 @@ public abstract class AbstractIControlClient implements IControlClient {
 		deleteResource(uri);
 	}
 
+	@Override
+	public boolean deletePoolIfPresent(String name) {
+		final String uri = POOL_URI + "/" + name;
+		return deleteResourceIfPresent(uri);
+	}
+
 	@Override
 	public Collection<Pool> getAllPools() {
 		return getAllPools(false);
@@ -97,12 +128,13 @@ public abstract class AbstractIControlClient implements IControlClient {
 
 	@Override
 	public Collection<Pool> getAllPools(boolean fetchPoolMembers) {
-		final String uri = POOL_URI + (fetchPoolMembers ? EXPAND_SUBCOLLECTIONS : "");
-		final JsonNode resource = getResource(uri);
-		final JsonNode items = resource.get("items");
-		final Collection<Pool> pools = new ArrayList<>();
-		items.elements().forEachRemaining(node -> pools.add(readValue(node, Pool.class)));
-		return pools;
+		return streamAllPools(fetchPoolMembers).collect(Collectors.toList());
+	}
+
+	@Override
+	public Stream<Pool> streamAllPools(boolean fetchPoolMembers, String... fields) {
+		final Iterator<Pool> pools = new PoolPageIterator(poolQuery(fetchPoolMembers, fields));
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(pools, Spliterator.ORDERED | Spliterator.NONNULL), false);
 	}
 
 	@Override
@@ -127,6 +159,11 @@ public abstract class AbstractIControlClient implements IControlClient {
 		return readValue(resource, PoolMember.class);
 	}
 
+	@Override
+	public boolean addPoolMemberIfAbsent(String poolName, InetSocketAddress poolMember, String description) {
+		return postResourceIfAbsent(membersUri(poolName), new PoolMember(poolMember.toString(), description));
+	}
+
 	@Override
 	public void deletePoolMember(String poolName, InetSocketAddress poolMember) {
 		deletePoolMember(poolName, poolMember.toString());
@@ -137,6 +174,11 @@ public abstract class AbstractIControlClient implements IControlClient {
 		deleteResource(membersUri(poolName) + "/" + poolMember);
 	}
 
+	@Override
+	public boolean deletePoolMemberIfPresent(String poolName, InetSocketAddress poolMember) {
+		return deleteResourceIfPresent(membersUri(poolName) + "/" + poolMember.toString());
+	}
+
 	@Override
 	public Pool updatePoolDescription(String name, String description) {
 		final String uri = POOL_URI + "/" + name;
@@ -183,13 +225,57 @@ public abstract class AbstractIControlClient implements IControlClient {
 		deleteResource(uri);
 	}
 
+	@Override
+	public DataGroup createDataGroup(DataGroup dataGroup) {
+		final JsonNode resource = postResource(DATA_GROUP_URI, dataGroup);
+		return readValue(resource, DataGroup.class);
+	}
+
+	@Override
+	public DataGroup getDataGroup(String name) {
+		final String uri = DATA_GROUP_URI + "/" + name;
+		return readValue(getResource(uri), DataGroup.class);
+	}
+
+	@Override
+	public DataGroup updateDataGroupRecords(String name, Map<String, String> records) {
+		final String uri = DATA_GROUP_URI + "/" + name;
+		final JsonNode resource = patchResource(uri, Collections.singletonMap("records", DataGroup.toRecords(records)));
+		return readValue(resource, DataGroup.class);
+	}
+
+	@Override
+	public void deleteDataGroup(String name) {
+		final String uri = DATA_GROUP_URI + "/" + name;
+		deleteResource(uri);
+	}
+
+	@Override
+	public Transaction beginTransaction() {
+		final JsonNode resource = postResource(TRANSACTION_URI, mapper.createObjectNode());
+		return new IControlTransaction(resource.get("transId").asLong());
+	}
+
 	protected abstract JsonNode getResource(String uri);
+	protected abstract <T> T getResource(String uri, ResourceParser<T> parser);
 	protected abstract JsonNode postResource(String uri, Object resource);
 	protected abstract JsonNode putResource(String uri, Object resource);
 	protected abstract JsonNode patchResource(String uri, Object resource);
 	protected abstract void deleteResource(String uri);
 
-	protected void validateResponse(int statusCode, String reason, String body, int... expectedStatusCodes) {
+	/**
+	 * Conditional versions of {@link #postResource(String, Object)} and {@link #deleteResource(String)} that report the
+	 * expected conflict or not found response as a return value rather than an exception.
+	 */
+	protected abstract boolean postResourceIfAbsent(String uri, Object resource);
+	protected abstract boolean deleteResourceIfPresent(String uri);
+
+	// Requests that are queued in a transaction rather than being executed immediately
+	protected abstract JsonNode postResource(String uri, Object resource, long transactionId);
+	protected abstract JsonNode putResource(String uri, Object resource, long transactionId);
+	protected abstract void deleteResource(String uri, long transactionId);
+
+	protected static void validateResponse(int statusCode, String reason, String body, int... expectedStatusCodes) {
 		for (int code : expectedStatusCodes) {
 			if (code == statusCode) {
 				return;
@@ -208,6 +294,10 @@ public abstract class AbstractIControlClient implements IControlClient {
 	}
 
 	private <T> T readValue(JsonNode node, Class<T> type) {
+		return readValue(mapper, node, type);
+	}
+
+	protected static <T> T readValue(ObjectMapper mapper, JsonNode node, Class<T> type) {
 		try {
 			return mapper.readValue(node.traverse(), type);
 		} catch (IOException e) {
@@ -215,8 +305,202 @@ public abstract class AbstractIControlClient implements IControlClient {
 		}
 	}
 
-	private String membersUri(String poolName) {
+	protected static String membersUri(String poolName) {
 		return POOL_URI + "/" + poolName + "/members";
 	}
 
+	/**
+	 * @return the query parameters, after the paging parameters, for fetching a page of pools.
+	 */
+	protected static String poolQuery(boolean fetchPoolMembers, String... fields) {
+		final StringBuilder query = new StringBuilder();
+		if (fetchPoolMembers) {
+			query.append("&expandSubcollections=true");
+		}
+		if (fields.length > 0) {
+			final Set<String> select = new LinkedHashSet<>(Arrays.asList(fields));
+			select.add("name");
+			if (fetchPoolMembers) {
+				select.add("membersReference");
+			}
+			query.append("&$select=").append(String.join(",", select));
+		}
+		return query.toString();
+	}
+
+	protected static String poolPageUri(String query, int skip) {
+		return POOL_URI + "?$top=" + POOL_PAGE_SIZE + "&$skip=" + skip + query;
+	}
+
+	/**
+	 * Parses a resource directly from the response stream.
+	 */
+	@FunctionalInterface
+	protected interface ResourceParser<T> {
+		T parse(JsonParser parser) throws IOException;
+	}
+
+	protected static class PoolPage {
+		private final List<Pool> pools = new ArrayList<>();
+		private boolean hasNextPage = false;
+
+		List<Pool> getPools() {
+			return pools;
+		}
+
+		boolean isLastPage() {
+			// Older LTMs ignore $top and return everything without a nextLink
+			return !hasNextPage || pools.isEmpty();
+		}
+	}
+
+	/**
+	 * Parses a page of a pool collection one pool at a time without building a tree of the whole response.
+	 */
+	protected static PoolPage parsePoolPage(ObjectMapper mapper, JsonParser parser) throws IOException {
+		final PoolPage page = new PoolPage();
+		if (parser.nextToken() != JsonToken.START_OBJECT) {
+			return page;
+		}
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			final String field = parser.getCurrentName();
+			final JsonToken value = parser.nextToken();
+			if ("items".equals(field) && value == JsonToken.START_ARRAY) {
+				while (parser.nextToken() == JsonToken.START_OBJECT) {
+					page.pools.add(mapper.readValue(parser, Pool.class));
+				}
+			} else if ("nextLink".equals(field)) {
+				page.hasNextPage = true;
+			} else {
+				parser.skipChildren();
+			}
+		}
+		return page;
+	}
+
+	/**
+	 * Fetches pools a page at a time using the {@code $top} and {@code $skip} query parameters. The next page is only
+	 * fetched once the current page has been consumed.
+	 */
+	private class PoolPageIterator implements Iterator<Pool> {
+
+		private final String query;
+		private int skip = 0;
+		private boolean lastPage = false;
+		private Iterator<Pool> page = Collections.emptyIterator();
+
+		PoolPageIterator(String query) {
+			this.query = query;
+		}
+
+		@Override
+		public boolean hasNext() {
+			while (!page.hasNext() && !lastPage) {
+				final PoolPage poolPage = getResource(poolPageUri(query, skip), parser -> parsePoolPage(mapper, parser));
+				skip += poolPage.pools.size();
+				lastPage = poolPage.isLastPage();
+				page = poolPage.pools.iterator();
+			}
+			return page.hasNext();
+		}
+
+		@Override
+		public Pool next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			return page.next();
+		}
+	}
+
+	private class IControlTransaction implements Transaction {
+
+		private final long id;
+		private int size = 0;
+		private boolean committed = false;
+
+		IControlTransaction(long id) {
+			this.id = id;
+		}
+
+		@Override
+		public long getId() {
+			return id;
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+
+		@Override
+		public Transaction createPool(Pool pool) {
+			postResource(POOL_URI, pool, id);
+			size++;
+			return this;
+		}
+
+		@Override
+		public Transaction deletePool(String name) {
+			deleteResource(POOL_URI + "/" + name, id);
+			size++;
+			return this;
+		}
+
+		@Override
+		public Transaction addPoolMember(String poolName, InetSocketAddress poolMember, String description) {
+			postResource(membersUri(poolName), new PoolMember(poolMember.toString(), description), id);
+			size++;
+			return this;
+		}
+
+		@Override
+		public Transaction deletePoolMember(String poolName, InetSocketAddress poolMember) {
+			deleteResource(membersUri(poolName) + "/" + poolMember.toString(), id);
+			size++;
+			return this;
+		}
+
+		@Override
+		public Transaction updatePoolDescription(String poolName, String description) {
+			putResource(POOL_URI + "/" + poolName, Collections.singletonMap("description", description), id);
+			size++;
+			return this;
+		}
+
+		@Override
+		public Transaction updatePoolMemberDescription(String poolName, InetSocketAddress poolMember, String description) {
+			final String uri = membersUri(poolName) + "/" + poolMember.toString();
+			putResource(uri, Collections.singletonMap("description", description), id);
+			size++;
+			return this;
+		}
+
+		@Override
+		public void commit() {
+			final JsonNode result = patchResource(TRANSACTION_URI + "/" + id, COMMIT_TRANSACTION_BODY);
+			final String state = result.path("state").asText();
+			if (!"COMPLETED".equals(state)) {
+				throw new IControlException("Transaction " + id + " failed with state " + state + ": " + result.path("failureReason").asText());
+			}
+			committed = true;
+		}
+
+		/**
+		 * Deletes the transaction unless it was committed, including when the commit failed, so failed transactions
+		 * don't pile up on the LTM until they time out.
+		 */
+		@Override
+		public void close() {
+			if (!committed) {
+				committed = true;
+				try {
+					deleteResource(TRANSACTION_URI + "/" + id);
+				} catch (ResourceNotFoundException e) {
+					// The LTM already discarded the transaction
+				}
+			}
+		}
+	}
+
 }
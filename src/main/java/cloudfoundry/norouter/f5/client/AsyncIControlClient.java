@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.f5.client;
+
+import java.net.InetSocketAddress;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Non-blocking version of {@link IControlClient}. Failures complete the returned future exceptionally with the same
+ * {@link IControlException} types thrown by {@code IControlClient}.
+ *
+ * <p>Futures are completed on the client's I/O threads, so dependent stages should not block.
+ *
+ * @author Mike Heath
+ */
+public interface AsyncIControlClient extends AutoCloseable {
+	@Override
+	void close();
+
+	CompletableFuture<IRule> createIRule(String name, String body);
+
+	CompletableFuture<IRule> getIRule(String name);
+
+	CompletableFuture<IRule> updateIRule(String name, String body);
+
+	CompletableFuture<Void> deleteIRule(String name);
+
+	CompletableFuture<IRule> createOrUpdateIRule(String name, String body);
+
+	CompletableFuture<Pool> createPool(Pool pool);
+
+	/**
+	 * @return a future completed with {@code true} if the pool was created, {@code false} if it already existed.
+	 */
+	CompletableFuture<Boolean> createPoolIfAbsent(Pool pool);
+
+	CompletableFuture<Pool> getPool(String name);
+
+	CompletableFuture<Void> deletePool(String name);
+
+	/**
+	 * @return a future completed with {@code true} if the pool was deleted, {@code false} if it didn't exist.
+	 */
+	CompletableFuture<Boolean> deletePoolIfPresent(String name);
+
+	/**
+	 * Fetches all the pools a page at a time.
+	 *
+	 * @param fetchPoolMembers whether to include each pool's members
+	 * @param fields the pool fields to fetch. If no fields are given, all fields are fetched.
+	 */
+	CompletableFuture<Collection<Pool>> getAllPools(boolean fetchPoolMembers, String... fields);
+
+	CompletableFuture<PoolMember> addPoolMember(String poolName, InetSocketAddress poolMember);
+
+	CompletableFuture<PoolMember> addPoolMember(String poolName, InetSocketAddress poolMember, String description);
+
+	/**
+	 * @return a future completed with {@code true} if the pool member was added, {@code false} if it was already a
+	 * member of the pool.
+	 */
+	CompletableFuture<Boolean> addPoolMemberIfAbsent(String poolName, InetSocketAddress poolMember, String description);
+
+	CompletableFuture<Void> deletePoolMember(String poolName, InetSocketAddress poolMember);
+
+	/**
+	 * @return a future completed with {@code true} if the pool member was removed, {@code false} if the pool or pool
+	 * member didn't exist.
+	 */
+	CompletableFuture<Boolean> deletePoolMemberIfPresent(String poolName, InetSocketAddress poolMember);
+
+	CompletableFuture<Pool> updatePoolDescription(String poolName, String description);
+
+	CompletableFuture<PoolMember> updatePoolMemberDescription(String poolName, InetSocketAddress member, String description);
+
+	CompletableFuture<PoolMember> disablePoolMember(String poolName, InetSocketAddress poolMember);
+
+	CompletableFuture<VirtualServer> createVirtualServer(VirtualServer virtualServer);
+
+	CompletableFuture<VirtualServer> getVirtualServer(String name);
+
+	CompletableFuture<VirtualServer> updateVirtualServer(VirtualServer virtualServer);
+
+	CompletableFuture<VirtualServer> createOrUpdateVirtualServer(VirtualServer virtualServer);
+
+	CompletableFuture<Void> deleteVirtualServer(String name);
+
+	CompletableFuture<DataGroup> createDataGroup(DataGroup dataGroup);
+
+	CompletableFuture<DataGroup> getDataGroup(String name);
+
+	/**
+	 * Replaces all the records of an internal data group.
+	 */
+	CompletableFuture<DataGroup> updateDataGroupRecords(String name, Map<String, String> records);
+
+	CompletableFuture<Void> deleteDataGroup(String name);
+
+	CompletableFuture<DataGroup> createOrUpdateDataGroup(String name, Map<String, String> records);
+
+}
@@ -20,6 +20,6 @@ package cloudfoundry.norouter.f5.client;
  */
 public class ConflictException extends IControlException {
 	public ConflictException(String reason) {
-		super(reason);
+		super(reason, false);
 	}
 }
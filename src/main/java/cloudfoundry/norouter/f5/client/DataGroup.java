@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.f5.client;
+
+import cf.common.JsonObject;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An internal string data group. iRules look up records in a data group with {@code class match}, which TMM does
+ * with a hash lookup.
+ *
+ * @author Mike Heath
+ */
+public class DataGroup extends JsonObject {
+
+	public static final String TYPE_STRING = "string";
+
+	private final String name;
+	private final String type;
+	private final List<Record> records;
+
+	public DataGroup(String name, Map<String, String> records) {
+		this(name, TYPE_STRING, toRecords(records));
+	}
+
+	@JsonCreator
+	DataGroup(
+			@JsonProperty("name") String name,
+			@JsonProperty("type") String type,
+			@JsonProperty("records") List<Record> records) {
+		this.name = name;
+		this.type = type;
+		this.records = records == null ? Collections.emptyList() : records;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getType() {
+		return type;
+	}
+
+	public List<Record> getRecords() {
+		return records;
+	}
+
+	/**
+	 * @return the data of each record keyed by the record name.
+	 */
+	@JsonIgnore
+	public Map<String, String> getRecordMap() {
+		final Map<String, String> map = new LinkedHashMap<>();
+		records.forEach(record -> map.put(record.getName(), record.getData()));
+		return map;
+	}
+
+	static List<Record> toRecords(Map<String, String> records) {
+		final List<Record> list = new ArrayList<>(records.size());
+		records.forEach((name, data) -> list.add(new Record(name, data)));
+		return list;
+	}
+
+	public static class Record extends JsonObject {
+		private final String name;
+		private final String data;
+
+		@JsonCreator
+		public Record(
+				@JsonProperty("name") String name,
+				@JsonProperty("data") String data) {
+			this.name = name;
+			this.data = data;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public String getData() {
+			return data;
+		}
+	}
+}
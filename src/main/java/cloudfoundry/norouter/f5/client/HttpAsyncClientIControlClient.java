@@ -0,0 +1,694 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.f5.client;
+
+import cloudfoundry.norouter.f5.client.AbstractIControlClient.ResourceParser;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.StatusLine;
+import org.apache.http.auth.AuthScope;
+import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.client.AuthCache;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPatch;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.auth.BasicScheme;
+import org.apache.http.impl.client.BasicAuthCache;
+import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.conn.NoopIOSessionStrategy;
+import org.apache.http.nio.conn.SchemeIOSessionStrategy;
+import org.apache.http.nio.conn.ssl.SSLIOSessionStrategy;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * An {@link AsyncIControlClient} built on the Apache HttpAsyncClient. Requests are multiplexed over a small number
+ * of I/O dispatcher threads so many requests can be in flight without a thread blocking on each.
+ *
+ * <p>Requests authenticate with a token from the LTM's login endpoint, falling back to HTTP Basic authentication when
+ * the LTM does not support tokens. A token is refreshed before it expires and only one login is in flight at a time.
+ *
+ * @author Mike Heath
+ */
+public class HttpAsyncClientIControlClient extends AbstractAsyncIControlClient {
+
+	private static final String APPLICATION_JSON = "application/json";
+	private static final String COORDINATION_ID_HEADER = "X-F5-REST-Coordination-Id";
+	private static final String AUTH_TOKEN_HEADER = "X-F5-Auth-Token";
+	private static final String LOGIN_URI = "/mgmt/shared/authn/login";
+	private static final long DEFAULT_TOKEN_TIMEOUT_SECONDS = 1200;
+	private static final long TOKEN_REFRESH_MARGIN_SECONDS = 60;
+	private static final long LOGIN_RETRY_SECONDS = 30;
+	private static final int NO_STATUS = -1;
+	private static Logger LOGGER = LoggerFactory.getLogger(HttpAsyncClientIControlClient.class);
+
+	private final HttpHost host;
+	private final CloseableHttpAsyncClient httpClient;
+	private final InstrumentedConnectionManager connectionManager;
+	private final ScheduledExecutorService connectionEvictor;
+
+	private final String user;
+	private final String password;
+	private final LongSupplier nanoTime;
+
+	/**
+	 * Token requests and logins must not answer an authentication challenge with the HTTP Basic credentials, or a 401
+	 * for a revoked token or a failed login would never reach this client.
+	 */
+	private final RequestConfig unauthenticatedRequestConfig;
+
+	/**
+	 * Set to {@code false} when token authentication is disabled or the LTM does not support it. Requests then fall back
+	 * to preemptive HTTP Basic authentication.
+	 */
+	private volatile boolean useTokens;
+	private volatile AuthToken authToken;
+	private final Object tokenLock = new Object();
+
+	/**
+	 * The login in flight, if any, that requests needing a new token wait on. Guarded by {@code tokenLock}.
+	 */
+	private CompletableFuture<AuthToken> login;
+
+	/**
+	 * When a login fails for a reason that may be transient, requests use HTTP Basic authentication until this time
+	 * and then log in again. Guarded by {@code tokenLock}.
+	 */
+	private boolean loginBackoff;
+	private long loginRetryAt;
+
+	public static Builder create() {
+		return new Builder();
+	}
+
+	public static class Builder {
+
+		private boolean skipVerifyTls = false;
+		private boolean tokenAuthentication = true;
+		private URI url;
+		private String user;
+		private String password;
+
+		private int maxConnections = 20;
+		private int connectTimeout = 10_000;
+		private int socketTimeout = 60_000;
+		private int connectionRequestTimeout = 30_000;
+		private long keepAlive = 30_000;
+		private long connectionTimeToLive = 300_000;
+		private long idleConnectionTimeout = 30_000;
+		private LongSupplier nanoTime = System::nanoTime;
+
+		public Builder url(String address) {
+			return url(URI.create(address));
+		}
+
+		public Builder url(URI address) {
+			Objects.requireNonNull(address);
+			final String userInfo = address.getUserInfo();
+			if (userInfo != null) {
+				final int separatorIndex = userInfo.indexOf(':');
+				this.user = userInfo.substring(0, separatorIndex);
+				this.password = userInfo.substring(separatorIndex + 1);
+			}
+			this.url = address;
+			return this;
+		}
+
+		public Builder skipVerifyTls(boolean verifyTls) {
+			this.skipVerifyTls = verifyTls;
+			return this;
+		}
+
+		/**
+		 * Authenticate using a token from the LTM's login endpoint instead of sending HTTP Basic credentials on every
+		 * request. Falls back to HTTP Basic authentication if the LTM does not support tokens. Enabled by default.
+		 */
+		public Builder tokenAuthentication(boolean tokenAuthentication) {
+			this.tokenAuthentication = tokenAuthentication;
+			return this;
+		}
+
+		public Builder user(String user) {
+			this.user = user;
+			return this;
+		}
+
+		public Builder password(String password) {
+			this.password = password;
+			return this;
+		}
+
+		/**
+		 * The maximum number of connections, and therefore requests in flight, to the LTM.
+		 */
+		public Builder maxConnections(int maxConnections) {
+			this.maxConnections = maxConnections;
+			return this;
+		}
+
+		public Builder connectTimeout(int connectTimeoutMillis) {
+			this.connectTimeout = connectTimeoutMillis;
+			return this;
+		}
+
+		public Builder socketTimeout(int socketTimeoutMillis) {
+			this.socketTimeout = socketTimeoutMillis;
+			return this;
+		}
+
+		/**
+		 * How long to wait for a connection from the connection pool.
+		 */
+		public Builder connectionRequestTimeout(int connectionRequestTimeoutMillis) {
+			this.connectionRequestTimeout = connectionRequestTimeoutMillis;
+			return this;
+		}
+
+		/**
+		 * How long to keep an idle connection alive when the LTM doesn't specify a keep-alive timeout.
+		 */
+		public Builder keepAlive(long keepAliveMillis) {
+			this.keepAlive = keepAliveMillis;
+			return this;
+		}
+
+		/**
+		 * The maximum lifetime of a connection regardless of activity. A value of 0 or less means no limit.
+		 */
+		public Builder connectionTimeToLive(long connectionTimeToLiveMillis) {
+			this.connectionTimeToLive = connectionTimeToLiveMillis;
+			return this;
+		}
+
+		/**
+		 * How long a connection may sit idle in the connection pool before it is closed.
+		 */
+		public Builder idleConnectionTimeout(long idleConnectionTimeoutMillis) {
+			this.idleConnectionTimeout = idleConnectionTimeoutMillis;
+			return this;
+		}
+
+		/**
+		 * The source of {@link System#nanoTime()} used for token expiry and login retries.
+		 */
+		Builder nanoTime(LongSupplier nanoTime) {
+			this.nanoTime = nanoTime;
+			return this;
+		}
+
+		public HttpAsyncClientIControlClient build() {
+			Objects.requireNonNull(url, "url is a required argument");
+			final HttpHost host = new HttpHost(url.getHost(), url.getPort(), url.getScheme());
+			return new HttpAsyncClientIControlClient(host, this);
+		}
+
+	}
+
+	private HttpAsyncClientIControlClient(HttpHost host, Builder builder) {
+		super(URI.create(host.toURI()));
+		this.host = host;
+
+		this.user = Objects.requireNonNull(builder.user, "user is a required argument");
+		this.password = Objects.requireNonNull(builder.password, "password is a required argument");
+		this.useTokens = builder.tokenAuthentication;
+		this.nanoTime = builder.nanoTime;
+
+		final BasicCredentialsProvider credentialsProvider = new BasicCredentialsProvider();
+		final UsernamePasswordCredentials credentials = new UsernamePasswordCredentials(user, password);
+		credentialsProvider.setCredentials(new AuthScope(host.getHostName(), host.getPort()), credentials);
+
+		final RegistryBuilder<SchemeIOSessionStrategy> ioSessionFactoryRegistry = RegistryBuilder.<SchemeIOSessionStrategy>create()
+				.register("http", NoopIOSessionStrategy.INSTANCE);
+		if (builder.skipVerifyTls) {
+			ioSessionFactoryRegistry.register("https",
+					new SSLIOSessionStrategy(NaiveTrustManager.getSslContext(), NaiveTrustManager.getHostnameVerifier()));
+		} else {
+			ioSessionFactoryRegistry.register("https", SSLIOSessionStrategy.getDefaultStrategy());
+		}
+		final IOReactorConfig ioReactorConfig = IOReactorConfig.custom()
+				.setConnectTimeout(builder.connectTimeout)
+				.setSoTimeout(builder.socketTimeout)
+				.build();
+		try {
+			connectionManager = new InstrumentedConnectionManager(new DefaultConnectingIOReactor(ioReactorConfig),
+					ioSessionFactoryRegistry.build(), builder.connectionTimeToLive, TimeUnit.MILLISECONDS);
+		} catch (IOReactorException e) {
+			throw new IControlException(e);
+		}
+		connectionManager.setMaxTotal(builder.maxConnections);
+		connectionManager.setDefaultMaxPerRoute(builder.maxConnections);
+
+		final RequestConfig requestConfig = RequestConfig.custom()
+				.setConnectTimeout(builder.connectTimeout)
+				.setSocketTimeout(builder.socketTimeout)
+				.setConnectionRequestTimeout(builder.connectionRequestTimeout)
+				.build();
+		unauthenticatedRequestConfig = RequestConfig.copy(requestConfig)
+				.setAuthenticationEnabled(false)
+				.build();
+
+		final long keepAlive = builder.keepAlive;
+		final ConnectionKeepAliveStrategy keepAliveStrategy = (response, context) -> {
+			final long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+			return duration > 0 ? duration : keepAlive;
+		};
+
+		httpClient = HttpAsyncClients.custom()
+				.setUserAgent("curl/7.37.1")
+				.disableCookieManagement()
+				.setDefaultCredentialsProvider(credentialsProvider)
+				.setConnectionManager(connectionManager)
+				.setDefaultRequestConfig(requestConfig)
+				.setKeepAliveStrategy(keepAliveStrategy)
+				.build();
+		httpClient.start();
+
+		connectionEvictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			final Thread thread = new Thread(runnable, "icontrol-connection-evictor");
+			thread.setDaemon(true);
+			return thread;
+		});
+		final long idleConnectionTimeout = builder.idleConnectionTimeout;
+		final long evictionInterval = Math.max(1000, idleConnectionTimeout / 2);
+		connectionEvictor.scheduleWithFixedDelay(() -> {
+			connectionManager.closeExpiredConnections();
+			connectionManager.closeIdleConnections(idleConnectionTimeout, TimeUnit.MILLISECONDS);
+		}, evictionInterval, evictionInterval, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public void close() {
+		connectionEvictor.shutdownNow();
+		try {
+			httpClient.close();
+		} catch (IOException e) {
+			LOGGER.warn("Error closing HTTP client", e);
+		}
+	}
+
+	public long getConnectionLeases() {
+		return connectionManager.getLeases();
+	}
+
+	public long getConnectionLeaseTimeouts() {
+		return connectionManager.getLeaseTimeouts();
+	}
+
+	public double getAverageConnectionLeaseWaitMillis() {
+		return connectionManager.getAverageLeaseWaitMillis();
+	}
+
+	public PoolStats getConnectionPoolStats() {
+		return connectionManager.getTotalStats();
+	}
+
+	public long getConnectionsOpened() {
+		return connectionManager.getConnectionsOpened();
+	}
+
+	public long getConnectionsClosed() {
+		return connectionManager.getConnectionsClosed();
+	}
+
+	@Override
+	protected CompletableFuture<JsonNode> getResource(String uri) {
+		LOGGER.debug("GETting {}", uri);
+		return execute(new HttpGet(address.resolve(uri)), NO_STATUS).thenApply(this::readTree);
+	}
+
+	@Override
+	protected <T> CompletableFuture<T> getResource(String uri, ResourceParser<T> parser) {
+		LOGGER.debug("GETting {}", uri);
+		return execute(new HttpGet(address.resolve(uri))).thenApply(response -> {
+			try {
+				final StatusLine statusLine = response.getStatusLine();
+				if (statusLine.getStatusCode() != 200) {
+					AbstractIControlClient.validateResponse(statusLine.getStatusCode(), statusLine.getReasonPhrase(), toString(response.getEntity()), 200);
+				}
+				// The response is already buffered, parse it without copying it into a string
+				try (final JsonParser jsonParser = mapper.getFactory().createParser(response.getEntity().getContent())) {
+					return parser.parse(jsonParser);
+				}
+			} catch (IOException e) {
+				throw new IControlException(e);
+			}
+		});
+	}
+
+	@Override
+	protected CompletableFuture<JsonNode> postResource(String uri, Object resource) {
+		return update(uri, resource, new HttpPost(address.resolve(uri)), null, NO_STATUS);
+	}
+
+	@Override
+	protected CompletableFuture<Boolean> postResourceIfAbsent(String uri, Object resource) {
+		return update(uri, resource, new HttpPost(address.resolve(uri)), null, HttpStatus.SC_CONFLICT)
+				.thenApply(Objects::nonNull);
+	}
+
+	@Override
+	protected CompletableFuture<JsonNode> putResource(String uri, Object resource) {
+		return update(uri, resource, new HttpPut(address.resolve(uri)), null, NO_STATUS);
+	}
+
+	@Override
+	protected CompletableFuture<JsonNode> patchResource(String uri, Object resource) {
+		return update(uri, resource, new HttpPatch(address.resolve(uri)), null, NO_STATUS);
+	}
+
+	@Override
+	protected CompletableFuture<JsonNode> postResource(String uri, Object resource, long transactionId) {
+		return update(uri, resource, new HttpPost(address.resolve(uri)), transactionId, NO_STATUS);
+	}
+
+	@Override
+	protected CompletableFuture<JsonNode> putResource(String uri, Object resource, long transactionId) {
+		return update(uri, resource, new HttpPut(address.resolve(uri)), transactionId, NO_STATUS);
+	}
+
+	/**
+	 * @param absentStatus a status code that is expected and returned as {@code null} instead of failing the request,
+	 *                     or {@link #NO_STATUS}
+	 */
+	private CompletableFuture<JsonNode> update(String uri, Object resource, HttpEntityEnclosingRequestBase request, Long transactionId, int absentStatus) {
+		final String body;
+		try {
+			body = mapper.writeValueAsString(resource);
+		} catch (JsonProcessingException e) {
+			final CompletableFuture<JsonNode> failed = new CompletableFuture<>();
+			failed.completeExceptionally(new JsonException(e));
+			return failed;
+		}
+		LOGGER.debug("{}ing {} {}", request.getMethod(), uri, body);
+		request.setHeader(HttpHeaders.CONTENT_TYPE, APPLICATION_JSON);
+		if (transactionId != null) {
+			request.setHeader(COORDINATION_ID_HEADER, transactionId.toString());
+		}
+		request.setEntity(new StringEntity(body, StandardCharsets.UTF_8));
+		return execute(request, absentStatus).thenApply(responseBody -> responseBody == null ? null : readTree(responseBody));
+	}
+
+	@Override
+	protected CompletableFuture<Void> deleteResource(String uri) {
+		return deleteResource(uri, null, NO_STATUS).thenApply(deleted -> null);
+	}
+
+	@Override
+	protected CompletableFuture<Void> deleteResource(String uri, long transactionId) {
+		return deleteResource(uri, Long.valueOf(transactionId), NO_STATUS).thenApply(deleted -> null);
+	}
+
+	@Override
+	protected CompletableFuture<Boolean> deleteResourceIfPresent(String uri) {
+		return deleteResource(uri, null, HttpStatus.SC_NOT_FOUND);
+	}
+
+	/**
+	 * @return a future completed with {@code false} if the response had the {@code absentStatus} status code.
+	 */
+	private CompletableFuture<Boolean> deleteResource(String uri, Long transactionId, int absentStatus) {
+		LOGGER.debug("DELETEing {}", uri);
+		final HttpDelete request = new HttpDelete(address.resolve(uri));
+		if (transactionId != null) {
+			request.setHeader(COORDINATION_ID_HEADER, transactionId.toString());
+		}
+		return execute(request, absentStatus).thenApply(Objects::nonNull);
+	}
+
+	/**
+	 * @return a future completed with the response body, or {@code null} if the response had the {@code absentStatus}
+	 * status code.
+	 */
+	private CompletableFuture<String> execute(HttpRequestBase request, int absentStatus) {
+		return execute(request).thenApply(response -> {
+			final StatusLine statusLine = response.getStatusLine();
+			final String responseBody = toString(response.getEntity());
+			if (statusLine.getStatusCode() == absentStatus) {
+				return null;
+			}
+			AbstractIControlClient.validateResponse(statusLine.getStatusCode(), statusLine.getReasonPhrase(), responseBody, 200);
+			return responseBody;
+		});
+	}
+
+	/**
+	 * Executes the request using an auth token, if available, or HTTP Basic authentication.
+	 */
+	private CompletableFuture<HttpResponse> execute(HttpRequestBase request) {
+		return currentToken().thenCompose(token -> {
+			if (token == null) {
+				return send(request, basicAuthContext());
+			}
+			request.setHeader(AUTH_TOKEN_HEADER, token.value);
+			return send(request, unauthenticatedContext()).thenCompose(response -> {
+				if (response.getStatusLine().getStatusCode() != 401) {
+					return CompletableFuture.completedFuture(response);
+				}
+				// The token was revoked or expired early, get a new one and try again
+				invalidateToken(token);
+				return currentToken().thenCompose(newToken -> {
+					if (newToken == null) {
+						request.removeHeaders(AUTH_TOKEN_HEADER);
+						return send(request, basicAuthContext());
+					}
+					request.setHeader(AUTH_TOKEN_HEADER, newToken.value);
+					return send(request, unauthenticatedContext());
+				});
+			});
+		});
+	}
+
+	private CompletableFuture<HttpResponse> send(HttpRequestBase request, HttpClientContext context) {
+		final CompletableFuture<HttpResponse> future = new CompletableFuture<>();
+		httpClient.execute(request, context, new FutureCallback<HttpResponse>() {
+			@Override
+			public void completed(HttpResponse response) {
+				future.complete(response);
+			}
+
+			@Override
+			public void failed(Exception e) {
+				future.completeExceptionally(new IControlException(e));
+			}
+
+			@Override
+			public void cancelled() {
+				future.cancel(false);
+			}
+		});
+		return future;
+	}
+
+	/**
+	 * @return a context that sends HTTP Basic credentials preemptively.
+	 */
+	private HttpClientContext basicAuthContext() {
+		final HttpClientContext context = HttpClientContext.create();
+		final AuthCache authCache = new BasicAuthCache();
+		authCache.put(host, new BasicScheme());
+		context.setAuthCache(authCache);
+		return context;
+	}
+
+	/**
+	 * @return a context for requests that authenticate with a token, or not at all.
+	 */
+	private HttpClientContext unauthenticatedContext() {
+		final HttpClientContext context = HttpClientContext.create();
+		context.setRequestConfig(unauthenticatedRequestConfig);
+		return context;
+	}
+
+	/**
+	 * Returns a valid auth token, logging in if the cached token is missing or about to expire. Only one login is in
+	 * flight at a time; other requests that need a new token wait for its result.
+	 *
+	 * @return a future completed with the current auth token or {@code null} if token authentication is not being used.
+	 */
+	private CompletableFuture<AuthToken> currentToken() {
+		if (!useTokens) {
+			return CompletableFuture.completedFuture(null);
+		}
+		final AuthToken token = authToken;
+		if (token != null && !token.needsRefresh(nanoTime.getAsLong())) {
+			return CompletableFuture.completedFuture(token);
+		}
+		final CompletableFuture<AuthToken> pending;
+		synchronized (tokenLock) {
+			if (authToken != null && !authToken.needsRefresh(nanoTime.getAsLong())) {
+				return CompletableFuture.completedFuture(authToken);
+			}
+			if (login != null) {
+				return login;
+			}
+			if (loginBackoff && nanoTime.getAsLong() - loginRetryAt < 0) {
+				// A token due for refresh is usually still valid, otherwise the request is retried without it
+				return CompletableFuture.completedFuture(authToken);
+			}
+			pending = new CompletableFuture<>();
+			login = pending;
+		}
+		login().thenAccept(newToken -> {
+			final AuthToken result;
+			synchronized (tokenLock) {
+				login = null;
+				if (newToken == null) {
+					loginBackoff = true;
+					loginRetryAt = nanoTime.getAsLong() + TimeUnit.SECONDS.toNanos(LOGIN_RETRY_SECONDS);
+					result = useTokens ? authToken : null;
+				} else {
+					loginBackoff = false;
+					authToken = newToken;
+					result = newToken;
+				}
+			}
+			// Complete outside the lock, the waiting requests continue on this thread
+			pending.complete(result);
+		});
+		return pending;
+	}
+
+	private void invalidateToken(AuthToken token) {
+		synchronized (tokenLock) {
+			if (authToken == token) {
+				authToken = null;
+			}
+		}
+	}
+
+	/**
+	 * @return a future completed with a new auth token or {@code null} if the login failed. Token authentication is
+	 * only disabled for good when the LTM does not have the login endpoint, other failures, including rejected
+	 * credentials, are retried later. The future is never completed exceptionally.
+	 */
+	private CompletableFuture<AuthToken> login() {
+		LOGGER.debug("Requesting auth token from {}", LOGIN_URI);
+		final ObjectNode body = mapper.createObjectNode()
+				.put("username", user)
+				.put("password", password)
+				.put("loginProviderName", "tmos");
+		final HttpPost request = new HttpPost(address.resolve(LOGIN_URI));
+		request.setHeader(HttpHeaders.CONTENT_TYPE, APPLICATION_JSON);
+		request.setEntity(new StringEntity(body.toString(), StandardCharsets.UTF_8));
+		return send(request, unauthenticatedContext()).handle((response, e) -> {
+			if (e != null) {
+				LOGGER.warn("Could not get an auth token, using HTTP Basic authentication for the next {} seconds: {}",
+						LOGIN_RETRY_SECONDS, unwrap(e).toString());
+				return null;
+			}
+			final StatusLine statusLine = response.getStatusLine();
+			final String responseBody;
+			try {
+				responseBody = toString(response.getEntity());
+				if (statusLine.getStatusCode() == 200) {
+					final JsonNode token = readTree(responseBody).path("token");
+					final String value = token.path("token").asText(null);
+					if (value != null) {
+						final long timeout = token.path("timeout").asLong(DEFAULT_TOKEN_TIMEOUT_SECONDS);
+						return new AuthToken(value, timeout, nanoTime.getAsLong());
+					}
+				}
+			} catch (IControlException ex) {
+				LOGGER.warn("Could not get an auth token, using HTTP Basic authentication for the next {} seconds: {}",
+						LOGIN_RETRY_SECONDS, ex.getCause() == null ? ex.toString() : ex.getCause().toString());
+				return null;
+			}
+			switch (statusLine.getStatusCode()) {
+				case 400:
+					if (!responseBody.toLowerCase(Locale.ENGLISH).contains("not supported")) {
+						break;
+					}
+					// Fall through
+				case 404:
+					LOGGER.info("LTM does not support token authentication ({} {}), using HTTP Basic authentication instead.",
+							statusLine.getStatusCode(), statusLine.getReasonPhrase());
+					useTokens = false;
+					return null;
+			}
+			LOGGER.warn("Could not get an auth token ({} {}), using HTTP Basic authentication for the next {} seconds.",
+					statusLine.getStatusCode(), statusLine.getReasonPhrase(), LOGIN_RETRY_SECONDS);
+			return null;
+		});
+	}
+
+	private JsonNode readTree(String body) {
+		try {
+			return body.isEmpty() ? mapper.createObjectNode() : mapper.readTree(body);
+		} catch (IOException e) {
+			throw new IControlException(e);
+		}
+	}
+
+	private static String toString(HttpEntity entity) {
+		try {
+			return entity == null ? "" : EntityUtils.toString(entity, StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			throw new IControlException(e);
+		}
+	}
+
+	private static class AuthToken {
+		private final String value;
+		private final long refreshAt;
+
+		AuthToken(String value, long timeoutSeconds, long now) {
+			this.value = value;
+			final long lifetime = Math.max(timeoutSeconds - TOKEN_REFRESH_MARGIN_SECONDS, timeoutSeconds / 2);
+			this.refreshAt = now + TimeUnit.SECONDS.toNanos(lifetime);
+		}
+
+		boolean needsRefresh(long now) {
+			return now - refreshAt >= 0;
+		}
+	}
+
+}
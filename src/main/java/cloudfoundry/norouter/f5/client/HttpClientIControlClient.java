@@ -16,212 +16,237 @@
 package cloudfoundry.norouter.f5.client;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import org.apache.http.Header;
-import org.apache.http.HttpHeaders;
-import org.apache.http.HttpHost;
-import org.apache.http.StatusLine;
-import org.apache.http.auth.AuthScope;
-import org.apache.http.auth.UsernamePasswordCredentials;
-import org.apache.http.client.AuthCache;
-import org.apache.http.client.methods.CloseableHttpResponse;
-import org.apache.http.client.methods.HttpDelete;
-import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.client.methods.HttpPatch;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.client.methods.HttpPut;
-import org.apache.http.client.protocol.HttpClientContext;
-import org.apache.http.client.utils.HttpClientUtils;
-import org.apache.http.entity.ContentType;
-import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.auth.BasicScheme;
-import org.apache.http.impl.client.BasicAuthCache;
-import org.apache.http.impl.client.BasicCredentialsProvider;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClientBuilder;
-import org.apache.http.impl.client.HttpClients;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-import org.springframework.util.StreamUtils;
-
-import java.io.IOException;
+import org.apache.http.pool.PoolStats;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
 import java.net.URI;
-import java.nio.charset.StandardCharsets;
-import java.util.IllegalFormatCodePointException;
-import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
+ * A blocking {@link IControlClient} that waits on the requests of an {@link HttpAsyncClientIControlClient}. Failures
+ * are thrown as the same exceptions the async client fails its futures with.
+ *
  * @author Mike Heath <elcapo@gmail.com>
  */
+@ManagedResource(objectName = "norouter:type=IControlClient")
 public class HttpClientIControlClient extends AbstractIControlClient {
 
-	private static final String APPLICATION_JSON = "application/json";
-	private static Logger LOGGER = LoggerFactory.getLogger(HttpClientIControlClient.class);
-
-	private final HttpHost host;
-	private final CloseableHttpClient httpClient;
-	private final ThreadLocal<HttpClientContext> context = new ThreadLocal<HttpClientContext>() {
-		@Override
-		protected HttpClientContext initialValue() {
-			final HttpClientContext context = HttpClientContext.create();
+	private final HttpAsyncClientIControlClient async;
 
-			final AuthCache authCache = new BasicAuthCache();
-			final BasicScheme basicAuth = new BasicScheme();
-			authCache.put(host, basicAuth);
-			context.setAuthCache(authCache);
-
-			return context;
-		}
-	};
 	public static Builder create() {
 		return new Builder();
 	}
 
+	/**
+	 * Configures the underlying {@link HttpAsyncClientIControlClient}, see {@link HttpAsyncClientIControlClient.Builder}.
+	 */
 	public static class Builder {
 
-		private boolean skipVerifyTls = false;
-		private URI url;
-		private String user;
-		private String password;
+		private final HttpAsyncClientIControlClient.Builder async = HttpAsyncClientIControlClient.create();
 
 		public Builder url(String address) {
-			return url(URI.create(address));
+			async.url(address);
+			return this;
 		}
 
 		public Builder url(URI address) {
-			Objects.requireNonNull(address);
-			final String userInfo = address.getUserInfo();
-			if (userInfo != null) {
-				final int separatorIndex = userInfo.indexOf(':');
-				this.user = userInfo.substring(0, separatorIndex);
-				this.password = userInfo.substring(separatorIndex + 1);
-			}
-			this.url = address;
+			async.url(address);
 			return this;
 		}
 
 		public Builder skipVerifyTls(boolean verifyTls) {
-			this.skipVerifyTls = verifyTls;
+			async.skipVerifyTls(verifyTls);
+			return this;
+		}
+
+		public Builder tokenAuthentication(boolean tokenAuthentication) {
+			async.tokenAuthentication(tokenAuthentication);
 			return this;
 		}
 
 		public Builder user(String user) {
-			this.user = user;
+			async.user(user);
 			return this;
 		}
 
 		public Builder password(String password) {
-			this.password = password;
+			async.password(password);
 			return this;
 		}
 
-		public HttpClientIControlClient build() {
-			Objects.requireNonNull(url, "url is a required argument");
-			final HttpHost host = new HttpHost(url.getHost(), url.getPort(), url.getScheme());
-			return new HttpClientIControlClient(host, this);
+		public Builder maxConnections(int maxConnections) {
+			async.maxConnections(maxConnections);
+			return this;
 		}
 
-	}
+		public Builder connectTimeout(int connectTimeoutMillis) {
+			async.connectTimeout(connectTimeoutMillis);
+			return this;
+		}
+
+		public Builder socketTimeout(int socketTimeoutMillis) {
+			async.socketTimeout(socketTimeoutMillis);
+			return this;
+		}
+
+		public Builder connectionRequestTimeout(int connectionRequestTimeoutMillis) {
+			async.connectionRequestTimeout(connectionRequestTimeoutMillis);
+			return this;
+		}
+
+		public Builder keepAlive(long keepAliveMillis) {
+			async.keepAlive(keepAliveMillis);
+			return this;
+		}
 
-	private HttpClientIControlClient(HttpHost host, Builder builder) {
-		super(URI.create(host.toURI()));
-		this.host = host;
+		public Builder connectionTimeToLive(long connectionTimeToLiveMillis) {
+			async.connectionTimeToLive(connectionTimeToLiveMillis);
+			return this;
+		}
 
-		final BasicCredentialsProvider credentialsProvider = new BasicCredentialsProvider();
-		final UsernamePasswordCredentials credentials = new UsernamePasswordCredentials(
-				Objects.requireNonNull(builder.user, "user is a required argument"),
-				Objects.requireNonNull(builder.password, "password is a required argument"));
-		credentialsProvider.setCredentials(new AuthScope(host.getHostName(), host.getPort()), credentials);
+		public Builder idleConnectionTimeout(long idleConnectionTimeoutMillis) {
+			async.idleConnectionTimeout(idleConnectionTimeoutMillis);
+			return this;
+		}
 
-		final HttpClientBuilder httpClientBuilder = HttpClients.custom()
-				.setUserAgent("curl/7.37.1")
-				.disableCookieManagement()
-				.setDefaultCredentialsProvider(credentialsProvider);
-		if (builder.skipVerifyTls) {
-			httpClientBuilder.setSSLSocketFactory(NaiveTrustManager.getSocketFactory());
+		public HttpClientIControlClient build() {
+			return new HttpClientIControlClient(async.build());
 		}
-		httpClient = httpClientBuilder.build();
+
+	}
+
+	private HttpClientIControlClient(HttpAsyncClientIControlClient async) {
+		super(async.address);
+		this.async = async;
+	}
+
+	/**
+	 * @return the non-blocking client this client waits on. Closing this client closes it.
+	 */
+	public AsyncIControlClient async() {
+		return async;
 	}
 
 	@Override
 	public void close() {
-		HttpClientUtils.closeQuietly(httpClient);
+		async.close();
+	}
+
+	@ManagedAttribute(description = "Number of connections leased from the connection pool")
+	public long getConnectionLeases() {
+		return async.getConnectionLeases();
+	}
+
+	@ManagedAttribute(description = "Number of requests that timed out waiting for a pooled connection")
+	public long getConnectionLeaseTimeouts() {
+		return async.getConnectionLeaseTimeouts();
+	}
+
+	@ManagedAttribute(description = "Average time in milliseconds spent waiting for a pooled connection")
+	public double getAverageConnectionLeaseWaitMillis() {
+		return async.getAverageConnectionLeaseWaitMillis();
+	}
+
+	@ManagedAttribute(description = "Number of connections currently in use")
+	public int getLeasedConnections() {
+		return async.getConnectionPoolStats().getLeased();
+	}
+
+	@ManagedAttribute(description = "Number of requests waiting for a pooled connection")
+	public int getPendingConnections() {
+		return async.getConnectionPoolStats().getPending();
+	}
+
+	@ManagedAttribute(description = "Number of idle connections in the connection pool")
+	public int getAvailableConnections() {
+		return async.getConnectionPoolStats().getAvailable();
+	}
+
+	@ManagedAttribute(description = "Percentage of the connection pool in use")
+	public double getConnectionPoolUtilization() {
+		final PoolStats stats = async.getConnectionPoolStats();
+		return stats.getMax() == 0 ? 0 : 100.0 * stats.getLeased() / stats.getMax();
+	}
+
+	@ManagedAttribute(description = "Number of connections opened to the LTM")
+	public long getConnectionsOpened() {
+		return async.getConnectionsOpened();
+	}
+
+	@ManagedAttribute(description = "Number of connections to the LTM that have been closed")
+	public long getConnectionsClosed() {
+		return async.getConnectionsClosed();
 	}
 
 	@Override
 	protected JsonNode getResource(String uri) {
-		LOGGER.debug("GETting {}", uri);
-		final HttpGet request = new HttpGet(address.resolve(uri));
-		try (final CloseableHttpResponse response = httpClient.execute(request, context.get())) {
-			final StatusLine statusLine = response.getStatusLine();
-			final String responseBody = StreamUtils.copyToString(response.getEntity().getContent(), StandardCharsets.UTF_8);
-			validateResponse(statusLine.getStatusCode(), statusLine.getReasonPhrase(), responseBody, 200);
-			return mapper.readTree(responseBody);
-		} catch (IOException e) {
-			throw new IControlException(e);
-		}
+		return join(async.getResource(uri));
+	}
+
+	@Override
+	protected <T> T getResource(String uri, ResourceParser<T> parser) {
+		return join(async.getResource(uri, parser));
 	}
 
 	@Override
 	protected JsonNode postResource(String uri, Object resource) {
-		return update(uri, resource, Method.POST);
+		return join(async.postResource(uri, resource));
+	}
+
+	@Override
+	protected boolean postResourceIfAbsent(String uri, Object resource) {
+		return join(async.postResourceIfAbsent(uri, resource));
 	}
 
 	@Override
 	protected JsonNode putResource(String uri, Object resource) {
-		return update(uri, resource, Method.PUT);
+		return join(async.putResource(uri, resource));
 	}
 
 	@Override
 	protected JsonNode patchResource(String uri, Object resource) {
-		return update(uri, resource, Method.PATCH);
+		return join(async.patchResource(uri, resource));
 	}
 
-	private enum Method { PUT, POST, PATCH }
+	@Override
+	protected void deleteResource(String uri) {
+		join(async.deleteResource(uri));
+	}
 
-	private JsonNode update(String uri, Object resource, Method method) {
-		try {
-			final String body = mapper.writeValueAsString(resource);
-			LOGGER.debug("{}ting {} {}", method, uri, body);
-			final HttpEntityEnclosingRequestBase request;
-			final URI resolvedUri = address.resolve(uri);
-			switch (method) {
-				case PATCH:
-					request = new HttpPatch(resolvedUri);
-					break;
-				case POST:
-					request = new HttpPost(resolvedUri);
-					break;
-				case PUT:
-					request = new HttpPut(resolvedUri);
-					break;
-				default:
-					throw new IllegalStateException("No handler for: " + method);
-			}
-			request.setHeader(HttpHeaders.CONTENT_TYPE, APPLICATION_JSON);
-			request.setEntity(new StringEntity(body, StandardCharsets.UTF_8));
-			try (final CloseableHttpResponse response = httpClient.execute(request, context.get())) {
-				final StatusLine statusLine = response.getStatusLine();
-				final String responseBody = StreamUtils.copyToString(response.getEntity().getContent(), StandardCharsets.UTF_8);
-				validateResponse(statusLine.getStatusCode(), statusLine.getReasonPhrase(), responseBody, 200);
-				return mapper.readTree(responseBody);
-			}
-		} catch (IOException e) {
-			throw new IControlException(e);
-		}
+	@Override
+	protected boolean deleteResourceIfPresent(String uri) {
+		return join(async.deleteResourceIfPresent(uri));
 	}
 
 	@Override
-	protected void deleteResource(String uri) {
+	protected JsonNode postResource(String uri, Object resource, long transactionId) {
+		return join(async.postResource(uri, resource, transactionId));
+	}
+
+	@Override
+	protected JsonNode putResource(String uri, Object resource, long transactionId) {
+		return join(async.putResource(uri, resource, transactionId));
+	}
+
+	@Override
+	protected void deleteResource(String uri, long transactionId) {
+		join(async.deleteResource(uri, transactionId));
+	}
+
+	/**
+	 * Waits for the request and rethrows its failure unwrapped so callers see the same exceptions as before.
+	 */
+	private static <T> T join(CompletableFuture<T> future) {
 		try {
-			LOGGER.debug("DELETEing {}", uri);
-			final HttpDelete request = new HttpDelete(address.resolve(uri));
-			try (final CloseableHttpResponse response = httpClient.execute(request)) {
-				final StatusLine statusLine = response.getStatusLine();
-				validateResponse(statusLine.getStatusCode(), statusLine.getReasonPhrase(), "", 200);
+			return future.join();
+		} catch (CompletionException e) {
+			final Throwable cause = AbstractAsyncIControlClient.unwrap(e);
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
 			}
-		} catch (IOException e) {
-			throw new IControlException(e);
+			throw new IControlException(cause);
 		}
 	}
 
@@ -17,6 +17,8 @@ package cloudfoundry.norouter.f5.client;
 
 import java.net.InetSocketAddress;
 import java.util.Collection;
+import java.util.Map;
+import java.util.stream.Stream;
 
 /**
  * @author Mike Heath <elcapo@gmail.com>
@@ -44,14 +46,35 @@ public interface IControlClient extends AutoCloseable {
 
 	Pool createPool(Pool pool);
 
+	/**
+	 * Creates the pool unless a pool with the same name already exists.
+	 *
+	 * @return {@code true} if the pool was created, {@code false} if it already existed.
+	 */
+	boolean createPoolIfAbsent(Pool pool);
+
 	Pool getPool(String name) throws ResourceNotFoundException;
 
 	void deletePool(String name);
 
+	/**
+	 * @return {@code true} if the pool was deleted, {@code false} if it didn't exist.
+	 */
+	boolean deletePoolIfPresent(String name);
+
 	Collection<Pool> getAllPools();
 
 	Collection<Pool> getAllPools(boolean fetchPoolMembers);
 
+	/**
+	 * Streams all the pools on the LTM. Pools are fetched and parsed a page at a time as the stream is consumed so the
+	 * full pool list is never held in memory.
+	 *
+	 * @param fetchPoolMembers whether to include each pool's members
+	 * @param fields the pool fields to fetch. If no fields are given, all fields are fetched.
+	 */
+	Stream<Pool> streamAllPools(boolean fetchPoolMembers, String... fields);
+
 	PoolMember addPoolMember(String poolName, InetSocketAddress poolMember);
 
 	PoolMember addPoolMember(String poolName, InetSocketAddress poolMember, String description);
@@ -60,10 +83,23 @@ public interface IControlClient extends AutoCloseable {
 
 	PoolMember addPoolMember(String poolName, String poolMember, String description);
 
+	/**
+	 * Adds the pool member unless it is already a member of the pool.
+	 *
+	 * @return {@code true} if the pool member was added, {@code false} if it was already a member of the pool.
+	 * @throws ResourceNotFoundException if the pool does not exist
+	 */
+	boolean addPoolMemberIfAbsent(String poolName, InetSocketAddress poolMember, String description) throws ResourceNotFoundException;
+
 	void deletePoolMember(String poolName, InetSocketAddress poolMember);
 
 	void deletePoolMember(String poolName, String poolMember);
 
+	/**
+	 * @return {@code true} if the pool member was removed, {@code false} if the pool or pool member didn't exist.
+	 */
+	boolean deletePoolMemberIfPresent(String poolName, InetSocketAddress poolMember);
+
 	Pool updatePoolDescription(String poolName, String description);
 
 	PoolMember updatePoolMemberDescription(String poolName, InetSocketAddress member, String description);
@@ -86,4 +122,28 @@ public interface IControlClient extends AutoCloseable {
 
 	void deleteVirtualServer(String name);
 
+	DataGroup createDataGroup(DataGroup dataGroup) throws ConflictException;
+
+	DataGroup getDataGroup(String name) throws ResourceNotFoundException;
+
+	/**
+	 * Replaces all the records of an internal data group.
+	 */
+	DataGroup updateDataGroupRecords(String name, Map<String, String> records) throws ResourceNotFoundException;
+
+	void deleteDataGroup(String name);
+
+	default DataGroup createOrUpdateDataGroup(String name, Map<String, String> records) {
+		try {
+			return createDataGroup(new DataGroup(name, records));
+		} catch (ConflictException e) {
+			return updateDataGroupRecords(name, records);
+		}
+	}
+
+	/**
+	 * Opens a transaction for queueing changes that should be applied to the LTM as a single commit.
+	 */
+	Transaction beginTransaction();
+
 }
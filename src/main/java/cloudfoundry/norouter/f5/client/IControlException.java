@@ -27,4 +27,12 @@ public class IControlException extends RuntimeException {
 		super(cause);
 	}
 
+	/**
+	 * For exceptions that signal an expected response, like a conflict, where a stack trace is not worth the cost of
+	 * capturing it.
+	 */
+	protected IControlException(String message, boolean writableStackTrace) {
+		super(message, null, false, writableStackTrace);
+	}
+
 }
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.f5.client;
+
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.config.Registry;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.nio.NHttpClientConnection;
+import org.apache.http.nio.conn.SchemeIOSessionStrategy;
+import org.apache.http.nio.reactor.ConnectingIOReactor;
+import org.apache.http.nio.reactor.IOEventDispatch;
+import org.apache.http.nio.reactor.IOSession;
+
+import java.io.IOException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A pooling connection manager that keeps track of how long requests wait to lease a connection and how many
+ * connections get opened and closed.
+ *
+ * <p>The pool only fails a lease that has waited longer than its lease timeout when another connection is leased or
+ * released, so that is when the timeout is counted.
+ *
+ * @author Mike Heath
+ */
+class InstrumentedConnectionManager extends PoolingNHttpClientConnectionManager {
+
+	private final LongAdder leases = new LongAdder();
+	private final LongAdder leaseWaitNanos = new LongAdder();
+	private final LongAdder leaseTimeouts = new LongAdder();
+	private final LongAdder connectionsOpened = new LongAdder();
+	private final LongAdder connectionsClosed = new LongAdder();
+
+	InstrumentedConnectionManager(ConnectingIOReactor ioReactor, Registry<SchemeIOSessionStrategy> ioSessionFactoryRegistry, long timeToLive, TimeUnit unit) {
+		super(ioReactor, null, ioSessionFactoryRegistry, null, null, timeToLive, unit);
+	}
+
+	@Override
+	public Future<NHttpClientConnection> requestConnection(HttpRoute route, Object state, long connectTimeout, long leaseTimeout, TimeUnit tunit, FutureCallback<NHttpClientConnection> callback) {
+		final long start = System.nanoTime();
+		return super.requestConnection(route, state, connectTimeout, leaseTimeout, tunit, new FutureCallback<NHttpClientConnection>() {
+			@Override
+			public void completed(NHttpClientConnection connection) {
+				leaseWaitNanos.add(System.nanoTime() - start);
+				leases.increment();
+				if (callback != null) {
+					callback.completed(connection);
+				}
+			}
+
+			@Override
+			public void failed(Exception e) {
+				if (e instanceof TimeoutException) {
+					leaseWaitNanos.add(System.nanoTime() - start);
+					leaseTimeouts.increment();
+				}
+				if (callback != null) {
+					callback.failed(e);
+				}
+			}
+
+			@Override
+			public void cancelled() {
+				if (callback != null) {
+					callback.cancelled();
+				}
+			}
+		});
+	}
+
+	@Override
+	public void execute(IOEventDispatch eventDispatch) throws IOException {
+		super.execute(new IOEventDispatch() {
+			@Override
+			public void connected(IOSession session) {
+				connectionsOpened.increment();
+				eventDispatch.connected(session);
+			}
+
+			@Override
+			public void inputReady(IOSession session) {
+				eventDispatch.inputReady(session);
+			}
+
+			@Override
+			public void outputReady(IOSession session) {
+				eventDispatch.outputReady(session);
+			}
+
+			@Override
+			public void timeout(IOSession session) {
+				eventDispatch.timeout(session);
+			}
+
+			@Override
+			public void disconnected(IOSession session) {
+				connectionsClosed.increment();
+				eventDispatch.disconnected(session);
+			}
+		});
+	}
+
+	long getLeases() {
+		return leases.sum();
+	}
+
+	long getLeaseTimeouts() {
+		return leaseTimeouts.sum();
+	}
+
+	double getAverageLeaseWaitMillis() {
+		final long count = leases.sum() + leaseTimeouts.sum();
+		return count == 0 ? 0 : leaseWaitNanos.sum() / (double) count / 1_000_000;
+	}
+
+	long getConnectionsOpened() {
+		return connectionsOpened.sum();
+	}
+
+	long getConnectionsClosed() {
+		return connectionsClosed.sum();
+	}
+}
@@ -25,4 +25,6 @@ public class Monitors {
 
 	public static String TCP_HALF_OPEN = "/Common/tcp_half_open";
 
+	public static String GATEWAY_ICMP = "/Common/gateway_icmp";
+
 }
@@ -15,8 +15,6 @@
  */
 package cloudfoundry.norouter.f5.client;
 
-import org.apache.http.conn.socket.LayeredConnectionSocketFactory;
-import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
 import org.apache.http.conn.ssl.X509HostnameVerifier;
 
 import javax.net.ssl.SSLContext;
@@ -32,42 +30,48 @@ import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 
 /**
- * Provides a {@code SocketFactory} that naively ignores any TLS certificate problems.
+ * Provides an {@code SSLContext} and hostname verifier that naively ignore any TLS certificate problems.
  */
 class NaiveTrustManager implements X509TrustManager {
 
 	private static final TrustManager[] TRUST_MANAGERS = {new NaiveTrustManager()};
 
+	private static final X509HostnameVerifier HOSTNAME_VERIFIER = new X509HostnameVerifier() {
+		@Override
+		public void verify(String host, SSLSocket ssl) throws IOException {
+		}
+
+		@Override
+		public void verify(String host, X509Certificate cert) throws SSLException {
+		}
+
+		@Override
+		public void verify(String host, String[] cns, String[] subjectAlts) throws SSLException {
+		}
+
+		@Override
+		public boolean verify(String s, SSLSession sslSession) {
+			return true;
+		}
+	};
+
 	private NaiveTrustManager() {
 	}
 
-	public static LayeredConnectionSocketFactory getSocketFactory() {
+	public static SSLContext getSslContext() {
 		try {
 			final SSLContext context = SSLContext.getInstance("TLS");
 			context.init(null, TRUST_MANAGERS, null);
-			return new SSLConnectionSocketFactory(context, new X509HostnameVerifier() {
-				@Override
-				public void verify(String host, SSLSocket ssl) throws IOException {
-				}
-
-				@Override
-				public void verify(String host, X509Certificate cert) throws SSLException {
-				}
-
-				@Override
-				public void verify(String host, String[] cns, String[] subjectAlts) throws SSLException {
-				}
-
-				@Override
-				public boolean verify(String s, SSLSession sslSession) {
-					return true;
-				}
-			});
+			return context;
 		} catch (NoSuchAlgorithmException | KeyManagementException e) {
 			throw new Error(e);
 		}
 	}
 
+	public static X509HostnameVerifier getHostnameVerifier() {
+		return HOSTNAME_VERIFIER;
+	}
+
 	public void checkClientTrusted(X509Certificate[] chain, String authType) throws CertificateException {
 	}
 
@@ -131,7 +131,7 @@ public class Pool extends JsonObject {
 
 	@JsonIgnore
 	public Optional<Collection<PoolMember>> getMembers() {
-		return poolMembers.getItems();
+		return poolMembers == null ? Optional.empty() : poolMembers.getItems();
 	}
 
 	@JsonProperty("membersReference")
@@ -20,6 +20,6 @@ package cloudfoundry.norouter.f5.client;
  */
 public class ResourceNotFoundException extends IControlException {
 	public ResourceNotFoundException(String message) {
-		super(message);
+		super(message, false);
 	}
 }
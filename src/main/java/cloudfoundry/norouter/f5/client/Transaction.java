@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.f5.client;
+
+import java.net.InetSocketAddress;
+
+/**
+ * An iControl REST transaction. Changes are queued on the LTM and applied atomically when the transaction is
+ * committed. If any queued change fails, none of the changes are applied.
+ *
+ * <p>Closing a transaction that has not been committed discards it.
+ *
+ * @author Mike Heath
+ */
+public interface Transaction extends AutoCloseable {
+
+	long getId();
+
+	/**
+	 * @return the number of changes queued in this transaction.
+	 */
+	int size();
+
+	Transaction createPool(Pool pool);
+
+	Transaction deletePool(String name);
+
+	Transaction addPoolMember(String poolName, InetSocketAddress poolMember, String description);
+
+	Transaction deletePoolMember(String poolName, InetSocketAddress poolMember);
+
+	Transaction updatePoolDescription(String poolName, String description);
+
+	Transaction updatePoolMemberDescription(String poolName, InetSocketAddress poolMember, String description);
+
+	/**
+	 * Applies all the queued changes.
+	 *
+	 * @throws IControlException if the LTM rejected the transaction. None of the changes are applied in this case.
+	 */
+	void commit() throws IControlException;
+
+	@Override
+	void close();
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.f5.dropsonde;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.UUID;
+
+/**
+ * Builds access log messages from the fields sent by the iRules, so the LTM doesn't have to format them. Timestamps
+ * are in UTC.
+ *
+ * <p>Not thread safe, each decoder has its own formatter.
+ *
+ * @author Mike Heath
+ */
+class AccessLogFormatter {
+
+	private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter
+			.ofPattern("dd/MMM/yyyy:HH:mm:ss Z", Locale.ENGLISH)
+			.withZone(ZoneOffset.UTC);
+
+	// Records arrive in time order so the formatted timestamp rarely changes from one record to the next
+	private long timestampSeconds = -1;
+	private String timestamp;
+
+	String format(String host, long clientStart, String method, String uri, String httpVersion, int status,
+			long contentLength, String referer, String userAgent, String remoteAddress, UUID requestId, long responseMillis) {
+		final StringBuilder log = new StringBuilder(256 + uri.length() + userAgent.length() + referer.length());
+		log.append(host).append(" - [").append(timestamp(clientStart)).append("] \"")
+				.append(method).append(' ').append(uri).append(" HTTP/").append(httpVersion).append("\" ")
+				.append(status).append(' ');
+		if (contentLength < 0) {
+			log.append('-');
+		} else {
+			log.append(contentLength);
+		}
+		log.append(" \"").append(orDash(referer)).append("\" \"").append(orDash(userAgent)).append("\" ")
+				.append(remoteAddress)
+				.append(" vcap_request_id:").append(requestId)
+				.append(" response_time:").append(responseMillis / 1000).append('.');
+		final long fraction = responseMillis % 1000;
+		if (fraction < 100) {
+			log.append(fraction < 10 ? "00" : "0");
+		}
+		return log.append(fraction).toString();
+	}
+
+	private String timestamp(long millis) {
+		final long seconds = Math.floorDiv(millis, 1000);
+		if (seconds != timestampSeconds) {
+			timestamp = TIMESTAMP_FORMAT.format(Instant.ofEpochSecond(seconds));
+			timestampSeconds = seconds;
+		}
+		return timestamp;
+	}
+
+	private static String orDash(String value) {
+		return value.isEmpty() ? "-" : value;
+	}
+
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.f5.dropsonde;
+
+import cloudfoundry.norouter.routingtable.RouteDetails;
+import cloudfoundry.norouter.routingtable.RouteRegisterEvent;
+import cloudfoundry.norouter.routingtable.RouteUnregisterEvent;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.stereotype.Component;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Maps the IPv4 address and port of each application instance to its application so log lines can be attributed
+ * without building an {@link InetSocketAddress}. Lookups are lock-free and allocation free; updates from route events
+ * are serialized.
+ *
+ * <p>The index is an open-addressed hash table keyed by the address keys produced by {@link LineEventDecoder}. Once a
+ * slot is assigned a key it keeps that key until the table is rebuilt, so a reader that finds a key always reads the
+ * value for that key. Removed entries leave their key in place with a {@code null} value and are dropped when the
+ * table is rebuilt.
+ *
+ * @author Mike Heath
+ */
+@Component
+public class AddressIndex implements ApplicationListener<ApplicationEvent> {
+
+	static final long NO_KEY = -1;
+
+	private static final int INITIAL_CAPACITY = 1024;
+
+	private volatile Table table = new Table(INITIAL_CAPACITY);
+
+	/**
+	 * @return the application at the address or {@code null} if the address is unknown.
+	 */
+	public Application get(long key) {
+		if (key == NO_KEY) {
+			return null;
+		}
+		return table.get(key);
+	}
+
+	public synchronized void put(long key, Application application) {
+		if (key == NO_KEY) {
+			return;
+		}
+		Table current = table;
+		if (!current.put(key, application)) {
+			current = rebuild(current, current.capacity() * 2);
+			current.put(key, application);
+		}
+		// Rebuild once half the slots are used, counting removed entries, to keep probe sequences short
+		if (current.usedSlots > current.capacity() / 2) {
+			rebuild(current, current.size > current.capacity() / 4 ? current.capacity() * 2 : current.capacity());
+		}
+	}
+
+	public synchronized void remove(long key) {
+		if (key != NO_KEY) {
+			table.remove(key);
+		}
+	}
+
+	public int size() {
+		return table.size;
+	}
+
+	int capacity() {
+		return table.capacity();
+	}
+
+	private Table rebuild(Table current, int capacity) {
+		final Table rebuilt = new Table(capacity);
+		for (int i = 0; i < current.capacity(); i++) {
+			final Application application = current.values.get(i);
+			if (application != null) {
+				rebuilt.put(current.keys.get(i), application);
+			}
+		}
+		table = rebuilt;
+		return rebuilt;
+	}
+
+	@Override
+	public void onApplicationEvent(ApplicationEvent event) {
+		if (event instanceof RouteRegisterEvent) {
+			final RouteDetails route = (RouteDetails) event;
+			final long key = keyOf(route.getAddress());
+			final Application existing = get(key);
+			if (route.getApplicationGuid() != null
+					&& (existing == null || !existing.matches(route.getApplicationGuid(), route.getApplicationIndex()))) {
+				put(key, new Application(route.getApplicationGuid(), route.getApplicationIndex()));
+			}
+		} else if (event instanceof RouteUnregisterEvent) {
+			remove(keyOf(((RouteUnregisterEvent) event).getAddress()));
+		}
+	}
+
+	/**
+	 * @return the key for the address or {@link #NO_KEY} if the address is not an IPv4 address.
+	 * @see LogEvent#getApplicationAddressKey()
+	 */
+	static long keyOf(InetSocketAddress address) {
+		final InetAddress inetAddress = address.getAddress();
+		long ip = 0;
+		if (inetAddress != null) {
+			if (!(inetAddress instanceof Inet4Address)) {
+				return NO_KEY;
+			}
+			for (byte b : inetAddress.getAddress()) {
+				ip = ip << 8 | (b & 0xff);
+			}
+		} else {
+			final String[] octets = address.getHostString().split("\\.");
+			if (octets.length != 4) {
+				return NO_KEY;
+			}
+			for (String octet : octets) {
+				try {
+					final int value = Integer.parseInt(octet);
+					if (value < 0 || value > 255) {
+						return NO_KEY;
+					}
+					ip = ip << 8 | value;
+				} catch (NumberFormatException e) {
+					return NO_KEY;
+				}
+			}
+		}
+		return ip << 16 | address.getPort();
+	}
+
+	public static class Application {
+		private final UUID guid;
+		private final String guidString;
+		private final Integer index;
+
+		public Application(UUID guid, Integer index) {
+			this.guid = guid;
+			this.guidString = guid.toString();
+			this.index = index;
+		}
+
+		public UUID getGuid() {
+			return guid;
+		}
+
+		/**
+		 * @return the application guid as a string, kept so it isn't formatted for every log line.
+		 */
+		public String getGuidString() {
+			return guidString;
+		}
+
+		public Integer getIndex() {
+			return index;
+		}
+
+		private boolean matches(UUID guid, Integer index) {
+			return this.guid.equals(guid) && (this.index == null ? index == null : this.index.equals(index));
+		}
+	}
+
+	private static class Table {
+		private final AtomicLongArray keys;
+		private final AtomicReferenceArray<Application> values;
+		private final int mask;
+		private int usedSlots;
+		private volatile int size;
+
+		Table(int capacity) {
+			keys = new AtomicLongArray(capacity);
+			for (int i = 0; i < capacity; i++) {
+				keys.set(i, NO_KEY);
+			}
+			values = new AtomicReferenceArray<>(capacity);
+			mask = capacity - 1;
+		}
+
+		int capacity() {
+			return mask + 1;
+		}
+
+		Application get(long key) {
+			for (int i = indexOf(key), probes = 0; probes <= mask; i = (i + 1) & mask, probes++) {
+				final long slotKey = keys.get(i);
+				if (slotKey == key) {
+					return values.get(i);
+				}
+				if (slotKey == NO_KEY) {
+					return null;
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * @return {@code false} if the table is full.
+		 */
+		boolean put(long key, Application application) {
+			for (int i = indexOf(key), probes = 0; probes <= mask; i = (i + 1) & mask, probes++) {
+				final long slotKey = keys.get(i);
+				if (slotKey == key) {
+					if (values.getAndSet(i, application) == null) {
+						size++;
+					}
+					return true;
+				}
+				if (slotKey == NO_KEY) {
+					// Publish the value before the key so readers that find the key see its value
+					values.set(i, application);
+					keys.set(i, key);
+					usedSlots++;
+					size++;
+					return true;
+				}
+			}
+			return false;
+		}
+
+		void remove(long key) {
+			for (int i = indexOf(key), probes = 0; probes <= mask; i = (i + 1) & mask, probes++) {
+				final long slotKey = keys.get(i);
+				if (slotKey == key) {
+					if (values.getAndSet(i, null) != null) {
+						size--;
+					}
+					return;
+				}
+				if (slotKey == NO_KEY) {
+					return;
+				}
+			}
+		}
+
+		private int indexOf(long key) {
+			// Mix the bits so consecutive addresses and ports spread across the table
+			long hash = key * 0x9E3779B97F4A7C15L;
+			return (int) (hash ^ (hash >>> 32)) & mask;
+		}
+	}
+
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.f5.dropsonde;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToMessageDecoder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Decodes the binary records sent by the {@code logging-binary} iRule. Each record carries the fields of a
+ * {@link LogEvent} and an {@link HttpEvent} at fixed offsets, so nothing has to be scanned for delimiters. All
+ * integers are big endian.
+ *
+ * <pre>
+ *   u32  record length, not including this field
+ *   u8   format version, 1 or 2
+ *   u8   LTM identifier length, followed by the LTM identifier
+ *   u32  application IPv4 address, 0 if the application address isn't an IPv4 address
+ *   u16  application port
+ *   u32  client start, high 32 bits of the epoch millis
+ *   u32  client start, low 32 bits of the epoch millis
+ *   i32  server start, millis after the client start or -1 if the request wasn't sent to an application
+ *   i32  server stop, millis after the client start or -1 if the request wasn't sent to an application
+ *   i32  client stop, millis after the client start
+ *   16   request id
+ *   u16  status
+ *   i32  content length or -1 if the response had no Content-Length header
+ *   u8   method length, followed by the method
+ *   u16  uri length, followed by the uri
+ *   u8   remote address length, followed by the remote address
+ *   u16  user agent length, followed by the user agent
+ * </pre>
+ *
+ * Version 1 records end with the access log message. Version 2 records end with the rest of the fields of the access
+ * log message, which is built here rather than on the LTM:
+ *
+ * <pre>
+ *   u8   application address length, followed by the application address if it isn't an IPv4 address
+ *   u16  host length, followed by the host
+ *   u8   HTTP version length, followed by the HTTP version
+ *   u16  referer length, followed by the referer
+ * </pre>
+ *
+ * Records arrive whole: over TCP they are framed using the length field and over UDP each datagram is one record.
+ *
+ * @author Mike Heath
+ */
+public class BinaryLineEventDecoder extends MessageToMessageDecoder<ByteBuf> {
+
+	static final int LENGTH_FIELD_LENGTH = 4;
+
+	private static final int VERSION_LOG_MESSAGE = 1;
+	private static final int VERSION_LOG_FIELDS = 2;
+
+	private byte[] ltmIdentifierBytes = new byte[0];
+	private String ltmIdentifier;
+
+	private final AccessLogFormatter accessLogFormatter = new AccessLogFormatter();
+
+	private final SkippedLines skippedLines;
+
+	public BinaryLineEventDecoder(SkippedLines skippedLines) {
+		this.skippedLines = skippedLines;
+	}
+
+	@Override
+	protected void decode(ChannelHandlerContext context, ByteBuf buffer, List<Object> out) throws Exception {
+		final int start = buffer.readerIndex();
+		try {
+			decodeRecord(context.alloc(), buffer, out);
+		} catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+			buffer.readerIndex(start);
+			skippedLines.malformedRecord(buffer, e);
+		}
+	}
+
+	private void decodeRecord(ByteBufAllocator allocator, ByteBuf buffer, List<Object> out) {
+		if (buffer.readUnsignedInt() != buffer.readableBytes()) {
+			throw new IllegalArgumentException("Invalid record length");
+		}
+		final int version = buffer.readUnsignedByte();
+		if (version != VERSION_LOG_MESSAGE && version != VERSION_LOG_FIELDS) {
+			throw new IllegalArgumentException("Unsupported record version");
+		}
+		final String ltmIdentifier = ltmIdentifier(buffer, buffer.readUnsignedByte());
+		long addressKey = buffer.readUnsignedInt() << 16 | buffer.readUnsignedShort();
+		final long clientStart = buffer.readUnsignedInt() << 32 | buffer.readUnsignedInt();
+		final int serverStart = buffer.readInt();
+		final int serverStop = buffer.readInt();
+		final int clientStop = buffer.readInt();
+		final long mostSignificantBits = buffer.readLong();
+		final long leastSignificantBits = buffer.readLong();
+		final int status = buffer.readUnsignedShort();
+		final int contentLength = buffer.readInt();
+		final String method = readString(buffer, buffer.readUnsignedByte());
+		final String uri = readString(buffer, buffer.readUnsignedShort());
+		final String remoteAddress = readString(buffer, buffer.readUnsignedByte());
+		final String userAgent = readString(buffer, buffer.readUnsignedShort());
+		String address = null;
+		final ByteBuf message;
+		if (version == VERSION_LOG_MESSAGE) {
+			message = buffer.readSlice(buffer.readableBytes()).retain();
+		} else {
+			final int addressLength = buffer.readUnsignedByte();
+			if (addressLength > 0) {
+				// Only IPv4 addresses are packed, anything else is looked up in the routing table by its address
+				address = readString(buffer, addressLength);
+				addressKey = AddressIndex.NO_KEY;
+			}
+			final String host = readString(buffer, buffer.readUnsignedShort());
+			final String httpVersion = readString(buffer, buffer.readUnsignedByte());
+			final String referer = readString(buffer, buffer.readUnsignedShort());
+			if (buffer.isReadable()) {
+				throw new IllegalArgumentException("Unexpected data at the end of the record");
+			}
+			final String accessLog = accessLogFormatter.format(host, clientStart, method, uri, httpVersion, status, contentLength,
+					referer, userAgent, remoteAddress, new UUID(mostSignificantBits, leastSignificantBits), clientStop);
+			message = allocator.buffer(accessLog.length() + 16);
+			ByteBufUtil.writeUtf8(message, accessLog);
+		}
+
+		out.add(new LogEvent(ltmIdentifier, addressKey, address, clientStart, mostSignificantBits, leastSignificantBits, message));
+		if (serverStart >= 0 && serverStop >= 0) {
+			out.add(new HttpEvent(ltmIdentifier, addressKey, address, mostSignificantBits, leastSignificantBits,
+					clientStart, clientStart + serverStart, clientStart + serverStop, clientStart + clientStop,
+					status, contentLength, method, remoteAddress, uri, userAgent));
+		}
+	}
+
+	private String ltmIdentifier(ByteBuf buffer, int length) {
+		final ByteBuf field = buffer.readSlice(length);
+		if (!isLtmIdentifier(field)) {
+			ltmIdentifierBytes = new byte[length];
+			field.getBytes(field.readerIndex(), ltmIdentifierBytes);
+			ltmIdentifier = new String(ltmIdentifierBytes, StandardCharsets.UTF_8);
+		}
+		return ltmIdentifier;
+	}
+
+	private boolean isLtmIdentifier(ByteBuf field) {
+		if (field.readableBytes() != ltmIdentifierBytes.length) {
+			return false;
+		}
+		for (int i = 0; i < ltmIdentifierBytes.length; i++) {
+			if (field.getByte(field.readerIndex() + i) != ltmIdentifierBytes[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static String readString(ByteBuf buffer, int length) {
+		return buffer.readSlice(length).toString(StandardCharsets.UTF_8);
+	}
+
+}
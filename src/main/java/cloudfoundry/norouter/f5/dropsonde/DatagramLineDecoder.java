@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.f5.dropsonde;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.handler.codec.MessageToMessageDecoder;
+
+import java.util.List;
+
+/**
+ * Passes on the line carried by each HSL datagram. The LTM sends one line per datagram, including the trailing
+ * newline used to delimit text lines over TCP. Binary records have no delimiter and are passed on as they are.
+ *
+ * @author Mike Heath
+ */
+class DatagramLineDecoder extends MessageToMessageDecoder<DatagramPacket> {
+
+	private final boolean stripDelimiter;
+
+	DatagramLineDecoder() {
+		this(true);
+	}
+
+	/**
+	 * @param stripDelimiter {@code true} to remove the trailing newline from text lines
+	 */
+	DatagramLineDecoder(boolean stripDelimiter) {
+		this.stripDelimiter = stripDelimiter;
+	}
+
+	@Override
+	protected void decode(ChannelHandlerContext ctx, DatagramPacket packet, List<Object> out) throws Exception {
+		final ByteBuf content = packet.content();
+		int end = content.writerIndex();
+		while (stripDelimiter && end > content.readerIndex() && (content.getByte(end - 1) == '\n' || content.getByte(end - 1) == '\r')) {
+			end--;
+		}
+		if (end > content.readerIndex()) {
+			out.add(content.slice(content.readerIndex(), end - content.readerIndex()).retain());
+		}
+	}
+
+}
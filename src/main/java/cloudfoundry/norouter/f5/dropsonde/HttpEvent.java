@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.f5.dropsonde;
+
+import cloudfoundry.norouter.NorouterUtil;
+
+import java.net.InetSocketAddress;
+import java.util.UUID;
+
+/**
+ * The timing of a request routed by the LTM. Timestamps are in milliseconds since the epoch as reported by the LTM.
+ *
+ * <p>The client timestamps span from the LTM receiving the request to it releasing the response to the client. The
+ * server timestamps span from the LTM sending the request to the application to it receiving the response.
+ *
+ * @author Mike Heath
+ */
+class HttpEvent implements LineEvent {
+	private final String ltmIdentifier;
+	private final long applicationAddressKey;
+	private final String applicationAddressString;
+	private final long requestIdMostSignificantBits;
+	private final long requestIdLeastSignificantBits;
+	private final long clientStart;
+	private final long serverStart;
+	private final long serverStop;
+	private final long clientStop;
+	private final int statusCode;
+	private final long contentLength;
+	private final String method;
+	private final String remoteAddress;
+	private final String uri;
+	private final String userAgent;
+
+	private InetSocketAddress applicationAddress;
+
+	public HttpEvent(String ltmIdentifier, long applicationAddressKey, String applicationAddress,
+			long requestIdMostSignificantBits, long requestIdLeastSignificantBits,
+			long clientStart, long serverStart, long serverStop, long clientStop,
+			int statusCode, long contentLength, String method, String remoteAddress, String uri, String userAgent) {
+		this.ltmIdentifier = ltmIdentifier;
+		this.applicationAddressKey = applicationAddressKey;
+		this.applicationAddressString = applicationAddress;
+		this.requestIdMostSignificantBits = requestIdMostSignificantBits;
+		this.requestIdLeastSignificantBits = requestIdLeastSignificantBits;
+		this.clientStart = clientStart;
+		this.serverStart = serverStart;
+		this.serverStop = serverStop;
+		this.clientStop = clientStop;
+		this.statusCode = statusCode;
+		this.contentLength = contentLength;
+		this.method = method;
+		this.remoteAddress = remoteAddress;
+		this.uri = uri;
+		this.userAgent = userAgent;
+	}
+
+	@Override
+	public String getLtmIdentifier() {
+		return ltmIdentifier;
+	}
+
+	@Override
+	public long getApplicationAddressKey() {
+		return applicationAddressKey;
+	}
+
+	@Override
+	public InetSocketAddress getApplicationAddress() {
+		if (applicationAddress == null) {
+			applicationAddress = NorouterUtil.toSocketAddress(applicationAddressKey < 0 ?
+					applicationAddressString : LogEvent.addressKeyToString(applicationAddressKey));
+		}
+		return applicationAddress;
+	}
+
+	public UUID getRequestId() {
+		return new UUID(requestIdMostSignificantBits, requestIdLeastSignificantBits);
+	}
+
+	public long getClientStartMillis() {
+		return clientStart;
+	}
+
+	public long getServerStartMillis() {
+		return serverStart;
+	}
+
+	public long getServerStopMillis() {
+		return serverStop;
+	}
+
+	public long getClientStopMillis() {
+		return clientStop;
+	}
+
+	public int getStatusCode() {
+		return statusCode;
+	}
+
+	/**
+	 * @return the length of the response body or -1 if the response had no Content-Length header.
+	 */
+	public long getContentLength() {
+		return contentLength;
+	}
+
+	public String getMethod() {
+		return method;
+	}
+
+	public String getRemoteAddress() {
+		return remoteAddress;
+	}
+
+	public String getUri() {
+		return uri;
+	}
+
+	public String getUserAgent() {
+		return userAgent;
+	}
+
+}
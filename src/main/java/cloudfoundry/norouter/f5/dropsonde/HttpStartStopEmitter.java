@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.f5.dropsonde;
+
+import cloudfoundry.norouter.MetronProperties;
+import cloudfoundry.norouter.f5.dropsonde.AddressIndex.Application;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sends dropsonde {@code HttpStartStop} envelopes to Metron for {@link HttpEvent}s. Each event produces a client
+ * envelope timing the request as seen by the client and a server envelope timing the request to the application.
+ *
+ * <p>{@link cf.dropsonde.MetronClient} only emits log messages, so the envelopes are encoded here. The origin and the
+ * Metron agent come from the same {@link MetronProperties} as the {@code MetronClient}.
+ *
+ * @author Mike Heath
+ */
+@Component
+public class HttpStartStopEmitter implements DisposableBean {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(HttpStartStopEmitter.class);
+
+	// Field numbers and enum values from dropsonde's envelope.proto, http.proto and uuid.proto
+	private static final int ENVELOPE_ORIGIN = 1;
+	private static final int ENVELOPE_EVENT_TYPE = 2;
+	private static final int ENVELOPE_TIMESTAMP = 6;
+	private static final int ENVELOPE_HTTP_START_STOP = 7;
+	private static final int EVENT_TYPE_HTTP_START_STOP = 4;
+
+	private static final int START_TIMESTAMP = 1;
+	private static final int STOP_TIMESTAMP = 2;
+	private static final int REQUEST_ID = 3;
+	private static final int PEER_TYPE = 4;
+	private static final int METHOD = 5;
+	private static final int URI = 6;
+	private static final int REMOTE_ADDRESS = 7;
+	private static final int USER_AGENT = 8;
+	private static final int STATUS_CODE = 9;
+	private static final int CONTENT_LENGTH = 10;
+	private static final int APPLICATION_ID = 12;
+	private static final int INSTANCE_INDEX = 13;
+
+	private static final int PEER_TYPE_CLIENT = 1;
+	private static final int PEER_TYPE_SERVER = 2;
+
+	private static final int UUID_LOW = 1;
+	private static final int UUID_HIGH = 2;
+
+	private static final Map<String, Integer> METHODS = new HashMap<>();
+
+	static {
+		METHODS.put("GET", 1);
+		METHODS.put("POST", 2);
+		METHODS.put("PUT", 3);
+		METHODS.put("DELETE", 4);
+		METHODS.put("HEAD", 5);
+		METHODS.put("CONNECT", 11);
+		METHODS.put("OPTIONS", 24);
+		METHODS.put("PATCH", 26);
+		METHODS.put("TRACE", 36);
+	}
+
+	private final String origin;
+	private final InetSocketAddress metronAddress;
+	private final DatagramChannel channel;
+
+	private final LongAdder sent = new LongAdder();
+	private final LongAdder failed = new LongAdder();
+	private final LongAdder unsupportedMethods = new LongAdder();
+
+	@Autowired
+	public HttpStartStopEmitter(MetronProperties metronProperties) throws IOException {
+		this(metronProperties.getOrigin(), metronProperties.getAgentAddress());
+	}
+
+	HttpStartStopEmitter(String origin, InetSocketAddress metronAddress) throws IOException {
+		this.origin = origin;
+		this.metronAddress = metronAddress;
+		this.channel = DatagramChannel.open();
+	}
+
+	/**
+	 * Sends the envelopes for the event.
+	 */
+	public void emit(HttpEvent event, Application application) {
+		final Integer method = METHODS.get(event.getMethod());
+		if (method == null) {
+			// The method is a required field and dropsonde only defines a fixed set
+			unsupportedMethods.increment();
+			return;
+		}
+		send(encode(origin, event, application, method, PEER_TYPE_CLIENT, event.getClientStartMillis(), event.getClientStopMillis()));
+		send(encode(origin, event, application, method, PEER_TYPE_SERVER, event.getServerStartMillis(), event.getServerStopMillis()));
+	}
+
+	public long getSent() {
+		return sent.sum();
+	}
+
+	public long getFailed() {
+		return failed.sum();
+	}
+
+	public long getUnsupportedMethods() {
+		return unsupportedMethods.sum();
+	}
+
+	static byte[] encode(String origin, HttpEvent event, Application application, int method, int peerType, long startMillis, long stopMillis) {
+		final ProtobufWriter httpStartStop = new ProtobufWriter()
+				.varint(START_TIMESTAMP, TimeUnit.MILLISECONDS.toNanos(startMillis))
+				.varint(STOP_TIMESTAMP, TimeUnit.MILLISECONDS.toNanos(stopMillis))
+				.message(REQUEST_ID, uuid(event.getRequestId()))
+				.varint(PEER_TYPE, peerType)
+				.varint(METHOD, method)
+				.string(URI, event.getUri())
+				.string(REMOTE_ADDRESS, event.getRemoteAddress())
+				.string(USER_AGENT, event.getUserAgent())
+				.varint(STATUS_CODE, event.getStatusCode())
+				.varint(CONTENT_LENGTH, Math.max(0, event.getContentLength()))
+				.message(APPLICATION_ID, uuid(application.getGuid()));
+		if (application.getIndex() != null) {
+			httpStartStop.varint(INSTANCE_INDEX, application.getIndex());
+		}
+		return new ProtobufWriter()
+				.string(ENVELOPE_ORIGIN, origin)
+				.varint(ENVELOPE_EVENT_TYPE, EVENT_TYPE_HTTP_START_STOP)
+				.varint(ENVELOPE_TIMESTAMP, TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis()))
+				.message(ENVELOPE_HTTP_START_STOP, httpStartStop)
+				.toByteArray();
+	}
+
+	/**
+	 * Dropsonde splits a UUID into two little endian 64 bit integers.
+	 */
+	private static ProtobufWriter uuid(UUID uuid) {
+		return new ProtobufWriter()
+				.varint(UUID_LOW, Long.reverseBytes(uuid.getMostSignificantBits()))
+				.varint(UUID_HIGH, Long.reverseBytes(uuid.getLeastSignificantBits()));
+	}
+
+	private void send(byte[] envelope) {
+		try {
+			channel.send(ByteBuffer.wrap(envelope), metronAddress);
+			sent.increment();
+		} catch (IOException e) {
+			failed.increment();
+			if (failed.sum() == 1) {
+				LOGGER.warn("Error sending HttpStartStop envelope to Metron at {}", metronAddress, e);
+			} else {
+				LOGGER.debug("Error sending HttpStartStop envelope to Metron at {}", metronAddress, e);
+			}
+		}
+	}
+
+	@Override
+	public void destroy() throws Exception {
+		channel.close();
+	}
+
+}
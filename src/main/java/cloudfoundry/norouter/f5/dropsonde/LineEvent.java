@@ -15,8 +15,23 @@
  */
 package cloudfoundry.norouter.f5.dropsonde;
 
+import java.net.InetSocketAddress;
+
 /**
+ * An event sent by the LTM about a request routed to an application.
+ *
  * @author Mike Heath
  */
 public interface LineEvent {
+
+	String getLtmIdentifier();
+
+	/**
+	 * The application's IPv4 address in the upper 32 bits of the low 48 bits and its port in the low 16 bits, or -1
+	 * if the address is not an IPv4 address.
+	 */
+	long getApplicationAddressKey();
+
+	InetSocketAddress getApplicationAddress();
+
 }
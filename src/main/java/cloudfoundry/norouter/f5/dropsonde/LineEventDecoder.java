@@ -15,65 +15,325 @@
  */
 package cloudfoundry.norouter.f5.dropsonde;
 
-import cloudfoundry.norouter.NorouterUtil;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.handler.codec.DecoderException;
 import io.netty.handler.codec.MessageToMessageDecoder;
 
-import java.net.InetSocketAddress;
 import java.nio.charset.StandardCharsets;
-import java.time.Instant;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 /**
+ * Decodes HSL lines sent by the LTM. Fields are parsed directly from the buffer without creating intermediate
+ * strings. The log message of a {@code LOG} line is passed on as a slice of the buffer so it is only decoded if it is
+ * emitted. An {@code HTTP} line produces both a {@link LogEvent} and an {@link HttpEvent}.
+ *
+ * <p>Malformed lines are skipped and counted rather than failing the channel, so one bad line doesn't cost every
+ * other line on the connection. Lines with commands other than {@code LOG} and {@code HTTP} are passed to an
+ * {@link UnknownCommandHandler}.
+ *
  * @author Mike Heath
  */
 public class LineEventDecoder extends MessageToMessageDecoder<ByteBuf> {
 
+	private static final byte[] LOG_COMMAND = "LOG".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] HTTP_COMMAND = "HTTP".getBytes(StandardCharsets.US_ASCII);
+
+	/**
+	 * Each connection is from a single LTM so the last LTM identifier is kept to avoid decoding it for every line.
+	 */
+	private byte[] ltmIdentifierBytes = new byte[0];
+	private String ltmIdentifier;
+
+	private final AccessLogFormatter accessLogFormatter = new AccessLogFormatter();
+
+	private final SkippedLines skippedLines;
+	private final UnknownCommandHandler unknownCommandHandler;
+
+	public LineEventDecoder() {
+		this(new SkippedLines(10, TimeUnit.SECONDS), (command, line, out) -> false);
+	}
+
+	/**
+	 * @param skippedLines          counts the lines skipped by this decoder, may be shared by several decoders
+	 * @param unknownCommandHandler handles lines with commands other than {@code LOG} and {@code HTTP}
+	 */
+	public LineEventDecoder(SkippedLines skippedLines, UnknownCommandHandler unknownCommandHandler) {
+		this.skippedLines = skippedLines;
+		this.unknownCommandHandler = unknownCommandHandler;
+	}
+
 	@Override
 	protected void decode(ChannelHandlerContext context, ByteBuf buffer, List<Object> out) throws Exception {
-		buffer.markReaderIndex();
+		final int start = buffer.readerIndex();
 		try {
-			final String command = nextString(buffer);
+			final int commandEnd = nextField(buffer, start);
 			// Extract event type
-			switch (command) {
-				case "LOG":
-					decodeLogEvent(context, buffer, out);
-					break;
-				default:
-					throw new IllegalStateException("Unknown command " + command);
+			if (fieldEquals(buffer, start, commandEnd, LOG_COMMAND)) {
+				decodeLogEvent(buffer, commandEnd + 1, out);
+			} else if (fieldEquals(buffer, start, commandEnd, HTTP_COMMAND)) {
+				decodeHttpEvent(context.alloc(), buffer, commandEnd + 1, out);
+			} else {
+				final String command = buffer.toString(start, commandEnd - start, StandardCharsets.UTF_8);
+				if (!unknownCommandHandler.handle(command, buffer, out)) {
+					skippedLines.unknownCommand(buffer);
+				}
 			}
-		} catch (Exception e) {
-			buffer.resetReaderIndex();
-			throw new DecoderException("Invalid line event: " + buffer.toString(StandardCharsets.UTF_8), e);
+		} catch (RuntimeException e) {
+			buffer.readerIndex(start);
+			skippedLines.malformed(buffer, e);
 		}
 	}
 
-	private String nextString(ByteBuf buffer) {
-		// Read space terminated string
-		final int start = buffer.readerIndex();
-		int length = 0;
-		while (buffer.readByte() != ' ') {
-			length++;
+	private void decodeLogEvent(ByteBuf buffer, int index, List<Object> out) {
+		final int ltmIdentifierEnd = nextField(buffer, index);
+		final String ltmIdentifier = ltmIdentifier(buffer, index, ltmIdentifierEnd);
+
+		index = ltmIdentifierEnd + 1;
+		final int addressEnd = nextField(buffer, index);
+		final long addressKey = parseAddress(buffer, index, addressEnd);
+		final String address = addressKey < 0 ? buffer.toString(index, addressEnd - index, StandardCharsets.UTF_8) : null;
+
+		index = addressEnd + 1;
+		final int timestampEnd = nextField(buffer, index);
+		final long timestamp = parseLong(buffer, index, timestampEnd);
+
+		index = timestampEnd + 1;
+		final int requestIdEnd = nextField(buffer, index);
+		final int requestIdSplit = requestIdSplit(index, requestIdEnd);
+		final long mostSignificantBits = parseHex(buffer, index, requestIdSplit);
+		final long leastSignificantBits = parseHex(buffer, requestIdSplit, requestIdEnd);
+
+		index = requestIdEnd + 1;
+		final ByteBuf message = buffer.slice(index, buffer.writerIndex() - index).retain();
+		buffer.readerIndex(buffer.writerIndex());
+		out.add(new LogEvent(ltmIdentifier, addressKey, address, timestamp, mostSignificantBits, leastSignificantBits, message));
+	}
+
+	/**
+	 * Decodes {@code HTTP ltm_id app_address request_id client_start server_start server_stop client_stop status
+	 * content_length method remote_address host http_version uri referer user_agent}. The server times are dashes if
+	 * the request wasn't sent to an application. The user agent is the rest of the line.
+	 *
+	 * <p>The line carries everything in the access log message, so the message is built here rather than on the LTM
+	 * and the LTM sends a single line per request.
+	 */
+	private void decodeHttpEvent(ByteBufAllocator allocator, ByteBuf buffer, int index, List<Object> out) {
+		final int ltmIdentifierEnd = nextField(buffer, index);
+		final String ltmIdentifier = ltmIdentifier(buffer, index, ltmIdentifierEnd);
+
+		index = ltmIdentifierEnd + 1;
+		final int addressEnd = nextField(buffer, index);
+		final long addressKey = parseAddress(buffer, index, addressEnd);
+		final String address = addressKey < 0 ? buffer.toString(index, addressEnd - index, StandardCharsets.UTF_8) : null;
+
+		index = addressEnd + 1;
+		final int requestIdEnd = nextField(buffer, index);
+		final int requestIdSplit = requestIdSplit(index, requestIdEnd);
+		final long mostSignificantBits = parseHex(buffer, index, requestIdSplit);
+		final long leastSignificantBits = parseHex(buffer, requestIdSplit, requestIdEnd);
+
+		index = requestIdEnd + 1;
+		final int clientStartEnd = nextField(buffer, index);
+		final long clientStart = parseLong(buffer, index, clientStartEnd);
+		index = clientStartEnd + 1;
+		final int serverStartEnd = nextField(buffer, index);
+		final long serverStart = parseLongOrDash(buffer, index, serverStartEnd);
+		index = serverStartEnd + 1;
+		final int serverStopEnd = nextField(buffer, index);
+		final long serverStop = parseLongOrDash(buffer, index, serverStopEnd);
+		index = serverStopEnd + 1;
+		final int clientStopEnd = nextField(buffer, index);
+		final long clientStop = parseLong(buffer, index, clientStopEnd);
+		index = clientStopEnd + 1;
+		final int statusEnd = nextField(buffer, index);
+		final int status = parseStatus(buffer, index, statusEnd);
+		index = statusEnd + 1;
+		final int contentLengthEnd = nextField(buffer, index);
+		// The LTM sends a dash for a missing Content-Length
+		final long contentLength = parseLongOrDash(buffer, index, contentLengthEnd);
+		index = contentLengthEnd + 1;
+
+		final int methodEnd = nextField(buffer, index);
+		final String method = buffer.toString(index, methodEnd - index, StandardCharsets.US_ASCII);
+		index = methodEnd + 1;
+		final int remoteAddressEnd = nextField(buffer, index);
+		final String remoteAddress = buffer.toString(index, remoteAddressEnd - index, StandardCharsets.US_ASCII);
+		index = remoteAddressEnd + 1;
+		final int hostEnd = nextField(buffer, index);
+		final String host = buffer.toString(index, hostEnd - index, StandardCharsets.UTF_8);
+		index = hostEnd + 1;
+		final int httpVersionEnd = nextField(buffer, index);
+		final String httpVersion = buffer.toString(index, httpVersionEnd - index, StandardCharsets.US_ASCII);
+		index = httpVersionEnd + 1;
+		final int uriEnd = nextField(buffer, index);
+		final String uri = buffer.toString(index, uriEnd - index, StandardCharsets.UTF_8);
+		index = uriEnd + 1;
+		final int refererEnd = nextField(buffer, index);
+		final String referer = buffer.toString(index, refererEnd - index, StandardCharsets.UTF_8);
+		index = refererEnd + 1;
+		final String userAgent = buffer.toString(index, buffer.writerIndex() - index, StandardCharsets.UTF_8);
+		buffer.readerIndex(buffer.writerIndex());
+
+		final String accessLog = accessLogFormatter.format(host, clientStart, method, uri, httpVersion, status,
+				contentLength, referer, userAgent, remoteAddress, new UUID(mostSignificantBits, leastSignificantBits),
+				clientStop - clientStart);
+		final ByteBuf message = allocator.buffer(accessLog.length() + 16);
+		ByteBufUtil.writeUtf8(message, accessLog);
+		out.add(new LogEvent(ltmIdentifier, addressKey, address, clientStart, mostSignificantBits, leastSignificantBits, message));
+		if (serverStart >= 0 && serverStop >= 0) {
+			out.add(new HttpEvent(ltmIdentifier, addressKey, address, mostSignificantBits, leastSignificantBits,
+					clientStart, serverStart, serverStop, clientStop, status, contentLength, method, remoteAddress, uri, userAgent));
 		}
-		return buffer.toString(start, length, StandardCharsets.UTF_8);
 	}
 
-	private void decodeLogEvent(ChannelHandlerContext context, ByteBuf buffer, List<Object> out) {
-		final String ltmIdentifier = nextString(buffer);
-		final String address = nextString(buffer);
-		final String timestamp = nextString(buffer);
-		final String requestId = nextString(buffer);
-		final String message = buffer.toString(StandardCharsets.UTF_8);
-		out.add(new LogEvent(
-				ltmIdentifier,
-				NorouterUtil.toSocketAddress(address),
-				Instant.ofEpochMilli(Long.valueOf(timestamp)),
-				UUID.fromString(requestId),
-				message
-		));
+	/**
+	 * @return the index of the space that terminates the field starting at {@code index}.
+	 */
+	private static int nextField(ByteBuf buffer, int index) {
+		final int end = buffer.indexOf(index, buffer.writerIndex(), (byte) ' ');
+		if (end < 0) {
+			throw new MalformedLineException("Missing field");
+		}
+		return end;
+	}
+
+	private static boolean fieldEquals(ByteBuf buffer, int start, int end, byte[] value) {
+		if (end - start != value.length) {
+			return false;
+		}
+		for (int i = 0; i < value.length; i++) {
+			if (buffer.getByte(start + i) != value[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private String ltmIdentifier(ByteBuf buffer, int start, int end) {
+		if (!fieldEquals(buffer, start, end, ltmIdentifierBytes)) {
+			ltmIdentifierBytes = new byte[end - start];
+			buffer.getBytes(start, ltmIdentifierBytes);
+			ltmIdentifier = new String(ltmIdentifierBytes, StandardCharsets.UTF_8);
+		}
+		return ltmIdentifier;
+	}
+
+	private static long parseLong(ByteBuf buffer, int start, int end) {
+		if (start == end || end - start > 18) {
+			throw new MalformedLineException("Invalid number");
+		}
+		long value = 0;
+		for (int i = start; i < end; i++) {
+			final int digit = buffer.getByte(i) - '0';
+			if (digit < 0 || digit > 9) {
+				throw new MalformedLineException("Invalid number");
+			}
+			value = value * 10 + digit;
+		}
+		return value;
+	}
+
+	/**
+	 * @return the number or -1 for a dash.
+	 */
+	private static long parseLongOrDash(ByteBuf buffer, int start, int end) {
+		return end - start == 1 && buffer.getByte(start) == '-' ? -1 : parseLong(buffer, start, end);
+	}
+
+	private static int parseStatus(ByteBuf buffer, int start, int end) {
+		if (end - start != 3) {
+			throw new MalformedLineException("Invalid status code");
+		}
+		return (int) parseLong(buffer, start, end);
+	}
+
+	/**
+	 * Request ids are either UUIDs or 32 hex digits without dashes.
+	 *
+	 * @return the index where the low 64 bits of the request id start.
+	 */
+	private static int requestIdSplit(int start, int end) {
+		switch (end - start) {
+			case 36:
+				return start + 18;
+			case 32:
+				return start + 16;
+			default:
+				throw new MalformedLineException("Invalid request id");
+		}
+	}
+
+	/**
+	 * Parses 16 hex digits, skipping the dashes of a UUID.
+	 */
+	private static long parseHex(ByteBuf buffer, int start, int end) {
+		long value = 0;
+		int digits = 0;
+		for (int i = start; i < end; i++) {
+			final byte b = buffer.getByte(i);
+			if (b == '-') {
+				continue;
+			}
+			final int digit = Character.digit(b, 16);
+			if (digit < 0) {
+				throw new MalformedLineException("Invalid hex digit");
+			}
+			value = value << 4 | digit;
+			digits++;
+		}
+		if (digits != 16) {
+			throw new MalformedLineException("Invalid request id");
+		}
+		return value;
+	}
+
+	/**
+	 * Parses an IPv4 address and port into a key.
+	 *
+	 * @return the address key or -1 if the address is not an IPv4 address and port.
+	 * @see LogEvent#getApplicationAddressKey()
+	 */
+	private static long parseAddress(ByteBuf buffer, int start, int end) {
+		long address = 0;
+		int octet = 0;
+		int digits = 0;
+		int octets = 0;
+		for (int i = start; i < end; i++) {
+			final byte b = buffer.getByte(i);
+			if (b >= '0' && b <= '9') {
+				octet = octet * 10 + b - '0';
+				if (++digits > 5) {
+					return -1;
+				}
+			} else if ((b == '.' || b == ':') && digits > 0 && octet <= 255 && octets < 4) {
+				address = address << 8 | octet;
+				octets++;
+				if (b == ':' && octets != 4 || b == '.' && octets == 4) {
+					return -1;
+				}
+				octet = 0;
+				digits = 0;
+			} else {
+				return -1;
+			}
+		}
+		if (octets != 4 || digits == 0 || octet > 0xffff) {
+			return -1;
+		}
+		return address << 16 | octet;
+	}
+
+	/**
+	 * Thrown to abandon a malformed line. Malformed lines are expected, so no stack trace is captured.
+	 */
+	private static class MalformedLineException extends RuntimeException {
+		MalformedLineException(String message) {
+			super(message, null, false, false);
+		}
 	}
 
 }
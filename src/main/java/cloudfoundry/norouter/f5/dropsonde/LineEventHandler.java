@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.f5.dropsonde;
+
+import cf.dropsonde.LogEmitter;
+import cf.dropsonde.MetronClient;
+import cloudfoundry.norouter.f5.dropsonde.AddressIndex.Application;
+import cloudfoundry.norouter.routingtable.RouteDetails;
+import cloudfoundry.norouter.routingtable.RouteRegistrar;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.socket.DatagramChannel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Emits decoded {@link LineEvent}s to Metron through a {@link LogEventDispatcher}. Shared by all the channels
+ * receiving logging events from the LTM.
+ *
+ * @author Mike Heath
+ */
+@ChannelHandler.Sharable
+class LineEventHandler extends ChannelInboundHandlerAdapter {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(LineEventHandler.class);
+
+	/**
+	 * Upper bound on the number of cached emitters so a misconfigured LTM sending random identifiers can't grow the
+	 * cache without limit.
+	 */
+	private static final int MAX_CACHED_EMITTERS = 256;
+
+	private final RouteRegistrar routeRegistrar;
+	private final AddressIndex addressIndex;
+	private final MetronClient metronClient;
+	private final LogEventDispatcher dispatcher;
+	private final HttpStartStopEmitter httpStartStopEmitter;
+	private final ConcurrentMap<String, LogEmitter> logEmitters = new ConcurrentHashMap<>();
+
+	LineEventHandler(RouteRegistrar routeRegistrar, AddressIndex addressIndex, MetronClient metronClient, LogEventDispatcher dispatcher, HttpStartStopEmitter httpStartStopEmitter) {
+		this.routeRegistrar = routeRegistrar;
+		this.addressIndex = addressIndex;
+		this.metronClient = metronClient;
+		this.dispatcher = dispatcher;
+		this.httpStartStopEmitter = httpStartStopEmitter;
+	}
+
+	@Override
+	public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+		// Only a broken connection is closed. Closing a connection over a bad line would make the LTM reconnect, and
+		// reconnect storms from every LTM are worse than the lost line.
+		if (cause instanceof IOException && !(ctx.channel() instanceof DatagramChannel)) {
+			LOGGER.warn("Closing connection from {}: {}", ctx.channel().remoteAddress(), cause.toString());
+			ctx.close();
+		} else {
+			LOGGER.warn("An error occurred processing logging events from the LTM.", cause);
+		}
+	}
+
+	@Override
+	public void channelRegistered(ChannelHandlerContext ctx) throws Exception {
+		if (ctx.channel().remoteAddress() != null) {
+			LOGGER.info("New connection from {}", ctx.channel().remoteAddress());
+		}
+		super.channelRegistered(ctx);
+	}
+
+	@Override
+	public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+		if (msg instanceof LogEvent) {
+			final LogEvent logEvent = (LogEvent) msg;
+			try {
+				final Application application = lookupApplication(logEvent);
+				if (application != null) {
+					final String appGuid = application.getGuidString();
+					final String message = logEvent.getMessage() + " app_id:" + appGuid;
+					dispatcher.dispatch(ctx.channel(), logEmitter(logEvent.getLtmIdentifier()), logEvent.getTimestamp(), appGuid, message);
+				}
+			} finally {
+				logEvent.release();
+			}
+		} else if (msg instanceof HttpEvent) {
+			final HttpEvent httpEvent = (HttpEvent) msg;
+			final Application application = lookupApplication(httpEvent);
+			if (application != null) {
+				dispatcher.dispatch(ctx.channel(), application.getGuidString(), () -> httpStartStopEmitter.emit(httpEvent, application));
+			}
+		} else {
+			super.channelRead(ctx, msg);
+		}
+	}
+
+	private LogEmitter logEmitter(String ltmIdentifier) {
+		final LogEmitter logEmitter = logEmitters.get(ltmIdentifier);
+		if (logEmitter != null) {
+			return logEmitter;
+		}
+		final LogEmitter newLogEmitter = metronClient.createLogEmitter("RTR", ltmIdentifier);
+		if (logEmitters.size() < MAX_CACHED_EMITTERS) {
+			final LogEmitter existing = logEmitters.putIfAbsent(ltmIdentifier, newLogEmitter);
+			return existing == null ? newLogEmitter : existing;
+		}
+		return newLogEmitter;
+	}
+
+	private Application lookupApplication(LineEvent lineEvent) {
+		final Application application = addressIndex.get(lineEvent.getApplicationAddressKey());
+		if (application != null) {
+			return application;
+		}
+		// Fall back to the routing table for addresses that aren't indexed, such as routes loaded before the index
+		// was listening for route events
+		final RouteDetails routeDetails = routeRegistrar.getRouteByAddress(lineEvent.getApplicationAddress());
+		if (routeDetails == null || routeDetails.getApplicationGuid() == null) {
+			return null;
+		}
+		final Application routeApplication = new Application(routeDetails.getApplicationGuid(), routeDetails.getApplicationIndex());
+		addressIndex.put(lineEvent.getApplicationAddressKey(), routeApplication);
+		return routeApplication;
+	}
+
+}
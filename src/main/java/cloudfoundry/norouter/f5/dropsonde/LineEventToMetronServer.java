@@ -17,79 +17,233 @@ package cloudfoundry.norouter.f5.dropsonde;
 
 import cf.dropsonde.MetronClient;
 import cloudfoundry.norouter.config.F5Properties;
-import cloudfoundry.norouter.routingtable.RouteDetails;
 import cloudfoundry.norouter.routingtable.RouteRegistrar;
+import io.netty.bootstrap.Bootstrap;
 import io.netty.bootstrap.ServerBootstrap;
-import io.netty.channel.ChannelHandlerContext;
-import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.FixedRecvByteBufAllocator;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollDatagramChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.socket.nio.NioDatagramChannel;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
 import io.netty.handler.codec.LineBasedFrameDecoder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
 import org.springframework.stereotype.Component;
 
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
 /**
+ * Receives logging events from the LTM over TCP or UDP and emits them to Metron.
+ *
+ * <p>On Linux the native epoll transport may be used instead of NIO. With epoll, several listeners are bound to the
+ * logging port using {@code SO_REUSEPORT} so the kernel spreads the LTM's connections, or datagrams, across event
+ * loops rather than a few busy connections pinning a single event loop.
+ *
  * @author Mike Heath
  */
 // TODO Add support for limiting incoming message to certain CIDR ranges
-// TODO Support HttpStart, HttpStop, HttpStartStop events
 @Component
-public class LineEventToMetronServer {
+@ManagedResource(objectName = "norouter:type=LoggingServer")
+public class LineEventToMetronServer implements DisposableBean {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(LineEventToMetronServer.class);
 
+	private static final int MAX_LINE_LENGTH = 64 * 1024;
+
+	/**
+	 * Datagrams arrive in bursts so the socket needs a large receive buffer to avoid dropping them.
+	 */
+	private static final int DATAGRAM_RECEIVE_BUFFER_SIZE = 4 * 1024 * 1024;
+
+	/**
+	 * The event loops for the epoll transport or {@code null} if the shared NIO event loops are used.
+	 */
+	private final EventLoopGroup epollGroup;
+
+	private final LogEventDispatcher dispatcher;
+
+	private final SkippedLines skippedLines = new SkippedLines(10, TimeUnit.SECONDS);
+
+	private final UnknownCommandHandler unknownCommandHandler;
+
+	private final HttpStartStopEmitter httpStartStopEmitter;
+
+	/**
+	 * Whether the LTM sends binary records rather than text lines.
+	 */
+	private final boolean binary;
+
 	@Autowired
 	public LineEventToMetronServer(
 			@Qualifier("boss") EventLoopGroup boss,
 			@Qualifier("worker") EventLoopGroup worker,
 			RouteRegistrar routeRegistrar,
+			AddressIndex addressIndex,
 			MetronClient metronClient,
-			F5Properties properties) {
-		final ServerBootstrap bootstrap = new ServerBootstrap();
-		bootstrap
+			HttpStartStopEmitter httpStartStopEmitter,
+			F5Properties properties,
+			Optional<UnknownCommandHandler> unknownCommandHandler) {
+		this.unknownCommandHandler = unknownCommandHandler.orElse((command, line, out) -> false);
+		this.binary = properties.isLoggingBinary();
+		final boolean udp = properties.isLoggingUdp();
+		dispatcher = new LogEventDispatcher(
+				properties.getLoggingEmitters(),
+				properties.getLoggingMaxQueuedEvents(),
+				properties.getLoggingMaxQueuedEventsPerConnection(),
+				properties.isLoggingShedOldest());
+		final LineEventHandler handler = new LineEventHandler(routeRegistrar, addressIndex, metronClient, dispatcher, httpStartStopEmitter);
+		this.httpStartStopEmitter = httpStartStopEmitter;
+		final ByteBufAllocator allocator = properties.isLoggingPooledBuffers() ? PooledByteBufAllocator.DEFAULT : UnpooledByteBufAllocator.DEFAULT;
+		final int port = properties.getLoggingPort();
+
+		final boolean useEpoll = properties.isLoggingNativeTransport() && Epoll.isAvailable();
+		if (properties.isLoggingNativeTransport() && !useEpoll) {
+			LOGGER.info("Native epoll transport is not available, using NIO: {}", Epoll.unavailabilityCause().toString());
+		}
+		final int listeners;
+		if (useEpoll) {
+			epollGroup = new EpollEventLoopGroup(properties.getLoggingThreads());
+			listeners = Math.max(1, properties.getLoggingListeners());
+			if (udp) {
+				final Bootstrap bootstrap = datagramBootstrap(epollGroup, EpollDatagramChannel.class, allocator, handler)
+						.option(EpollChannelOption.SO_REUSEPORT, true);
+				for (int i = 0; i < listeners; i++) {
+					bootstrap.bind(port).syncUninterruptibly();
+				}
+			} else {
+				final ServerBootstrap bootstrap = serverBootstrap(epollGroup, epollGroup, EpollServerSocketChannel.class, allocator, handler)
+						.option(EpollChannelOption.SO_REUSEPORT, true);
+				for (int i = 0; i < listeners; i++) {
+					bootstrap.bind(port).syncUninterruptibly();
+				}
+			}
+		} else {
+			epollGroup = null;
+			listeners = 1;
+			if (udp) {
+				datagramBootstrap(worker, NioDatagramChannel.class, allocator, handler).bind(port).syncUninterruptibly();
+			} else {
+				serverBootstrap(boss, worker, NioServerSocketChannel.class, allocator, handler).bind(port).syncUninterruptibly();
+			}
+		}
+		LOGGER.info("Listening for {} logging events from the LTM on {} port {} using {} {} listener(s)",
+				binary ? "binary" : "text", udp ? "UDP" : "TCP", port, listeners, useEpoll ? "epoll" : "NIO");
+	}
+
+	private Bootstrap datagramBootstrap(EventLoopGroup group, Class<? extends Channel> channelClass, ByteBufAllocator allocator, LineEventHandler handler) {
+		return new Bootstrap()
+				.group(group)
+				.channel(channelClass)
+				.option(ChannelOption.ALLOCATOR, allocator)
+				.option(ChannelOption.SO_RCVBUF, DATAGRAM_RECEIVE_BUFFER_SIZE)
+				.option(ChannelOption.RCVBUF_ALLOCATOR, new FixedRecvByteBufAllocator(MAX_LINE_LENGTH))
+				.handler(new ChannelInitializer<Channel>() {
+					@Override
+					protected void initChannel(Channel ch) throws Exception {
+						if (binary) {
+							ch.pipeline().addLast(new DatagramLineDecoder(false));
+							ch.pipeline().addLast(new BinaryLineEventDecoder(skippedLines));
+						} else {
+							ch.pipeline().addLast(new DatagramLineDecoder());
+							ch.pipeline().addLast(new LineEventDecoder(skippedLines, unknownCommandHandler));
+						}
+						ch.pipeline().addLast(handler);
+					}
+				});
+	}
+
+	private ServerBootstrap serverBootstrap(EventLoopGroup boss, EventLoopGroup worker, Class<? extends ServerChannel> channelClass, ByteBufAllocator allocator, LineEventHandler handler) {
+		return new ServerBootstrap()
 				.group(boss, worker)
-				.channel(NioServerSocketChannel.class)
-				.childHandler(new ChannelInitializer<SocketChannel>() {
+				.channel(channelClass)
+				.option(ChannelOption.ALLOCATOR, allocator)
+				.childOption(ChannelOption.ALLOCATOR, allocator)
+				.childHandler(new ChannelInitializer<Channel>() {
 					@Override
-					protected void initChannel(SocketChannel ch) throws Exception {
-						ch.pipeline().addLast(new LineBasedFrameDecoder(64 * 1024));
-						ch.pipeline().addLast(new LineEventDecoder());
-						ch.pipeline().addLast(new ChannelInboundHandlerAdapter() {
-							@Override
-							public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
-								LOGGER.warn("An error occurred processing logging events from the LTM.", cause);
-								ctx.close();
-							}
-
-							@Override
-							public void channelRegistered(ChannelHandlerContext ctx) throws Exception {
-								LOGGER.info("New connection from {}", ctx.channel().remoteAddress());
-							}
-
-							@Override
-							public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
-								if (msg instanceof LogEvent) {
-									final LogEvent logEvent = (LogEvent) msg;
-									final RouteDetails routeDetails = routeRegistrar.getRouteByAddress(logEvent.getApplicationAddress());
-									if (routeDetails != null && routeDetails.getApplicationGuid() != null) {
-										final String appGuid = routeDetails.getApplicationGuid().toString();
-										final String message = logEvent.getMessage() + " app_id:" + appGuid;
-										metronClient.createLogEmitter("RTR", logEvent.getLtmIdentifier()).emit(logEvent.getTimestamp(), appGuid, message);
-									}
-								} else {
-									super.channelRead(ctx, msg);
-								}
-							}
-						});
+					protected void initChannel(Channel ch) throws Exception {
+						if (binary) {
+							// Keep the length field, the decoder checks it against the record
+							ch.pipeline().addLast(new LengthFieldBasedFrameDecoder(MAX_LINE_LENGTH, 0, BinaryLineEventDecoder.LENGTH_FIELD_LENGTH));
+							ch.pipeline().addLast(new BinaryLineEventDecoder(skippedLines));
+						} else {
+							ch.pipeline().addLast(new LineBasedFrameDecoder(MAX_LINE_LENGTH));
+							ch.pipeline().addLast(new LineEventDecoder(skippedLines, unknownCommandHandler));
+						}
+						ch.pipeline().addLast(handler);
 					}
 				});
-		bootstrap.bind(properties.getLoggingPort()).syncUninterruptibly();
-		LOGGER.info("Listening for logging events from the LTM on port {}", properties.getLoggingPort());
+	}
+
+	@ManagedAttribute(description = "Number of log messages waiting to be emitted to Metron")
+	public int getQueuedEvents() {
+		return dispatcher.getQueued();
+	}
+
+	@ManagedAttribute(description = "Number of log messages emitted to Metron")
+	public long getEmittedEvents() {
+		return dispatcher.getEmitted();
+	}
+
+	@ManagedAttribute(description = "Number of log messages shed because too many were waiting to be emitted")
+	public long getShedEvents() {
+		return dispatcher.getShed();
+	}
+
+	@ManagedAttribute(description = "Number of log messages shed for each application guid")
+	public Map<String, Long> getShedEventsByApplication() {
+		return dispatcher.getShedByApplication();
+	}
+
+	@ManagedAttribute(description = "Number of HttpStartStop envelopes sent to Metron")
+	public long getHttpStartStopEnvelopes() {
+		return httpStartStopEmitter.getSent();
+	}
+
+	@ManagedAttribute(description = "Number of HttpStartStop envelopes that could not be sent to Metron")
+	public long getFailedHttpStartStopEnvelopes() {
+		return httpStartStopEmitter.getFailed();
+	}
+
+	@ManagedAttribute(description = "Number of malformed lines received from the LTM that were skipped")
+	public long getMalformedLines() {
+		return skippedLines.getMalformed();
+	}
+
+	@ManagedAttribute(description = "Number of lines received from the LTM that were skipped because of an unknown command")
+	public long getUnknownCommands() {
+		return skippedLines.getUnknownCommands();
+	}
+
+	@ManagedAttribute(description = "Number of times reading from the LTM was suspended until queued log messages were emitted")
+	public long getReadPauses() {
+		return dispatcher.getReadPauses();
+	}
+
+	@Override
+	public void destroy() throws Exception {
+		if (epollGroup != null) {
+			epollGroup.shutdownGracefully();
+		}
+		dispatcher.close();
 	}
 
 }
@@ -15,47 +15,80 @@
  */
 package cloudfoundry.norouter.f5.dropsonde;
 
+import cloudfoundry.norouter.NorouterUtil;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.DefaultByteBufHolder;
+
 import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.util.UUID;
 
 /**
+ * A log line from the LTM. The message is held as a slice of the buffer it was read from and must be released once
+ * the event has been handled.
+ *
  * @author Mike Heath
  */
-class LogEvent implements LineEvent {
+class LogEvent extends DefaultByteBufHolder implements LineEvent {
 	private final String ltmIdentifier;
-	private final InetSocketAddress applicationAddress;
-	private final Instant timestamp;
-	private final UUID requestId;
-	private final String message;
+	private final long applicationAddressKey;
+	private final String applicationAddressString;
+	private final long timestamp;
+	private final long requestIdMostSignificantBits;
+	private final long requestIdLeastSignificantBits;
+
+	private InetSocketAddress applicationAddress;
 
-	public LogEvent(String ltmIdentifier, InetSocketAddress applicationAddress, Instant timestamp, UUID requestId, String message) {
+	public LogEvent(String ltmIdentifier, long applicationAddressKey, String applicationAddress, long timestamp,
+			long requestIdMostSignificantBits, long requestIdLeastSignificantBits, ByteBuf message) {
+		super(message);
 		this.ltmIdentifier = ltmIdentifier;
-		this.applicationAddress = applicationAddress;
+		this.applicationAddressKey = applicationAddressKey;
+		this.applicationAddressString = applicationAddress;
 		this.timestamp = timestamp;
-		this.requestId = requestId;
-		this.message = message;
+		this.requestIdMostSignificantBits = requestIdMostSignificantBits;
+		this.requestIdLeastSignificantBits = requestIdLeastSignificantBits;
 	}
 
+	@Override
 	public String getLtmIdentifier() {
 		return ltmIdentifier;
 	}
 
+	@Override
+	public long getApplicationAddressKey() {
+		return applicationAddressKey;
+	}
+
+	@Override
 	public InetSocketAddress getApplicationAddress() {
+		if (applicationAddress == null) {
+			applicationAddress = NorouterUtil.toSocketAddress(applicationAddressKey < 0 ?
+					applicationAddressString : addressKeyToString(applicationAddressKey));
+		}
 		return applicationAddress;
 	}
 
-	public Instant getTimestamp() {
+	public long getTimestampMillis() {
 		return timestamp;
 	}
 
+	public Instant getTimestamp() {
+		return Instant.ofEpochMilli(timestamp);
+	}
+
 	public String getMessage() {
-		return message;
+		return content().toString(StandardCharsets.UTF_8);
 	}
 
 	public UUID getRequestId() {
-		return requestId;
+		return new UUID(requestIdMostSignificantBits, requestIdLeastSignificantBits);
 	}
 
+	static String addressKeyToString(long key) {
+		return ((key >>> 40) & 0xff) + "." + ((key >>> 32) & 0xff) + "." + ((key >>> 24) & 0xff) + "." + ((key >>> 16) & 0xff)
+				+ ":" + (key & 0xffff);
+	}
 
 }
@@ -0,0 +1,247 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.f5.dropsonde;
+
+import cf.dropsonde.LogEmitter;
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hands log messages from the event loops to dedicated threads that emit them to Metron, so a slow Metron can't
+ * stall the event loops reading from the LTM. Each channel is assigned to one emitter thread so its messages are
+ * emitted in order while different channels are emitted in parallel.
+ *
+ * <p>The number of messages in flight is bounded. When a channel has too many messages waiting, reading from the
+ * channel is suspended until the backlog drains to half the limit, pushing back on the LTM rather than dropping its
+ * connection. When an emitter's share of the global limit is reached, either the oldest message waiting on that
+ * emitter or the new message is shed.
+ *
+ * @author Mike Heath
+ */
+class LogEventDispatcher implements AutoCloseable {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(LogEventDispatcher.class);
+
+	private static final AttributeKey<AtomicInteger> BACKLOG = AttributeKey.valueOf(LogEventDispatcher.class.getName() + ".backlog");
+
+	/**
+	 * Upper bound on the number of applications shed messages are counted for so a long incident can't grow the
+	 * counters without limit. Messages for further applications are only counted in the total.
+	 */
+	private static final int MAX_TRACKED_APPLICATIONS = 1024;
+
+	private final Emitter[] emitters;
+	private final int channelHighWatermark;
+	private final int channelLowWatermark;
+	private final boolean shedOldest;
+
+	private final LongAdder emitted = new LongAdder();
+	private final LongAdder shed = new LongAdder();
+	private final LongAdder readPauses = new LongAdder();
+	private final ConcurrentMap<String, LongAdder> shedByApplication = new ConcurrentHashMap<>();
+
+	private volatile boolean running = true;
+
+	/**
+	 * @param emitters               the number of threads emitting to Metron
+	 * @param maxQueued              the maximum number of messages waiting to be emitted across all channels, split
+	 *                               evenly between the emitters
+	 * @param maxQueuedPerConnection the number of messages waiting to be emitted from a single channel at which
+	 *                               reading from the channel is suspended
+	 * @param shedOldest             {@code true} to shed the oldest waiting message when {@code maxQueued} is
+	 *                               reached, {@code false} to shed the new message
+	 */
+	LogEventDispatcher(int emitters, int maxQueued, int maxQueuedPerConnection, boolean shedOldest) {
+		if (emitters < 1) {
+			throw new IllegalArgumentException("There must be at least 1 emitter");
+		}
+		if (maxQueued < 1 || maxQueuedPerConnection < 1) {
+			throw new IllegalArgumentException("Queue limits must be at least 1");
+		}
+		this.channelHighWatermark = maxQueuedPerConnection;
+		this.channelLowWatermark = maxQueuedPerConnection / 2;
+		this.shedOldest = shedOldest;
+		this.emitters = new Emitter[emitters];
+		for (int i = 0; i < emitters; i++) {
+			this.emitters[i] = new Emitter("metron-log-emitter-" + i, Math.max(1, maxQueued / emitters));
+		}
+	}
+
+	/**
+	 * Queues a message to be emitted. Must be called from the channel's event loop.
+	 */
+	public void dispatch(Channel channel, LogEmitter logEmitter, Instant timestamp, String applicationGuid, String message) {
+		dispatch(channel, applicationGuid, () -> logEmitter.emit(timestamp, applicationGuid, message));
+	}
+
+	/**
+	 * Queues an emission to Metron, such as sending an envelope, for an application. Must be called from the
+	 * channel's event loop.
+	 */
+	public void dispatch(Channel channel, String applicationGuid, Runnable emission) {
+		final AtomicInteger backlog = backlogOf(channel);
+		final PendingLog log = new PendingLog(channel, backlog, applicationGuid, emission);
+		if (backlog.incrementAndGet() >= channelHighWatermark && channel.config().isAutoRead()) {
+			channel.config().setAutoRead(false);
+			readPauses.increment();
+			// The emitter thread may have drained the backlog before reading was suspended
+			if (backlog.get() <= channelLowWatermark) {
+				channel.config().setAutoRead(true);
+			}
+		}
+		final BlockingQueue<PendingLog> queue = emitterOf(channel).queue;
+		while (!queue.offer(log)) {
+			if (!shedOldest) {
+				shed(log);
+				return;
+			}
+			final PendingLog oldest = queue.poll();
+			if (oldest != null) {
+				shed(oldest);
+			}
+		}
+	}
+
+	public int getQueued() {
+		int queued = 0;
+		for (Emitter emitter : emitters) {
+			queued += emitter.queue.size();
+		}
+		return queued;
+	}
+
+	public long getEmitted() {
+		return emitted.sum();
+	}
+
+	public long getShed() {
+		return shed.sum();
+	}
+
+	public long getReadPauses() {
+		return readPauses.sum();
+	}
+
+	/**
+	 * @return the number of messages shed for each application guid.
+	 */
+	public Map<String, Long> getShedByApplication() {
+		final Map<String, Long> counts = new HashMap<>();
+		shedByApplication.forEach((applicationGuid, count) -> counts.put(applicationGuid, count.sum()));
+		return counts;
+	}
+
+	@Override
+	public void close() {
+		running = false;
+		for (Emitter emitter : emitters) {
+			emitter.thread.interrupt();
+		}
+	}
+
+	private Emitter emitterOf(Channel channel) {
+		return emitters[(channel.hashCode() & Integer.MAX_VALUE) % emitters.length];
+	}
+
+	private void shed(PendingLog log) {
+		shed.increment();
+		LongAdder count = shedByApplication.get(log.applicationGuid);
+		if (count == null && shedByApplication.size() < MAX_TRACKED_APPLICATIONS) {
+			count = shedByApplication.computeIfAbsent(log.applicationGuid, key -> new LongAdder());
+		}
+		if (count != null) {
+			count.increment();
+		}
+		completed(log);
+	}
+
+	private void completed(PendingLog log) {
+		if (log.backlog.decrementAndGet() <= channelLowWatermark && !log.channel.config().isAutoRead()) {
+			log.channel.config().setAutoRead(true);
+		}
+	}
+
+	private static AtomicInteger backlogOf(Channel channel) {
+		final AtomicInteger backlog = channel.attr(BACKLOG).get();
+		if (backlog != null) {
+			return backlog;
+		}
+		final AtomicInteger newBacklog = new AtomicInteger();
+		final AtomicInteger existing = channel.attr(BACKLOG).setIfAbsent(newBacklog);
+		return existing == null ? newBacklog : existing;
+	}
+
+	private class Emitter {
+		private final BlockingQueue<PendingLog> queue;
+		private final Thread thread;
+
+		Emitter(String name, int maxQueued) {
+			this.queue = new ArrayBlockingQueue<>(maxQueued);
+			this.thread = new Thread(this::run, name);
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		private void run() {
+			while (running) {
+				final PendingLog log;
+				try {
+					log = queue.poll(1, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					continue;
+				}
+				if (log == null) {
+					continue;
+				}
+				try {
+					log.emission.run();
+					emitted.increment();
+				} catch (RuntimeException e) {
+					LOGGER.warn("Error emitting to Metron", e);
+				} finally {
+					completed(log);
+				}
+			}
+		}
+	}
+
+	private static class PendingLog {
+		private final Channel channel;
+		private final AtomicInteger backlog;
+		private final String applicationGuid;
+		private final Runnable emission;
+
+		PendingLog(Channel channel, AtomicInteger backlog, String applicationGuid, Runnable emission) {
+			this.channel = channel;
+			this.backlog = backlog;
+			this.applicationGuid = applicationGuid;
+			this.emission = emission;
+		}
+	}
+}
@@ -70,7 +70,8 @@ public class LoggingPoolPopulator {
 				LOGGER.info("Creating pool {} with initial member {}", loggingPoolName, poolMember);
 				final Pool pool = Pool.create()
 						.name(loggingPoolName)
-						.monitor(Monitors.TCP_HALF_OPEN)
+						// A UDP listener can't be probed without sending it junk so only check the host is up
+						.monitor(f5Properties.isLoggingUdp() ? Monitors.GATEWAY_ICMP : Monitors.TCP_HALF_OPEN)
 						.addMember(poolMember)
 						.description("Pool used for norouter HSL to forward Dropsonde events to Loggregator.")
 						.build();
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.f5.dropsonde;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Writes protocol buffer fields. Just enough of the wire format to encode dropsonde envelopes without pulling in the
+ * protobuf runtime and generated classes.
+ *
+ * @author Mike Heath
+ */
+class ProtobufWriter {
+
+	private static final int WIRE_TYPE_VARINT = 0;
+	private static final int WIRE_TYPE_LENGTH_DELIMITED = 2;
+
+	private byte[] bytes = new byte[256];
+	private int length;
+
+	public ProtobufWriter varint(int field, long value) {
+		tag(field, WIRE_TYPE_VARINT);
+		rawVarint(value);
+		return this;
+	}
+
+	public ProtobufWriter string(int field, String value) {
+		return bytes(field, value.getBytes(StandardCharsets.UTF_8));
+	}
+
+	public ProtobufWriter message(int field, ProtobufWriter message) {
+		tag(field, WIRE_TYPE_LENGTH_DELIMITED);
+		rawVarint(message.length);
+		rawBytes(message.bytes, message.length);
+		return this;
+	}
+
+	public byte[] toByteArray() {
+		return Arrays.copyOf(bytes, length);
+	}
+
+	private ProtobufWriter bytes(int field, byte[] value) {
+		tag(field, WIRE_TYPE_LENGTH_DELIMITED);
+		rawVarint(value.length);
+		rawBytes(value, value.length);
+		return this;
+	}
+
+	private void tag(int field, int wireType) {
+		rawVarint(field << 3 | wireType);
+	}
+
+	private void rawVarint(long value) {
+		ensureCapacity(10);
+		while ((value & ~0x7fL) != 0) {
+			bytes[length++] = (byte) ((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		bytes[length++] = (byte) value;
+	}
+
+	private void rawBytes(byte[] value, int count) {
+		ensureCapacity(count);
+		System.arraycopy(value, 0, bytes, length, count);
+		length += count;
+	}
+
+	private void ensureCapacity(int count) {
+		if (length + count > bytes.length) {
+			bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + count));
+		}
+	}
+
+}
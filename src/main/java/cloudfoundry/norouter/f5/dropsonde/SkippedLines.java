@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.f5.dropsonde;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts HSL lines that {@link LineEventDecoder} skipped and logs a sample of them for diagnostics. At most one line
+ * is logged per sample interval so a misbehaving LTM can't flood the log.
+ *
+ * @author Mike Heath
+ */
+public class SkippedLines {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(SkippedLines.class);
+
+	/**
+	 * Only the start of a skipped line is logged.
+	 */
+	private static final int MAX_SAMPLE_LENGTH = 256;
+
+	private final long sampleIntervalNanos;
+	private final AtomicLong nextSample = new AtomicLong(System.nanoTime());
+	private final LongAdder malformed = new LongAdder();
+	private final LongAdder unknownCommands = new LongAdder();
+
+	public SkippedLines(long sampleInterval, TimeUnit unit) {
+		this.sampleIntervalNanos = unit.toNanos(sampleInterval);
+	}
+
+	public void malformed(ByteBuf line, Exception cause) {
+		malformed.increment();
+		if (sample()) {
+			LOGGER.warn("Skipped malformed line ({}, {} skipped so far): {}", cause.getMessage(), malformed.sum(), render(line));
+		}
+	}
+
+	/**
+	 * Counts a malformed binary record. The sample is logged as hex.
+	 */
+	public void malformedRecord(ByteBuf record, Exception cause) {
+		malformed.increment();
+		if (sample()) {
+			final int length = Math.min(record.readableBytes(), MAX_SAMPLE_LENGTH / 2);
+			LOGGER.warn("Skipped malformed record ({}, {} skipped so far): {}{}", cause.getMessage(), malformed.sum(),
+					ByteBufUtil.hexDump(record, record.readerIndex(), length), length < record.readableBytes() ? "..." : "");
+		}
+	}
+
+	public void unknownCommand(ByteBuf line) {
+		unknownCommands.increment();
+		if (sample()) {
+			LOGGER.warn("Skipped line with unknown command ({} skipped so far): {}", unknownCommands.sum(), render(line));
+		}
+	}
+
+	public long getMalformed() {
+		return malformed.sum();
+	}
+
+	public long getUnknownCommands() {
+		return unknownCommands.sum();
+	}
+
+	private boolean sample() {
+		final long now = System.nanoTime();
+		final long next = nextSample.get();
+		return now - next >= 0 && nextSample.compareAndSet(next, now + sampleIntervalNanos);
+	}
+
+	private static String render(ByteBuf line) {
+		final int length = Math.min(line.readableBytes(), MAX_SAMPLE_LENGTH);
+		final String sample = line.toString(line.readerIndex(), length, StandardCharsets.UTF_8);
+		return length < line.readableBytes() ? sample + "..." : sample;
+	}
+
+}
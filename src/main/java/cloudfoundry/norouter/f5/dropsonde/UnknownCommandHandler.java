@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.f5.dropsonde;
+
+import io.netty.buffer.ByteBuf;
+
+import java.util.List;
+
+/**
+ * Handles HSL lines with a command {@link LineEventDecoder} doesn't know about. Provide a bean implementing this
+ * interface to handle additional commands sent from custom iRules.
+ *
+ * @author Mike Heath
+ */
+@FunctionalInterface
+public interface UnknownCommandHandler {
+
+	/**
+	 * @param command the first field of the line
+	 * @param line    the whole line. The buffer is released after this method returns; retain it or a slice of it to
+	 *                keep it
+	 * @param out     the list to add decoded {@link LineEvent}s to
+	 * @return {@code true} if the line was handled, {@code false} if it should be counted as an unknown command.
+	 */
+	boolean handle(String command, ByteBuf line, List<Object> out);
+
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package cloudfoundry.norouter.f5;
+
+import cloudfoundry.norouter.f5.client.IControlClient;
+import cloudfoundry.norouter.f5.client.IControlException;
+import cloudfoundry.norouter.f5.client.Pool;
+import cloudfoundry.norouter.f5.client.ResourceNotFoundException;
+import cloudfoundry.norouter.f5.client.Transaction;
+import cloudfoundry.norouter.routingtable.RouteDetails;
+import cloudfoundry.norouter.routingtable.RouteRegistrar;
+import cloudfoundry.norouter.routingtable.RouteUnregisterEvent;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * @author Mike Heath
+ */
+public class AgentTest {
+
+	private static final String PREFIX = "zz_cf-pool_";
+	private static final String HOST = "app.example.com";
+	private static final String POOL = PREFIX + HOST;
+	private static final InetSocketAddress ADDRESS = InetSocketAddress.createUnresolved("10.1.2.3", 61001);
+
+	private IControlClient client;
+	private StripedExecutor executor;
+	private Agent agent;
+
+	@BeforeMethod
+	public void setup() {
+		client = mock(IControlClient.class);
+		executor = new StripedExecutor("test", 1, 100);
+		agent = newAgent(0);
+	}
+
+	private void useTransactions() throws Exception {
+		agent.close();
+		executor = new StripedExecutor("test", 1, 100);
+		agent = newAgent(1);
+	}
+
+	private Agent newAgent(int transactionBatchSize) {
+		return new Agent(PREFIX, client, mock(RouteRegistrar.class), executor, new StalePoolSweeper(1, 100),
+				Duration.ZERO, Duration.ofHours(1), Duration.ofMinutes(5), transactionBatchSize);
+	}
+
+	@AfterMethod
+	public void cleanup() throws Exception {
+		agent.close();
+	}
+
+	@Test
+	public void registeredRouteCreatesPoolAndMember() throws Exception {
+		when(client.createPoolIfAbsent(any(Pool.class))).thenReturn(true);
+		when(client.addPoolMemberIfAbsent(eq(POOL), eq(ADDRESS), anyString())).thenReturn(true);
+
+		agent.registerRoute(route(0));
+		awaitReconciliations();
+
+		verify(client).createPoolIfAbsent(any(Pool.class));
+		verify(client).addPoolMemberIfAbsent(eq(POOL), eq(ADDRESS), anyString());
+		assertEquals(agent.getReconciledPools(), 1);
+		assertEquals(agent.getShadowPools(), 1);
+
+		// The same route again is a heartbeat that doesn't touch the LTM
+		agent.registerRoute(route(0));
+		awaitReconciliations();
+		assertEquals(agent.getHeartbeats(), 1);
+		assertEquals(agent.getReconciledPools(), 1);
+		verify(client).addPoolMemberIfAbsent(eq(POOL), eq(ADDRESS), anyString());
+	}
+
+	@Test
+	public void reconciledPoolIsARouteChange() throws Exception {
+		when(client.createPoolIfAbsent(any(Pool.class))).thenReturn(true);
+		when(client.addPoolMemberIfAbsent(eq(POOL), eq(ADDRESS), anyString())).thenReturn(true);
+		assertEquals(agent.takeRouteChanges(), Collections.emptySet());
+
+		agent.registerRoute(route(0));
+		awaitReconciliations();
+
+		assertEquals(agent.takeRouteChanges(), Collections.singleton(POOL));
+		assertEquals(agent.takeRouteChanges(), Collections.emptySet());
+		assertTrue(agent.isRouted(POOL));
+		assertEquals(agent.getRoutedHosts(), Collections.singletonMap(HOST, POOL));
+		assertEquals(agent.routedHost(PREFIX + "App.Example.com"), HOST);
+	}
+
+	@Test
+	public void failedReconciliationRecordsNoFingerprint() throws Exception {
+		when(client.createPoolIfAbsent(any(Pool.class)))
+				.thenThrow(new IControlException("Unexpected response: 500 Internal Server Error"))
+				.thenReturn(true);
+		when(client.getPool(POOL)).thenReturn(Pool.create().name(POOL).build());
+		when(client.addPoolMemberIfAbsent(eq(POOL), eq(ADDRESS), anyString())).thenReturn(true);
+
+		agent.registerRoute(route(0));
+		awaitReconciliations();
+		verify(client, never()).addPoolMemberIfAbsent(eq(POOL), eq(ADDRESS), anyString());
+
+		// The route was never applied so registering it again is not a heartbeat and the pool is checked on the LTM
+		agent.registerRoute(route(0));
+		awaitReconciliations();
+		assertEquals(agent.getHeartbeats(), 0);
+		verify(client).addPoolMemberIfAbsent(eq(POOL), eq(ADDRESS), anyString());
+	}
+
+	@Test
+	public void poolIsRereadWhenTheShadowIsOutOfDate() throws Exception {
+		// Another norouter created the pool and member after this instance last read the LTM
+		when(client.createPoolIfAbsent(any(Pool.class))).thenReturn(false);
+		when(client.getPool(POOL)).thenReturn(Pool.create().name(POOL).addMember(ADDRESS).build());
+
+		agent.registerRoute(route(0));
+		awaitReconciliations();
+
+		verify(client).getPool(POOL);
+		// The reread member has no description so it is updated rather than added again
+		verify(client, never()).addPoolMemberIfAbsent(eq(POOL), eq(ADDRESS), anyString());
+		verify(client).updatePoolMemberDescription(eq(POOL), eq(ADDRESS), anyString());
+	}
+
+	@Test
+	public void memberMissingFromTheLtmIsAddedBack() throws Exception {
+		when(client.createPoolIfAbsent(any(Pool.class))).thenReturn(false);
+		// The member is gone by the time its description is updated
+		when(client.getPool(POOL)).thenReturn(Pool.create().name(POOL).addMember(ADDRESS).build());
+		when(client.updatePoolMemberDescription(eq(POOL), eq(ADDRESS), anyString())).thenThrow(new ResourceNotFoundException("Not Found"));
+		final CountDownLatch added = new CountDownLatch(1);
+		when(client.addPoolMemberIfAbsent(eq(POOL), eq(ADDRESS), anyString())).thenAnswer(invocation -> {
+			added.countDown();
+			return true;
+		});
+
+		agent.registerRoute(route(0));
+
+		// The pool is reconciled again from the shadow, which no longer has the member
+		assertTrue(added.await(10, TimeUnit.SECONDS));
+		verify(client, times(1)).getPool(POOL);
+	}
+
+	@Test
+	public void unregisteredRouteRemovesMemberAndReleasedPool() throws Exception {
+		when(client.createPoolIfAbsent(any(Pool.class))).thenReturn(true);
+		when(client.addPoolMemberIfAbsent(eq(POOL), eq(ADDRESS), anyString())).thenReturn(true);
+		agent.registerRoute(route(0));
+		awaitReconciliations();
+
+		when(client.getPool(POOL)).thenReturn(Pool.create().name(POOL).description(new PoolDescription(Instant.now(), Instant.now()).toJsonish()).build());
+		agent.unregisterRoute(unregister(true));
+		awaitReconciliations();
+
+		verify(client).deletePoolMemberIfPresent(POOL, ADDRESS);
+		verify(client).deletePoolIfPresent(POOL);
+		assertEquals(agent.getDesiredPools(), 0);
+		assertEquals(agent.getShadowPools(), 0);
+	}
+
+	@Test
+	public void eventsForTheSamePoolAreCoalesced() throws Exception {
+		when(client.createPoolIfAbsent(any(Pool.class))).thenReturn(true);
+		when(client.addPoolMemberIfAbsent(eq(POOL), eq(ADDRESS), anyString())).thenReturn(true);
+		// Hold the lane so both events arrive before the pool is reconciled
+		final CountDownLatch release = new CountDownLatch(1);
+		executor.execute(0, () -> {
+			try {
+				release.await(10, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		agent.registerRoute(route(0));
+		agent.registerRoute(route(1));
+		release.countDown();
+		awaitReconciliations();
+
+		assertEquals(agent.getReceivedEvents(), 2);
+		assertEquals(agent.getCoalescedEvents(), 1);
+		assertEquals(agent.getReconciledPools(), 1);
+		verify(client, times(1)).addPoolMemberIfAbsent(eq(POOL), eq(ADDRESS), anyString());
+	}
+
+	@Test
+	public void changesAreAppliedInATransaction() throws Exception {
+		final Transaction transaction = mock(Transaction.class);
+		when(client.beginTransaction()).thenReturn(transaction);
+		useTransactions();
+
+		agent.registerRoute(route(0));
+		awaitReconciliations();
+
+		verify(transaction).createPool(any(Pool.class));
+		verify(transaction).addPoolMember(eq(POOL), eq(ADDRESS), anyString());
+		verify(transaction).commit();
+		verify(transaction).close();
+		verify(client, never()).createPoolIfAbsent(any(Pool.class));
+		verify(client, never()).addPoolMemberIfAbsent(eq(POOL), eq(ADDRESS), anyString());
+		assertEquals(agent.getCommittedTransactions(), 1);
+		assertEquals(agent.getShadowPools(), 1);
+	}
+
+	@Test
+	public void failedTransactionIsAppliedIndividually() throws Exception {
+		final Transaction transaction = mock(Transaction.class);
+		when(client.beginTransaction()).thenReturn(transaction);
+		doThrow(new IControlException("Transaction 1 failed with state FAILED")).when(transaction).commit();
+		when(client.createPoolIfAbsent(any(Pool.class))).thenReturn(true);
+		when(client.addPoolMemberIfAbsent(eq(POOL), eq(ADDRESS), anyString())).thenReturn(true);
+		useTransactions();
+
+		agent.registerRoute(route(0));
+		awaitReconciliations();
+
+		// The failed transaction is discarded and its changes are applied one at a time
+		verify(transaction).close();
+		verify(client).createPoolIfAbsent(any(Pool.class));
+		verify(client).addPoolMemberIfAbsent(eq(POOL), eq(ADDRESS), anyString());
+		assertEquals(agent.getCommittedTransactions(), 0);
+		assertEquals(agent.getFailedTransactions(), 1);
+		assertEquals(agent.getShadowPools(), 1);
+	}
+
+	private void awaitReconciliations() throws InterruptedException {
+		final CountDownLatch done = new CountDownLatch(1);
+		executor.execute(0, done::countDown);
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+	}
+
+	private static RouteDetails route(int applicationIndex) {
+		final RouteDetails route = mock(RouteDetails.class);
+		when(route.getHost()).thenReturn(HOST);
+		when(route.getAddress()).thenReturn(ADDRESS);
+		when(route.getApplicationGuid()).thenReturn(new UUID(0, 1));
+		when(route.getApplicationIndex()).thenReturn(applicationIndex);
+		when(route.getPrivateInstanceId()).thenReturn("instance");
+		return route;
+	}
+
+	private static RouteUnregisterEvent unregister(boolean last) {
+		final RouteUnregisterEvent event = mock(RouteUnregisterEvent.class);
+		when(event.getHost()).thenReturn(HOST);
+		when(event.getAddress()).thenReturn(ADDRESS);
+		when(event.isLast()).thenReturn(last);
+		return event;
+	}
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package cloudfoundry.norouter.f5;
+
+import cloudfoundry.norouter.f5.DesiredState.DesiredPool;
+import org.testng.annotations.Test;
+
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.UUID;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * @author Mike Heath
+ */
+public class DesiredStateTest {
+
+	private static final String POOL = "zz_cf-pool_app.example.com";
+	private static final InetSocketAddress MEMBER = InetSocketAddress.createUnresolved("10.1.2.3", 61001);
+
+	@Test
+	public void registerOnlyChangesStateForNewRoutes() {
+		final DesiredState state = new DesiredState();
+		final UUID applicationGuid = UUID.randomUUID();
+		assertTrue(state.register(POOL, MEMBER, description(applicationGuid, 0)));
+		assertFalse(state.register(POOL, MEMBER, description(applicationGuid, 0)));
+		assertTrue(state.register(POOL, MEMBER, description(applicationGuid, 1)));
+		assertTrue(state.containsMember(POOL, MEMBER.toString()));
+		assertEquals(state.getPool(POOL).get().getMembers().get(MEMBER.toString()).getDescription().getApplicationIndex(), Integer.valueOf(1));
+	}
+
+	@Test
+	public void unregisterRemembersRemovedMembers() {
+		final DesiredState state = new DesiredState();
+		state.register(POOL, MEMBER, description(UUID.randomUUID(), 0));
+		assertTrue(state.unregister(POOL, MEMBER, false));
+		final DesiredPool pool = state.getPool(POOL).get();
+		assertTrue(pool.getMembers().isEmpty());
+		assertEquals(pool.getRemoved(), Collections.singleton(MEMBER.toString()));
+		assertFalse(pool.isReleased());
+		assertFalse(state.unregister(POOL, MEMBER, false));
+
+		// Registering the member again means it should no longer be deleted
+		state.register(POOL, MEMBER, description(UUID.randomUUID(), 0));
+		assertTrue(state.getPool(POOL).get().getRemoved().isEmpty());
+	}
+
+	@Test
+	public void unregisterOfUnknownPoolIsIgnored() {
+		final DesiredState state = new DesiredState();
+		assertFalse(state.unregister(POOL, MEMBER, true));
+		assertEquals(state.size(), 0);
+	}
+
+	@Test
+	public void lastUnregisterReleasesPool() {
+		final DesiredState state = new DesiredState();
+		final PoolMemberDescription description = description(UUID.randomUUID(), 0);
+		state.register(POOL, MEMBER, description);
+		assertTrue(state.unregister(POOL, MEMBER, true));
+		assertTrue(state.getPool(POOL).get().isReleased());
+
+		// Registering the same route un-releases the pool
+		assertTrue(state.register(POOL, MEMBER, description));
+		assertFalse(state.getPool(POOL).get().isReleased());
+		state.removeIfReleased(POOL);
+		assertTrue(state.getPool(POOL).isPresent());
+
+		state.unregister(POOL, MEMBER, true);
+		state.removeIfReleased(POOL);
+		assertFalse(state.getPool(POOL).isPresent());
+	}
+
+	@Test
+	public void forgetRemovedOnlyForgetsWhatWasApplied() {
+		final DesiredState state = new DesiredState();
+		state.register(POOL, MEMBER, description(UUID.randomUUID(), 0));
+		state.unregister(POOL, MEMBER, false);
+		final DesiredPool applied = state.getPool(POOL).get();
+
+		final InetSocketAddress other = InetSocketAddress.createUnresolved("10.1.2.4", 61001);
+		state.register(POOL, other, description(UUID.randomUUID(), 0));
+		state.unregister(POOL, other, false);
+		// The pool changed after it was applied so the removed members are kept for the next reconciliation
+		state.forgetRemoved(POOL, applied);
+		assertEquals(state.getPool(POOL).get().getRemoved().size(), 2);
+
+		final DesiredPool current = state.getPool(POOL).get();
+		state.forgetRemoved(POOL, current);
+		assertTrue(state.getPool(POOL).get().getRemoved().isEmpty());
+		assertSame(state.getPool(POOL).get().getMembers(), current.getMembers());
+	}
+
+	static PoolMemberDescription description(UUID applicationGuid, int applicationIndex) {
+		final PoolMemberDescription description = new PoolMemberDescription();
+		description.setApplicationGuid(applicationGuid);
+		description.setApplicationIndex(applicationIndex);
+		description.setPrivateInstanceId("instance-" + applicationIndex);
+		return description;
+	}
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.f5;
+
+import cloudfoundry.norouter.config.F5Properties;
+import cloudfoundry.norouter.config.F5RouterVipProperties;
+import cloudfoundry.norouter.f5.client.IControlClient;
+import cloudfoundry.norouter.f5.client.IRule;
+import cloudfoundry.norouter.f5.client.ResourceNotFoundException;
+import cloudfoundry.norouter.f5.client.VirtualServer;
+import cloudfoundry.norouter.f5.dropsonde.LoggingPoolPopulator;
+import org.mockito.ArgumentCaptor;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.startsWith;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * @author Mike Heath
+ */
+public class F5InitializerTest {
+
+	private static final String VIRTUAL_SERVER = "zz_cf_router";
+	private static final String[] IRULES = {"zz_cf-irule_session_affinity", "zz_cf-irule_router", "zz_cf-irule_logging"};
+
+	private IControlClient client;
+	private F5Initializer initializer;
+
+	@BeforeMethod
+	public void setup() {
+		client = mock(IControlClient.class);
+		initializer = initializer(client);
+	}
+
+	@Test
+	public void missingIRulesAndVirtualServerAreCreated() {
+		for (String iRule : IRULES) {
+			when(client.getIRule(iRule)).thenThrow(new ResourceNotFoundException(iRule));
+		}
+		when(client.getVirtualServer(VIRTUAL_SERVER)).thenThrow(new ResourceNotFoundException(VIRTUAL_SERVER));
+
+		initializer.onApplicationEvent(mock(ContextRefreshedEvent.class));
+
+		for (String iRule : IRULES) {
+			verify(client).createIRule(eq(iRule), anyString());
+		}
+		final ArgumentCaptor<VirtualServer> virtualServer = ArgumentCaptor.forClass(VirtualServer.class);
+		verify(client).createVirtualServer(virtualServer.capture());
+		assertEquals(virtualServer.getValue().getRules(), Arrays.asList(IRULES));
+		assertTrue(virtualServer.getValue().getDescription().endsWith("]"), virtualServer.getValue().getDescription());
+		verify(client, never()).updateIRule(anyString(), anyString());
+		verify(client, never()).updateVirtualServer(any(VirtualServer.class));
+	}
+
+	@Test
+	public void unchangedIRulesAndVirtualServerAreNotWritten() {
+		final Map<String, String> bodies = firstInstall();
+		final VirtualServer installed = installedVirtualServer();
+
+		final IControlClient restartedClient = mock(IControlClient.class);
+		bodies.forEach((name, body) -> when(restartedClient.getIRule(name)).thenReturn(new IRule(name, body)));
+		when(restartedClient.getVirtualServer(VIRTUAL_SERVER)).thenReturn(installed);
+
+		initializer(restartedClient).onApplicationEvent(mock(ContextRefreshedEvent.class));
+
+		verify(restartedClient, never()).createIRule(anyString(), anyString());
+		verify(restartedClient, never()).updateIRule(anyString(), anyString());
+		verify(restartedClient, never()).createVirtualServer(any(VirtualServer.class));
+		verify(restartedClient, never()).updateVirtualServer(any(VirtualServer.class));
+	}
+
+	@Test
+	public void changedIRulesAndVirtualServerAreUpdated() {
+		for (String iRule : IRULES) {
+			when(client.getIRule(iRule)).thenReturn(new IRule(iRule, "when HTTP_REQUEST {}\n# norouter-content-hash 0123456789abcdef0123456789abcdef\n"));
+		}
+		when(client.getVirtualServer(VIRTUAL_SERVER)).thenReturn(VirtualServer.create()
+				.name(VIRTUAL_SERVER)
+				.description("Cloud Foundry Norouter Virtual Server [norouter-content-hash 0123456789abcdef0123456789abcdef]")
+				.build());
+
+		initializer.onApplicationEvent(mock(ContextRefreshedEvent.class));
+
+		for (String iRule : IRULES) {
+			verify(client).updateIRule(eq(iRule), startsWith("#\n# This iRule is updated programmatically"));
+		}
+		verify(client).updateVirtualServer(any(VirtualServer.class));
+		verify(client, never()).createIRule(anyString(), anyString());
+		verify(client, never()).createVirtualServer(any(VirtualServer.class));
+	}
+
+	/**
+	 * @return the body of each iRule as saved on a fresh LTM.
+	 */
+	private Map<String, String> firstInstall() {
+		for (String iRule : IRULES) {
+			when(client.getIRule(iRule)).thenThrow(new ResourceNotFoundException(iRule));
+		}
+		when(client.getVirtualServer(VIRTUAL_SERVER)).thenThrow(new ResourceNotFoundException(VIRTUAL_SERVER));
+		initializer.onApplicationEvent(mock(ContextRefreshedEvent.class));
+
+		final ArgumentCaptor<String> names = ArgumentCaptor.forClass(String.class);
+		final ArgumentCaptor<String> bodies = ArgumentCaptor.forClass(String.class);
+		verify(client, times(IRULES.length)).createIRule(names.capture(), bodies.capture());
+		final Map<String, String> installed = new HashMap<>();
+		final List<String> capturedNames = names.getAllValues();
+		for (int i = 0; i < capturedNames.size(); i++) {
+			installed.put(capturedNames.get(i), bodies.getAllValues().get(i));
+		}
+		return installed;
+	}
+
+	private VirtualServer installedVirtualServer() {
+		final ArgumentCaptor<VirtualServer> virtualServer = ArgumentCaptor.forClass(VirtualServer.class);
+		verify(client).createVirtualServer(virtualServer.capture());
+		return virtualServer.getValue();
+	}
+
+	private static F5Initializer initializer(IControlClient client) {
+		final F5Initializer initializer = new F5Initializer();
+		initializer.properties = new F5Properties();
+		initializer.vipProperties = new F5RouterVipProperties();
+		initializer.vipProperties.setDestination("10.0.0.1:80");
+		initializer.client = client;
+		initializer.loggingPoolPopulator = mock(LoggingPoolPopulator.class);
+		return initializer;
+	}
+}
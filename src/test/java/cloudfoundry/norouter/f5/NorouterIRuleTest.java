@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.f5;
+
+import org.stringtemplate.v4.ST;
+import org.testng.annotations.Test;
+
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Checks the consolidated iRule rendered from {@code norouter.stg}.
+ *
+ * @author Mike Heath
+ */
+public class NorouterIRuleTest {
+
+	private static final Pattern UUID_LAYOUT = Pattern.compile("[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}");
+
+	@Test
+	public void missingRouteIsStillLogged() throws Exception {
+		final String iRule = render(false);
+		assertFalse(iRule.contains("event disable"), iRule);
+
+		final String request = handler(iRule, "HTTP_REQUEST");
+		final int notFound = request.indexOf("HTTP::respond 404");
+		assertTrue(notFound > 0, request);
+		// The fields the access log needs are captured before the 404 response leaves the handler
+		assertTrue(request.indexOf("set cf_requestid") < notFound, request);
+		assertTrue(request.indexOf("set cf_logging_uri") < notFound, request);
+		assertTrue(request.indexOf("set cf_route_missing 1", notFound) < request.indexOf("return", notFound), request);
+
+		final String release = handler(iRule, "HTTP_RESPONSE_RELEASE");
+		assertTrue(release.contains("[info exists cf_route_missing]"), release);
+		assertTrue(release.contains("HSL::send"), release);
+
+		final String lbFailed = handler(iRule, "LB_FAILED");
+		assertTrue(lbFailed.contains("HTTP::respond 502"), lbFailed);
+		assertTrue(lbFailed.contains("return"), lbFailed);
+	}
+
+	@Test
+	public void sequentialRequestIdsAreUuids() throws Exception {
+		final String iRule = render(true);
+		final Matcher prefix = Pattern.compile("proc requestIdPrefix \\{\\} \\{\\s+return \\[format \"([^\"]+)\"").matcher(iRule);
+		assertTrue(prefix.find(), iRule);
+		final Matcher requestId = Pattern.compile("set cf_requestid \\[format \"([^\"]+)\" \\$cf_requestid_prefix").matcher(iRule);
+		assertTrue(requestId.find(), iRule);
+
+		// TCL's format conversions match Java's for these, so the smallest and largest ids can be built here
+		final String smallest = String.format(requestId.group(1), String.format(prefix.group(1), 0, 0, 0, 0, 0), 1);
+		final String largest = String.format(requestId.group(1),
+				String.format(prefix.group(1), 0xffffffffL, 0xffff, 0xfff, 0xfff, 0xffff), 0xffffffffL);
+		for (String id : new String[] {smallest, largest}) {
+			// LineEventDecoder accepts 36 character UUIDs and the binary record packs the id with the dashes removed
+			assertEquals(id.length(), 36, id);
+			assertTrue(UUID_LAYOUT.matcher(id).matches(), id);
+			assertEquals(UUID.fromString(id).toString(), id);
+			assertTrue(id.replace("-", "").matches("[0-9a-f]{32}"), id);
+		}
+		assertEquals(UUID.fromString(smallest).version(), 4);
+	}
+
+	private static String render(boolean sequentialRequestIds) throws Exception {
+		final ST template = new F5Initializer().iRuleTemplates().getInstanceOf("norouter")
+				.add("session_affinity", true)
+				.add("logging", true)
+				.add("binary_logging", false)
+				.add("logging_pool", "zz_cf-logging")
+				.add("hsl_proto", "TCP")
+				.add("ltm_id", "ltm1")
+				.add("sequential_request_ids", sequentialRequestIds)
+				.add("pool_name_prefix", "zz_cf-pool_");
+		return template.render();
+	}
+
+	/**
+	 * @return the body of the iRule's handler for the event.
+	 */
+	private static String handler(String iRule, String event) {
+		final int start = iRule.indexOf("when " + event + " {\n");
+		assertTrue(start >= 0, "No " + event + " handler in\n" + iRule);
+		return iRule.substring(start, iRule.indexOf("\n}\n", start));
+	}
+
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package cloudfoundry.norouter.f5;
+
+import cloudfoundry.norouter.f5.PoolShadow.ShadowPool;
+import org.testng.annotations.Test;
+
+import java.net.InetSocketAddress;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.UUID;
+
+import static cloudfoundry.norouter.f5.DesiredStateTest.description;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * @author Mike Heath
+ */
+public class PoolDiffTest {
+
+	private static final String POOL = "zz_cf-pool_app.example.com";
+
+	private static final InetSocketAddress CURRENT = InetSocketAddress.createUnresolved("10.1.2.3", 61001);
+	private static final InetSocketAddress CHANGED = InetSocketAddress.createUnresolved("10.1.2.3", 61002);
+	private static final InetSocketAddress REMOVED = InetSocketAddress.createUnresolved("10.1.2.3", 61003);
+	private static final InetSocketAddress OTHER_INSTANCE = InetSocketAddress.createUnresolved("10.1.2.3", 61004);
+	private static final InetSocketAddress ADDED = InetSocketAddress.createUnresolved("10.1.2.3", 61005);
+
+	@Test
+	public void missingPoolIsCreatedWithItsMembers() {
+		final DesiredState state = new DesiredState();
+		state.register(POOL, ADDED, description(UUID.randomUUID(), 0));
+
+		final PoolDiff diff = PoolDiff.between(POOL, state.getPool(POOL).get(), Optional.empty());
+		assertTrue(diff.getCreatePool().isPresent());
+		assertEquals(diff.getMembersToAdd().keySet(), Collections.singleton(ADDED.toString()));
+		assertFalse(diff.isDeletePool());
+		assertEquals(diff.size(), 2);
+	}
+
+	@Test
+	public void onlyTheDifferenceIsApplied() {
+		final UUID applicationGuid = UUID.randomUUID();
+		final DesiredState state = new DesiredState();
+		state.register(POOL, CURRENT, description(applicationGuid, 0));
+		state.register(POOL, CHANGED, description(applicationGuid, 1));
+		state.register(POOL, REMOVED, description(applicationGuid, 2));
+		state.unregister(POOL, REMOVED, false);
+		state.register(POOL, ADDED, description(applicationGuid, 3));
+
+		final ShadowPool actual = new PoolShadow().created(POOL, poolDescription());
+		actual.putMember(CURRENT.toString(), onLtm(description(applicationGuid, 0)));
+		actual.putMember(CHANGED.toString(), onLtm(description(applicationGuid, 5)));
+		actual.putMember(REMOVED.toString(), onLtm(description(applicationGuid, 2)));
+		actual.putMember(OTHER_INSTANCE.toString(), onLtm(description(applicationGuid, 4)));
+
+		final PoolDiff diff = PoolDiff.between(POOL, state.getPool(POOL).get(), Optional.of(actual));
+		assertFalse(diff.getCreatePool().isPresent());
+		assertEquals(diff.getMembersToAdd().keySet(), Collections.singleton(ADDED.toString()));
+		assertEquals(diff.getMembersToUpdate().keySet(), Collections.singleton(CHANGED.toString()));
+		// The member another norouter instance added is left alone
+		assertEquals(diff.getMembersToDelete().keySet(), Collections.singleton(REMOVED.toString()));
+		assertFalse(diff.isDeletePool());
+		assertTrue(diff.getPoolDescription().isPresent());
+		assertEquals(diff.getPoolDescription().get().getCreated(), actual.getDescription().get().getCreated());
+		assertEquals(diff.size(), 4);
+	}
+
+	@Test
+	public void poolInLineWithDesiredStateIsEmpty() {
+		final PoolMemberDescription description = description(UUID.randomUUID(), 0);
+		final DesiredState state = new DesiredState();
+		state.register(POOL, CURRENT, description);
+
+		final ShadowPool actual = new PoolShadow().created(POOL, poolDescription());
+		actual.putMember(CURRENT.toString(), onLtm(description));
+
+		final PoolDiff diff = PoolDiff.between(POOL, state.getPool(POOL).get(), Optional.of(actual));
+		assertTrue(diff.isEmpty());
+		assertFalse(diff.getPoolDescription().isPresent());
+	}
+
+	@Test
+	public void releasedPoolIsDeleted() {
+		final DesiredState state = new DesiredState();
+		state.register(POOL, REMOVED, description(UUID.randomUUID(), 0));
+		state.unregister(POOL, REMOVED, true);
+
+		final ShadowPool actual = new PoolShadow().created(POOL, poolDescription());
+		actual.putMember(REMOVED.toString(), onLtm(description(UUID.randomUUID(), 0)));
+
+		final PoolDiff diff = PoolDiff.between(POOL, state.getPool(POOL).get(), Optional.of(actual));
+		assertEquals(diff.getMembersToDelete().keySet(), Collections.singleton(REMOVED.toString()));
+		assertTrue(diff.isDeletePool());
+		assertFalse(diff.getPoolDescription().isPresent());
+	}
+
+	private static PoolDescription poolDescription() {
+		final PoolDescription description = new PoolDescription();
+		description.setCreated(Instant.now().minus(1, ChronoUnit.DAYS));
+		description.setModified(Instant.now().minus(1, ChronoUnit.DAYS));
+		return description;
+	}
+
+	/**
+	 * Members on the LTM carry their own created and modified times which are ignored when comparing.
+	 */
+	private static PoolMemberDescription onLtm(PoolMemberDescription description) {
+		description.setCreated(Instant.now().minus(1, ChronoUnit.HOURS));
+		description.setModified(Instant.now().minus(1, ChronoUnit.HOURS));
+		return description;
+	}
+}
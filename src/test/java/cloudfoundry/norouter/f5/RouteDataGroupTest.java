@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.f5;
+
+import cloudfoundry.norouter.f5.client.IControlClient;
+import cloudfoundry.norouter.f5.client.IControlException;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+
+/**
+ * @author Mike Heath
+ */
+public class RouteDataGroupTest {
+
+	private static final String NAME = "zz_cf-routes";
+	private static final String PREFIX = "zz_cf-pool_";
+
+	private IControlClient client;
+	private Agent agent;
+	private RouteDataGroup dataGroup;
+
+	@BeforeMethod
+	public void setup() {
+		client = mock(IControlClient.class);
+		agent = mock(Agent.class);
+		when(agent.takeRouteChanges()).thenReturn(Collections.emptySet());
+		when(agent.routedHost(anyString())).thenAnswer(invocation ->
+				((String) invocation.getArguments()[0]).substring(PREFIX.length()));
+		when(agent.getRoutedHosts()).thenReturn(Collections.singletonMap("a.example.com", PREFIX + "a.example.com"));
+		dataGroup = new RouteDataGroup(NAME, client, agent, Duration.ofSeconds(1));
+	}
+
+	@Test
+	public void firstFlushWritesAllRoutedHosts() {
+		dataGroup.flush();
+		verify(client).updateDataGroupRecords(NAME, Collections.singletonMap("a.example.com", PREFIX + "a.example.com"));
+		assertEquals(dataGroup.getHosts(), 1);
+		assertEquals(dataGroup.getUpdates(), 1);
+	}
+
+	@Test
+	public void flushWithoutChangesDoesNotScanThePools() {
+		dataGroup.flush();
+		dataGroup.flush();
+		verify(agent, times(1)).getRoutedHosts();
+		verify(client, times(1)).updateDataGroupRecords(anyString(), anyMapOf(String.class, String.class));
+	}
+
+	@Test
+	public void onlyChangedHostsAreChecked() {
+		dataGroup.flush();
+		when(agent.takeRouteChanges())
+				.thenReturn(Collections.singleton(PREFIX + "b.example.com"))
+				.thenReturn(Collections.singleton(PREFIX + "a.example.com"))
+				.thenReturn(Collections.emptySet());
+		when(agent.isRouted(PREFIX + "b.example.com")).thenReturn(true);
+
+		dataGroup.flush();
+		final Map<String, String> hosts = new HashMap<>();
+		hosts.put("a.example.com", PREFIX + "a.example.com");
+		hosts.put("b.example.com", PREFIX + "b.example.com");
+		verify(client).updateDataGroupRecords(NAME, hosts);
+
+		dataGroup.flush();
+		verify(client).updateDataGroupRecords(NAME, Collections.singletonMap("b.example.com", PREFIX + "b.example.com"));
+		verify(agent, times(1)).getRoutedHosts();
+		assertEquals(dataGroup.getUpdates(), 3);
+	}
+
+	@Test
+	public void reconciledPoolWithoutChangesIsNotWritten() {
+		dataGroup.flush();
+		when(agent.takeRouteChanges()).thenReturn(Collections.singleton(PREFIX + "a.example.com"));
+		when(agent.isRouted(PREFIX + "a.example.com")).thenReturn(true);
+
+		dataGroup.flush();
+		assertEquals(dataGroup.getUpdates(), 1);
+	}
+
+	@Test
+	public void changesAreKeptWhenTheFlushFails() {
+		dataGroup.flush();
+		when(agent.takeRouteChanges())
+				.thenReturn(Collections.singleton(PREFIX + "a.example.com"))
+				.thenReturn(Collections.emptySet());
+		when(client.updateDataGroupRecords(NAME, Collections.emptyMap()))
+				.thenThrow(new IControlException("Unexpected response: 500 Internal Server Error"))
+				.thenReturn(null);
+		try {
+			dataGroup.flush();
+		} catch (IControlException e) {
+			// Expected
+		}
+		assertEquals(dataGroup.getHosts(), 1);
+
+		dataGroup.flush();
+		verify(client, times(2)).updateDataGroupRecords(NAME, Collections.emptyMap());
+		assertEquals(dataGroup.getHosts(), 0);
+	}
+
+	@Test
+	public void refreshedShadowIsRescanned() {
+		dataGroup.flush();
+		when(agent.takeShadowRefreshed()).thenReturn(true).thenReturn(false);
+		when(agent.getRoutedHosts()).thenReturn(Collections.emptyMap());
+
+		dataGroup.flush();
+		verify(agent, times(2)).getRoutedHosts();
+		verify(client).updateDataGroupRecords(NAME, Collections.emptyMap());
+
+		dataGroup.flush();
+		verify(agent, times(2)).getRoutedHosts();
+	}
+
+}
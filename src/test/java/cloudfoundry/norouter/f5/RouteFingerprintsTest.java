@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package cloudfoundry.norouter.f5;
+
+import cloudfoundry.norouter.routingtable.RouteDetails;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * @author Mike Heath
+ */
+public class RouteFingerprintsTest {
+
+	private static final String POOL = "zz_cf-pool_app.example.com";
+	private static final UUID GUID = new UUID(0, 1);
+
+	private final AtomicLong now = new AtomicLong();
+	private RouteFingerprints fingerprints;
+
+	@BeforeMethod
+	public void setup() {
+		now.set(0);
+		fingerprints = new RouteFingerprints(Duration.ofNanos(1000), now::get);
+	}
+
+	@Test
+	public void routeAppliedWithTheSameDetailsIsCurrent() {
+		final RouteDetails route = route(1, GUID, 0, "instance");
+		assertFalse(fingerprints.isCurrent(POOL, route));
+
+		fingerprints.applied(POOL, member(1), description(GUID, 0, "instance"));
+		assertTrue(fingerprints.isCurrent(POOL, route));
+		assertFalse(fingerprints.isCurrent("zz_cf-pool_other.example.com", route));
+		assertFalse(fingerprints.isCurrent(POOL, route(2, GUID, 0, "instance")));
+	}
+
+	@Test
+	public void anyChangedDetailIsNotCurrent() {
+		fingerprints.applied(POOL, member(1), description(GUID, 0, "instance"));
+		assertFalse(fingerprints.isCurrent(POOL, route(1, new UUID(0, 2), 0, "instance")));
+		assertFalse(fingerprints.isCurrent(POOL, route(1, GUID, 1, "instance")));
+		assertFalse(fingerprints.isCurrent(POOL, route(1, GUID, 0, "other-instance")));
+		assertFalse(fingerprints.isCurrent(POOL, route(1, GUID, 0, null)));
+	}
+
+	@Test
+	public void fingerprintsExpireWithinTheJitter() {
+		// Expiry is brought forward by less than a tenth of the TTL
+		for (int i = 1; i <= 100; i++) {
+			fingerprints.applied(POOL, member(i), description(GUID, 0, "instance"));
+		}
+		now.set(900);
+		for (int i = 1; i <= 100; i++) {
+			assertTrue(fingerprints.isCurrent(POOL, route(i, GUID, 0, "instance")), "Member " + i);
+		}
+		now.set(1000);
+		for (int i = 1; i <= 100; i++) {
+			assertFalse(fingerprints.isCurrent(POOL, route(i, GUID, 0, "instance")), "Member " + i);
+		}
+	}
+
+	@Test
+	public void removedFingerprintIsNotCurrent() {
+		fingerprints.applied(POOL, member(1), description(GUID, 0, "instance"));
+		assertEquals(fingerprints.size(), 1);
+		fingerprints.remove(POOL, member(1));
+		assertEquals(fingerprints.size(), 0);
+		assertFalse(fingerprints.isCurrent(POOL, route(1, GUID, 0, "instance")));
+	}
+
+	private static InetSocketAddress address(int port) {
+		return InetSocketAddress.createUnresolved("10.1.2.3", 61000 + port);
+	}
+
+	private static String member(int port) {
+		return address(port).toString();
+	}
+
+	private static PoolMemberDescription description(UUID guid, int index, String privateInstanceId) {
+		final PoolMemberDescription description = new PoolMemberDescription();
+		description.setApplicationGuid(guid);
+		description.setApplicationIndex(index);
+		description.setPrivateInstanceId(privateInstanceId);
+		return description;
+	}
+
+	private static RouteDetails route(int port, UUID guid, int index, String privateInstanceId) {
+		final RouteDetails route = mock(RouteDetails.class);
+		when(route.getAddress()).thenReturn(address(port));
+		when(route.getApplicationGuid()).thenReturn(guid);
+		when(route.getApplicationIndex()).thenReturn(index);
+		when(route.getPrivateInstanceId()).thenReturn(privateInstanceId);
+		return route;
+	}
+}
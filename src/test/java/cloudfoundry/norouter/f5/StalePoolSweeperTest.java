@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package cloudfoundry.norouter.f5;
+
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * @author Mike Heath
+ */
+public class StalePoolSweeperTest {
+
+	@Test
+	public void poolsAreDeletedAfterConsecutiveSweeps() {
+		final StalePoolSweeper sweeper = new StalePoolSweeper(2, 10);
+		assertEquals(sweeper.sweep(Arrays.asList("a", "b")), Collections.emptyList());
+		assertEquals(sweeper.size(), 2);
+
+		// b was used between the sweeps so it starts over
+		assertEquals(sweeper.sweep(Collections.singletonList("a")), Collections.singletonList("a"));
+		assertEquals(sweeper.size(), 1);
+		assertEquals(sweeper.sweep(Collections.singletonList("b")), Collections.emptyList());
+	}
+
+	@Test
+	public void poolsWithAScheduledDeleteAreSkipped() {
+		final StalePoolSweeper sweeper = new StalePoolSweeper(1, 10);
+		assertEquals(sweeper.sweep(Arrays.asList("a")), Collections.singletonList("a"));
+		assertEquals(sweeper.sweep(Arrays.asList("a", "b")), Collections.singletonList("b"));
+
+		sweeper.finished("a");
+		assertEquals(sweeper.sweep(Arrays.asList("a", "b")), Collections.singletonList("a"));
+	}
+
+	@Test
+	public void deletesArePacedAcrossSweeps() {
+		final StalePoolSweeper sweeper = new StalePoolSweeper(1, 10);
+		final long interval = TimeUnit.MILLISECONDS.toNanos(100);
+		final long started = System.nanoTime();
+		for (int i = 0; i < 10; i++) {
+			final long delay = sweeper.nextDeleteDelayNanos();
+			final long elapsed = System.nanoTime() - started;
+			assertTrue(delay >= i * interval - elapsed && delay <= i * interval + interval / 2, "Delay " + delay + " for delete " + i);
+		}
+	}
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package cloudfoundry.norouter.f5;
+
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * @author Mike Heath
+ */
+public class StripedExecutorTest {
+
+	@Test
+	public void tasksWithTheSameKeyRunInOrder() throws Exception {
+		try (StripedExecutor executor = new StripedExecutor("test", 4, 1000)) {
+			final List<Integer> ran = Collections.synchronizedList(new ArrayList<>());
+			final CountDownLatch done = new CountDownLatch(500);
+			for (int i = 0; i < 500; i++) {
+				final int task = i;
+				executor.execute("pool", () -> {
+					ran.add(task);
+					done.countDown();
+				});
+			}
+			assertTrue(done.await(10, TimeUnit.SECONDS));
+			assertEquals(ran, IntStream.range(0, 500).boxed().collect(Collectors.toList()));
+		}
+	}
+
+	@Test
+	public void lanesRunInParallel() throws Exception {
+		try (StripedExecutor executor = new StripedExecutor("test", 2, 10)) {
+			final CountDownLatch bothRunning = new CountDownLatch(2);
+			final CountDownLatch release = new CountDownLatch(1);
+			for (int lane = 0; lane < 2; lane++) {
+				executor.execute(lane, () -> {
+					bothRunning.countDown();
+					await(release);
+				});
+			}
+			// Only completes if a blocked task on one lane doesn't hold up the other lane
+			assertTrue(bothRunning.await(10, TimeUnit.SECONDS));
+			release.countDown();
+		}
+	}
+
+	@Test
+	public void fullLaneBlocksTheSubmitter() throws Exception {
+		try (StripedExecutor executor = new StripedExecutor("test", 1, 1)) {
+			final CountDownLatch release = new CountDownLatch(1);
+			executor.execute(0, () -> await(release));
+			// Wait for the lane thread to take the first task so the second one fills the queue
+			while (executor.getQueueDepth() > 0) {
+				Thread.sleep(1);
+			}
+			executor.execute(0, () -> {});
+			assertEquals(executor.getQueueDepth(), 1);
+
+			final CountDownLatch submitted = new CountDownLatch(1);
+			final Thread submitter = new Thread(() -> {
+				executor.execute(0, () -> {});
+				submitted.countDown();
+			});
+			submitter.start();
+			assertFalse(submitted.await(200, TimeUnit.MILLISECONDS));
+
+			release.countDown();
+			assertTrue(submitted.await(10, TimeUnit.SECONDS));
+		}
+	}
+
+	@Test
+	public void tryExecuteDoesNotBlockOnAFullLane() throws Exception {
+		try (StripedExecutor executor = new StripedExecutor("test", 1, 1)) {
+			final CountDownLatch release = new CountDownLatch(1);
+			assertTrue(executor.tryExecute(0, () -> await(release)));
+			while (executor.getQueueDepth() > 0) {
+				Thread.sleep(1);
+			}
+			final CountDownLatch done = new CountDownLatch(1);
+			assertTrue(executor.tryExecute(0, done::countDown));
+			assertFalse(executor.tryExecute(0, () -> {}));
+
+			release.countDown();
+			assertTrue(done.await(10, TimeUnit.SECONDS));
+		}
+	}
+
+	@Test
+	public void metrics() throws Exception {
+		try (StripedExecutor executor = new StripedExecutor("test", 2, 10)) {
+			final CountDownLatch release = new CountDownLatch(1);
+			final CountDownLatch done = new CountDownLatch(3);
+			executor.execute(0, () -> {
+				await(release);
+				done.countDown();
+			});
+			executor.execute(0, done::countDown);
+			executor.execute(1, done::countDown);
+			while (executor.getLaneCompletedTasks()[1] == 0) {
+				Thread.sleep(1);
+			}
+			assertEquals(executor.getLaneQueueDepths()[0], 1);
+			assertEquals(executor.getLaneQueueDepths()[1], 0);
+
+			Thread.sleep(20);
+			release.countDown();
+			assertTrue(done.await(10, TimeUnit.SECONDS));
+			while (executor.getLaneCompletedTasks()[0] < 2) {
+				Thread.sleep(1);
+			}
+			assertEquals(executor.getQueueDepth(), 0);
+			assertEquals(executor.getLaneCompletedTasks()[0], 2);
+			assertEquals(executor.getLaneCompletedTasks()[1], 1);
+			// Both tasks on lane 0 took at least 20ms to complete but only the second one waited in the queue
+			assertTrue(executor.getLaneAverageLatencyMillis()[0] >= 20, "Latency " + executor.getLaneAverageLatencyMillis()[0]);
+			assertTrue(executor.getLaneAverageQueueWaitMillis()[0] >= 10, "Queue wait " + executor.getLaneAverageQueueWaitMillis()[0]);
+			assertTrue(executor.getLaneAverageQueueWaitMillis()[0] < executor.getLaneAverageLatencyMillis()[0]);
+		}
+	}
+
+	@Test
+	public void sameKeyMapsToTheSameLane() {
+		try (StripedExecutor executor = new StripedExecutor("test", 8, 10)) {
+			for (int i = 0; i < 100; i++) {
+				final String key = "zz_cf-pool_app" + i + ".example.com";
+				final int lane = executor.laneOf(key);
+				assertTrue(lane >= 0 && lane < executor.getLaneCount());
+				assertEquals(executor.laneOf(new String(key)), lane);
+			}
+		}
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await(10, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
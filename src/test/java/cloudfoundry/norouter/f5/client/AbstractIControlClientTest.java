@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package cloudfoundry.norouter.f5.client;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.fail;
+
+/**
+ * @author Mike Heath
+ */
+public class AbstractIControlClientTest {
+
+	private static final InetSocketAddress MEMBER = InetSocketAddress.createUnresolved("10.1.2.3", 61001);
+
+	private RecordingClient client;
+
+	@BeforeMethod
+	public void setup() {
+		client = new RecordingClient();
+	}
+
+	@Test
+	public void committedTransactionIsNotDeleted() {
+		client.commitState = "COMPLETED";
+		try (Transaction transaction = client.beginTransaction()) {
+			transaction.createPool(Pool.create().name("pool").build())
+					.addPoolMember("pool", MEMBER, "description")
+					.updatePoolDescription("pool", "modified");
+			assertEquals(transaction.getId(), 42);
+			assertEquals(transaction.size(), 3);
+			transaction.commit();
+		}
+		assertEquals(client.requests, Arrays.asList(
+				"POST /mgmt/tm/transaction",
+				"POST /mgmt/tm/ltm/pool 42",
+				"POST /mgmt/tm/ltm/pool/pool/members 42",
+				"PUT /mgmt/tm/ltm/pool/pool 42",
+				"PATCH /mgmt/tm/transaction/42"));
+	}
+
+	@Test
+	public void transactionThatDoesNotCompleteIsDeletedOnClose() {
+		client.commitState = "FAILED";
+		try (Transaction transaction = client.beginTransaction()) {
+			transaction.deletePool("pool");
+			transaction.commit();
+			fail("Commit should have failed");
+		} catch (IControlException e) {
+			// Expected
+		}
+		assertEquals(client.requests, Arrays.asList(
+				"POST /mgmt/tm/transaction",
+				"DELETE /mgmt/tm/ltm/pool/pool 42",
+				"PATCH /mgmt/tm/transaction/42",
+				"DELETE /mgmt/tm/transaction/42"));
+	}
+
+	@Test
+	public void uncommittedTransactionIsDeletedOnClose() {
+		try (Transaction transaction = client.beginTransaction()) {
+			transaction.deletePoolMember("pool", MEMBER);
+		}
+		assertEquals(client.requests.get(client.requests.size() - 1), "DELETE /mgmt/tm/transaction/42");
+	}
+
+	@Test
+	public void closeToleratesATransactionTheLtmAlreadyDiscarded() {
+		client.transactionGone = true;
+		final Transaction transaction = client.beginTransaction();
+		transaction.close();
+		// Closing again doesn't try to delete the transaction a second time
+		transaction.close();
+		assertEquals(client.requests, Arrays.asList(
+				"POST /mgmt/tm/transaction",
+				"DELETE /mgmt/tm/transaction/42"));
+	}
+
+	/**
+	 * Records the requests made and answers them without an LTM.
+	 */
+	private static class RecordingClient extends AbstractIControlClient {
+
+		private final List<String> requests = new ArrayList<>();
+		private String commitState;
+		private boolean transactionGone;
+
+		RecordingClient() {
+			super(URI.create("https://ltm.example.com"));
+		}
+
+		@Override
+		public void close() {
+		}
+
+		@Override
+		protected JsonNode getResource(String uri) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		protected <T> T getResource(String uri, ResourceParser<T> parser) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		protected JsonNode postResource(String uri, Object resource) {
+			requests.add("POST " + uri);
+			return mapper.createObjectNode().put("transId", 42);
+		}
+
+		@Override
+		protected JsonNode putResource(String uri, Object resource) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		protected JsonNode patchResource(String uri, Object resource) {
+			requests.add("PATCH " + uri);
+			return mapper.createObjectNode().put("state", commitState).put("failureReason", "Rejected");
+		}
+
+		@Override
+		protected void deleteResource(String uri) {
+			requests.add("DELETE " + uri);
+			if (transactionGone) {
+				throw new ResourceNotFoundException("Not Found");
+			}
+		}
+
+		@Override
+		protected boolean postResourceIfAbsent(String uri, Object resource) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		protected boolean deleteResourceIfPresent(String uri) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		protected JsonNode postResource(String uri, Object resource, long transactionId) {
+			requests.add("POST " + uri + " " + transactionId);
+			return mapper.createObjectNode();
+		}
+
+		@Override
+		protected JsonNode putResource(String uri, Object resource, long transactionId) {
+			requests.add("PUT " + uri + " " + transactionId);
+			return mapper.createObjectNode();
+		}
+
+		@Override
+		protected void deleteResource(String uri, long transactionId) {
+			requests.add("DELETE " + uri + " " + transactionId);
+		}
+	}
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.f5.client;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests the token authentication against a stubbed LTM.
+ *
+ * @author Mike Heath
+ */
+public class HttpAsyncClientIControlClientTest {
+
+	private static final String LOGIN = "POST /mgmt/shared/authn/login";
+	private static final String GET_POOL = "GET /mgmt/tm/ltm/pool/pool";
+	private static final String BASIC = "Basic " + Base64.getEncoder().encodeToString("admin:secret".getBytes(StandardCharsets.UTF_8));
+
+	private final AtomicLong now = new AtomicLong();
+	private final List<String> requests = Collections.synchronizedList(new ArrayList<>());
+	private final Queue<Response> loginResponses = new ConcurrentLinkedQueue<>();
+	private final Set<String> revokedTokens = ConcurrentHashMap.newKeySet();
+	private final AtomicInteger tokens = new AtomicInteger();
+	private volatile CountDownLatch loginLatch;
+
+	private ExecutorService executor;
+	private HttpServer server;
+	private HttpAsyncClientIControlClient client;
+
+	@BeforeMethod
+	public void setup() throws IOException {
+		now.set(0);
+		requests.clear();
+		loginResponses.clear();
+		revokedTokens.clear();
+		tokens.set(0);
+		loginLatch = new CountDownLatch(0);
+
+		executor = Executors.newCachedThreadPool();
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.setExecutor(executor);
+		server.createContext("/", this::handle);
+		server.start();
+		client = HttpAsyncClientIControlClient.create()
+				.url("http://127.0.0.1:" + server.getAddress().getPort())
+				.user("admin")
+				.password("secret")
+				.nanoTime(now::get)
+				.build();
+	}
+
+	@AfterMethod
+	public void tearDown() {
+		client.close();
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void requestsUseTheCachedToken() {
+		getPool();
+		getPool();
+		assertEquals(requests, Arrays.asList(LOGIN, GET_POOL + " token-1", GET_POOL + " token-1"));
+	}
+
+	@Test
+	public void concurrentRequestsShareOneLogin() throws Exception {
+		getPool();
+		// Past the token's refresh time, 60 seconds before it expires
+		now.addAndGet(TimeUnit.SECONDS.toNanos(1140));
+		loginLatch = new CountDownLatch(1);
+		final List<CompletableFuture<Pool>> pools = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			pools.add(client.getPool("pool"));
+		}
+		loginLatch.countDown();
+		for (CompletableFuture<Pool> pool : pools) {
+			assertEquals(pool.get(10, TimeUnit.SECONDS).getName(), "pool");
+		}
+		assertEquals(requests.stream().filter(LOGIN::equals).count(), 2);
+		assertEquals(requests.stream().filter((GET_POOL + " token-2")::equals).count(), 10);
+	}
+
+	@Test
+	public void revokedTokenIsReplacedAndTheRequestRetried() {
+		getPool();
+		revokedTokens.add("token-1");
+		getPool();
+		getPool();
+		// The 401 challenge isn't answered with HTTP Basic credentials
+		assertEquals(requests, Arrays.asList(
+				LOGIN, GET_POOL + " token-1",
+				GET_POOL + " token-1", LOGIN, GET_POOL + " token-2",
+				GET_POOL + " token-2"));
+	}
+
+	@Test
+	public void ltmWithoutTheLoginEndpointUsesBasicAuthentication() {
+		loginResponses.add(new Response(404, "{\"code\":404,\"message\":\"Public URI path not registered\"}"));
+		getPool();
+		now.addAndGet(TimeUnit.SECONDS.toNanos(3600));
+		getPool();
+		assertEquals(requests, Arrays.asList(LOGIN, GET_POOL + " basic", GET_POOL + " basic"));
+	}
+
+	@Test
+	public void ltmThatDoesNotSupportTokensUsesBasicAuthentication() {
+		loginResponses.add(new Response(400, "{\"code\":400,\"message\":\"Token authentication is not supported\"}"));
+		getPool();
+		now.addAndGet(TimeUnit.SECONDS.toNanos(3600));
+		getPool();
+		assertEquals(requests, Arrays.asList(LOGIN, GET_POOL + " basic", GET_POOL + " basic"));
+	}
+
+	@Test
+	public void failedLoginIsRetriedAfterThirtySeconds() {
+		loginResponses.add(new Response(503, "{\"code\":503}"));
+		getPool();
+		now.addAndGet(TimeUnit.SECONDS.toNanos(29));
+		getPool();
+		now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+		getPool();
+		assertEquals(requests, Arrays.asList(
+				LOGIN, GET_POOL + " basic",
+				GET_POOL + " basic",
+				LOGIN, GET_POOL + " token-1"));
+	}
+
+	@Test
+	public void rejectedLoginFallsBackToBasicAuthentication() {
+		loginResponses.add(new Response(401, "{\"code\":401,\"message\":\"Authentication failed.\"}"));
+		getPool();
+		now.addAndGet(TimeUnit.SECONDS.toNanos(30));
+		getPool();
+		// The login's 401 challenge isn't answered with HTTP Basic credentials either
+		assertEquals(requests, Arrays.asList(
+				LOGIN, GET_POOL + " basic",
+				LOGIN, GET_POOL + " token-1"));
+	}
+
+	private void getPool() {
+		try {
+			assertEquals(client.getPool("pool").get(10, TimeUnit.SECONDS).getName(), "pool");
+		} catch (Exception e) {
+			throw new AssertionError(e);
+		}
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		final String request = exchange.getRequestMethod() + " " + exchange.getRequestURI().getPath();
+		final String token = exchange.getRequestHeaders().getFirst("X-F5-Auth-Token");
+		final String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+		final Response response;
+		if (request.equals(LOGIN)) {
+			requests.add(request + (authorization == null ? "" : " basic"));
+			try {
+				assertTrue(loginLatch.await(10, TimeUnit.SECONDS));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			final Response loginResponse = loginResponses.poll();
+			response = loginResponse != null ? loginResponse
+					: new Response(200, "{\"token\":{\"token\":\"token-" + tokens.incrementAndGet() + "\",\"timeout\":1200}}");
+		} else {
+			if (token != null) {
+				requests.add(request + " " + token);
+			} else {
+				requests.add(request + (BASIC.equals(authorization) ? " basic" : ""));
+			}
+			if (token != null ? revokedTokens.contains(token) : !BASIC.equals(authorization)) {
+				response = new Response(401, "{\"code\":401}");
+			} else {
+				response = new Response(200, "{\"name\":\"pool\"}");
+			}
+		}
+		if (response.status == 401) {
+			exchange.getResponseHeaders().add("WWW-Authenticate", "Basic realm=\"Enterprise Manager\"");
+		}
+		final byte[] body = response.body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().add("Content-Type", "application/json");
+		exchange.sendResponseHeaders(response.status, body.length);
+		exchange.getResponseBody().write(body);
+		exchange.close();
+	}
+
+	private static class Response {
+		private final int status;
+		private final String body;
+
+		Response(int status, String body) {
+			this.status = status;
+			this.body = body;
+		}
+	}
+}
@@ -22,6 +22,9 @@ import org.testng.annotations.Test;
 
 import java.net.InetSocketAddress;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
 import java.util.concurrent.ThreadLocalRandom;
@@ -93,6 +96,25 @@ public class HttpClientIControlClientIT {
 		}
 	}
 
+	@Test
+	public void streamAllPoolsWithSelectedFields() {
+		final String poolName = "__Rest-Client-Test-" + UUID.randomUUID().toString();
+		final String description = "If you're reading this, please delete this pool.";
+		final InetSocketAddress poolMember = InetSocketAddress.createUnresolved("1.2.3.4", 80);
+		client.createPool(Pool.create().name(poolName).description(description).addMember(poolMember).build());
+		try {
+			final Optional<Pool> streamedPool = client.streamAllPools(true, "description")
+					.filter(p -> p.getName().equals(poolName))
+					.findFirst();
+			assertTrue(streamedPool.isPresent());
+			assertEquals(streamedPool.get().getDescription(), description);
+			assertTrue(streamedPool.get().getMembers().isPresent());
+			assertPoolMemberPresent(streamedPool.get().getMembers().get(), poolMember.toString());
+		} finally {
+			client.deletePool(poolName);
+		}
+	}
+
 	@Test
 	public void poolMemberCreateAndDelete() {
 		final InetSocketAddress poolMember = InetSocketAddress.createUnresolved("1.2.3.4", 80);
@@ -159,6 +181,31 @@ public class HttpClientIControlClientIT {
 
 	}
 
+	@Test
+	public void conditionalPoolAndPoolMemberChanges() {
+		final String poolName = "__Rest-Client-Test-" + UUID.randomUUID().toString();
+		final String description = "If you're reading this, please delete this pool.";
+		final InetSocketAddress poolMember = InetSocketAddress.createUnresolved("1.2.3.4", 80);
+		final Pool pool = Pool.create()
+				.name(poolName)
+				.description(description)
+				.build();
+
+		assertTrue(client.createPoolIfAbsent(pool));
+		try {
+			assertFalse(client.createPoolIfAbsent(pool));
+
+			assertTrue(client.addPoolMemberIfAbsent(poolName, poolMember, null));
+			assertFalse(client.addPoolMemberIfAbsent(poolName, poolMember, null));
+
+			assertTrue(client.deletePoolMemberIfPresent(poolName, poolMember));
+			assertFalse(client.deletePoolMemberIfPresent(poolName, poolMember));
+		} finally {
+			assertTrue(client.deletePoolIfPresent(poolName));
+		}
+		assertFalse(client.deletePoolIfPresent(poolName));
+	}
+
 	@Test(expectedExceptions = ResourceNotFoundException.class)
 	public void badPoolNameThrowsResourceNotFoundException() {
 		client.getPool("YoDawgIHeardYouLikePools");
@@ -203,6 +250,24 @@ public class HttpClientIControlClientIT {
 		}
 	}
 
+	@Test
+	public void createAndUpdateDataGroup() {
+		final String name = "__TestDataGroup-" + UUID.randomUUID().toString();
+		try {
+			final DataGroup dataGroup = client.createDataGroup(new DataGroup(name, Collections.singletonMap("a.example.com", "pool_a")));
+			assertEquals(dataGroup.getName(), name);
+			assertEquals(dataGroup.getRecordMap(), Collections.singletonMap("a.example.com", "pool_a"));
+
+			final Map<String, String> records = new HashMap<>();
+			records.put("b.example.com", "pool_b");
+			records.put("c.example.com", "pool_c");
+			client.updateDataGroupRecords(name, records);
+			assertEquals(client.getDataGroup(name).getRecordMap(), records);
+		} finally {
+			client.deleteDataGroup(name);
+		}
+	}
+
 	@Test
 	public void createVirtualServer() {
 		final String name = "aa__TestVirtualServer-" + UUID.randomUUID().toString();
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.f5.client;
+
+import org.apache.http.HttpHost;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.NHttpClientConnection;
+import org.apache.http.nio.conn.NoopIOSessionStrategy;
+import org.apache.http.nio.conn.SchemeIOSessionStrategy;
+import org.apache.http.protocol.BasicHttpContext;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.LongSupplier;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+/**
+ * @author Mike Heath
+ */
+public class InstrumentedConnectionManagerTest {
+
+	private ServerSocket server;
+	private final BlockingQueue<Socket> accepted = new LinkedBlockingQueue<>();
+	private InstrumentedConnectionManager connectionManager;
+	private CloseableHttpAsyncClient httpClient;
+	private HttpRoute route;
+
+	@BeforeMethod
+	public void setup() throws IOException {
+		server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+		final Thread acceptor = new Thread(() -> {
+			try {
+				while (true) {
+					accepted.add(server.accept());
+				}
+			} catch (IOException e) {
+				// Server closed
+			}
+		}, "test-acceptor");
+		acceptor.setDaemon(true);
+		acceptor.start();
+		route = new HttpRoute(new HttpHost(server.getInetAddress(), server.getLocalPort()));
+
+		connectionManager = new InstrumentedConnectionManager(new DefaultConnectingIOReactor(IOReactorConfig.DEFAULT),
+				RegistryBuilder.<SchemeIOSessionStrategy>create().register("http", NoopIOSessionStrategy.INSTANCE).build(),
+				-1, TimeUnit.MILLISECONDS);
+		connectionManager.setMaxTotal(1);
+		connectionManager.setDefaultMaxPerRoute(1);
+		// The client runs the connection manager's I/O reactor
+		httpClient = HttpAsyncClients.custom().setConnectionManager(connectionManager).build();
+		httpClient.start();
+	}
+
+	@AfterMethod
+	public void tearDown() throws IOException {
+		httpClient.close();
+		server.close();
+		for (Socket socket : accepted) {
+			socket.close();
+		}
+		accepted.clear();
+	}
+
+	@Test
+	public void leasesAndLeaseTimeoutsAreCountedAndTimed() throws Exception {
+		final NHttpClientConnection connection = lease(1000);
+		await(connectionManager::getLeases, 1);
+
+		final Future<NHttpClientConnection> timedOut = connectionManager.requestConnection(route, null, 1000, 50, TimeUnit.MILLISECONDS, null);
+		Thread.sleep(100);
+		// The pool fails the expired lease when the connection is released instead of handing the connection to it
+		release(connection);
+		try {
+			timedOut.get(10, TimeUnit.SECONDS);
+			fail("The lease should have timed out");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof TimeoutException, e.toString());
+		}
+		await(connectionManager::getLeaseTimeouts, 1);
+		assertEquals(connectionManager.getLeases(), 1);
+		// The lease that timed out waited at least 100ms
+		assertTrue(connectionManager.getAverageLeaseWaitMillis() >= 50, "Average wait " + connectionManager.getAverageLeaseWaitMillis());
+
+		// The released connection is reused
+		lease(1000);
+		await(connectionManager::getLeases, 2);
+		assertEquals(connectionManager.getConnectionsOpened(), 1);
+	}
+
+	@Test
+	public void connectionsClosedByTheLtmAreCounted() throws Exception {
+		release(lease(1000));
+		await(connectionManager::getConnectionsOpened, 1);
+		assertEquals(connectionManager.getConnectionsClosed(), 0);
+
+		// The pool still counts the connection as available until it notices it was closed
+		accepted.take().close();
+		await(connectionManager::getConnectionsClosed, 1);
+		assertEquals(connectionManager.getTotalStats().getAvailable(), 1);
+
+		release(lease(1000));
+		await(connectionManager::getConnectionsOpened, 2);
+		connectionManager.closeIdleConnections(0, TimeUnit.MILLISECONDS);
+		await(connectionManager::getConnectionsClosed, 2);
+	}
+
+	private NHttpClientConnection lease(long leaseTimeoutMillis) throws Exception {
+		final NHttpClientConnection connection = connectionManager.requestConnection(route, null, 1000, leaseTimeoutMillis, TimeUnit.MILLISECONDS, null)
+				.get(10, TimeUnit.SECONDS);
+		connectionManager.routeComplete(connection, route, new BasicHttpContext());
+		return connection;
+	}
+
+	private void release(NHttpClientConnection connection) {
+		connectionManager.releaseConnection(connection, null, 30, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * The counters are updated on the I/O reactor thread, after the lease completes.
+	 */
+	private static void await(LongSupplier counter, long expected) throws InterruptedException {
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (counter.getAsLong() < expected && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(counter.getAsLong(), expected);
+	}
+}
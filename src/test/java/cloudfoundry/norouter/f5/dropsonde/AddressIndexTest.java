@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.f5.dropsonde;
+
+import org.testng.annotations.Test;
+
+import java.net.InetSocketAddress;
+import java.util.UUID;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * @author Mike Heath
+ */
+public class AddressIndexTest {
+
+	private static final UUID GUID = UUID.randomUUID();
+
+	@Test
+	public void putGetRemove() {
+		final AddressIndex index = new AddressIndex();
+		final long key = AddressIndex.keyOf(InetSocketAddress.createUnresolved("10.1.2.3", 61001));
+		final AddressIndex.Application application = new AddressIndex.Application(GUID, 2);
+
+		assertNull(index.get(key));
+		index.put(key, application);
+		assertSame(index.get(key), application);
+		assertEquals(index.size(), 1);
+
+		final AddressIndex.Application replacement = new AddressIndex.Application(GUID, 3);
+		index.put(key, replacement);
+		assertSame(index.get(key), replacement);
+		assertEquals(index.size(), 1);
+
+		index.remove(key);
+		assertNull(index.get(key));
+		assertEquals(index.size(), 0);
+		// Removing an unknown key is a no-op
+		index.remove(key + 1);
+		assertEquals(index.size(), 0);
+	}
+
+	@Test
+	public void keysProbingPastARemovedEntryAreStillFound() {
+		final AddressIndex index = new AddressIndex();
+		final int count = index.capacity() / 4;
+		for (int i = 0; i < count; i++) {
+			index.put(key(i), new AddressIndex.Application(GUID, i));
+		}
+		// Remove every other entry leaving their slots in the middle of probe sequences
+		for (int i = 0; i < count; i += 2) {
+			index.remove(key(i));
+		}
+		for (int i = 0; i < count; i++) {
+			if (i % 2 == 0) {
+				assertNull(index.get(key(i)));
+			} else {
+				assertEquals(index.get(key(i)).getIndex(), Integer.valueOf(i));
+			}
+		}
+		assertEquals(index.size(), count / 2);
+
+		// A removed key can be put again
+		index.put(key(0), new AddressIndex.Application(GUID, 0));
+		assertEquals(index.get(key(0)).getIndex(), Integer.valueOf(0));
+		assertEquals(index.size(), count / 2 + 1);
+	}
+
+	@Test
+	public void removedEntriesAreDroppedWithoutGrowingTheTable() {
+		final AddressIndex index = new AddressIndex();
+		final int capacity = index.capacity();
+		// Churn through many more keys than the table holds while keeping only a few live
+		for (int i = 0; i < capacity * 8; i++) {
+			index.put(key(i), new AddressIndex.Application(GUID, i));
+			if (i >= 10) {
+				index.remove(key(i - 10));
+			}
+		}
+		assertEquals(index.size(), 10);
+		assertEquals(index.capacity(), capacity);
+		for (int i = capacity * 8 - 10; i < capacity * 8; i++) {
+			assertEquals(index.get(key(i)).getIndex(), Integer.valueOf(i));
+		}
+	}
+
+	@Test
+	public void tableGrowsAndKeepsEntries() {
+		final AddressIndex index = new AddressIndex();
+		final int initialCapacity = index.capacity();
+		final int count = initialCapacity * 3;
+		for (int i = 0; i < count; i++) {
+			index.put(key(i), new AddressIndex.Application(GUID, i));
+		}
+		assertTrue(index.capacity() > initialCapacity);
+		assertEquals(index.size(), count);
+		for (int i = 0; i < count; i++) {
+			assertEquals(index.get(key(i)).getIndex(), Integer.valueOf(i));
+		}
+	}
+
+	@Test
+	public void noKeyIsNeverStored() {
+		final AddressIndex index = new AddressIndex();
+		index.put(AddressIndex.NO_KEY, new AddressIndex.Application(GUID, 0));
+		assertEquals(index.size(), 0);
+		assertNull(index.get(AddressIndex.NO_KEY));
+		index.remove(AddressIndex.NO_KEY);
+		assertEquals(index.size(), 0);
+	}
+
+	@Test
+	public void onlyIpv4AddressesHaveKeys() {
+		assertEquals(AddressIndex.keyOf(InetSocketAddress.createUnresolved("10.1.2.3", 61001)), 0x0a010203L << 16 | 61001);
+		assertEquals(AddressIndex.keyOf(new InetSocketAddress("10.1.2.3", 61001)), 0x0a010203L << 16 | 61001);
+		assertEquals(AddressIndex.keyOf(InetSocketAddress.createUnresolved("app.example.com", 80)), AddressIndex.NO_KEY);
+		assertEquals(AddressIndex.keyOf(InetSocketAddress.createUnresolved("10.1.2.256", 80)), AddressIndex.NO_KEY);
+		assertEquals(AddressIndex.keyOf(new InetSocketAddress("::1", 80)), AddressIndex.NO_KEY);
+	}
+
+	private static long key(int i) {
+		return AddressIndex.keyOf(InetSocketAddress.createUnresolved("10.0." + (i >> 8 & 0xff) + "." + (i & 0xff), 61000 + (i >> 16)));
+	}
+}
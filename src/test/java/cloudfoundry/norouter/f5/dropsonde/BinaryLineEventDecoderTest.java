@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.f5.dropsonde;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.testng.annotations.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * @author Mike Heath
+ */
+public class BinaryLineEventDecoderTest {
+
+	@Test
+	public void decodeRecord() {
+		final UUID requestId = UUID.randomUUID();
+		final EmbeddedChannel channel = new EmbeddedChannel(new BinaryLineEventDecoder(new SkippedLines(10, TimeUnit.SECONDS)));
+		channel.writeInbound(record(requestId, 2, 55));
+
+		final LogEvent logEvent = (LogEvent) channel.readInbound();
+		try {
+			assertEquals(logEvent.getLtmIdentifier(), "ltm1");
+			assertEquals(logEvent.getApplicationAddressKey(), AddressIndex.keyOf(InetSocketAddress.createUnresolved("10.1.2.3", 61001)));
+			assertEquals(logEvent.getTimestampMillis(), 1436224520123L);
+			assertEquals(logEvent.getRequestId(), requestId);
+			assertEquals(logEvent.getMessage(), "access log line");
+		} finally {
+			logEvent.release();
+		}
+
+		final HttpEvent httpEvent = (HttpEvent) channel.readInbound();
+		assertEquals(httpEvent.getRequestId(), requestId);
+		assertEquals(httpEvent.getClientStartMillis(), 1436224520123L);
+		assertEquals(httpEvent.getServerStartMillis(), 1436224520125L);
+		assertEquals(httpEvent.getServerStopMillis(), 1436224520178L);
+		assertEquals(httpEvent.getClientStopMillis(), 1436224520181L);
+		assertEquals(httpEvent.getStatusCode(), 200);
+		assertEquals(httpEvent.getContentLength(), -1L);
+		assertEquals(httpEvent.getMethod(), "GET");
+		assertEquals(httpEvent.getUri(), "/foo");
+		assertEquals(httpEvent.getRemoteAddress(), "192.168.1.1:50123");
+		assertEquals(httpEvent.getUserAgent(), "curl/7.43.0");
+	}
+
+	@Test
+	public void accessLogIsBuiltFromTheRecordFields() {
+		final UUID requestId = UUID.randomUUID();
+		final EmbeddedChannel channel = new EmbeddedChannel(new BinaryLineEventDecoder(new SkippedLines(10, TimeUnit.SECONDS)));
+		channel.writeInbound(fieldsRecord(requestId, "", ""));
+
+		final LogEvent logEvent = (LogEvent) channel.readInbound();
+		try {
+			assertEquals(logEvent.getApplicationAddressKey(), AddressIndex.keyOf(InetSocketAddress.createUnresolved("10.1.2.3", 61001)));
+			assertEquals(logEvent.getMessage(), "app.example.com - [06/Jul/2015:23:15:20 +0000] \"GET /foo HTTP/1.1\" 200 - \"-\" "
+					+ "\"curl/7.43.0\" 192.168.1.1:50123 vcap_request_id:" + requestId + " response_time:0.058");
+		} finally {
+			logEvent.release();
+		}
+		assertEquals(((HttpEvent) channel.readInbound()).getRequestId(), requestId);
+	}
+
+	@Test
+	public void nonIpv4ApplicationAddressIsSentAsText() {
+		final EmbeddedChannel channel = new EmbeddedChannel(new BinaryLineEventDecoder(new SkippedLines(10, TimeUnit.SECONDS)));
+		channel.writeInbound(fieldsRecord(UUID.randomUUID(), "app.internal:61001", "https://example.com/"));
+
+		final LogEvent logEvent = (LogEvent) channel.readInbound();
+		try {
+			assertEquals(logEvent.getApplicationAddressKey(), AddressIndex.NO_KEY);
+			assertEquals(logEvent.getApplicationAddress(), InetSocketAddress.createUnresolved("app.internal", 61001));
+			assertTrue(logEvent.getMessage().contains(" \"https://example.com/\" "), logEvent.getMessage());
+		} finally {
+			logEvent.release();
+		}
+		final HttpEvent httpEvent = (HttpEvent) channel.readInbound();
+		assertEquals(httpEvent.getApplicationAddressKey(), AddressIndex.NO_KEY);
+		assertEquals(httpEvent.getApplicationAddress(), InetSocketAddress.createUnresolved("app.internal", 61001));
+	}
+
+	@Test
+	public void requestNotSentToApplicationHasNoHttpEvent() {
+		final EmbeddedChannel channel = new EmbeddedChannel(new BinaryLineEventDecoder(new SkippedLines(10, TimeUnit.SECONDS)));
+		channel.writeInbound(record(UUID.randomUUID(), -1, -1));
+		((LogEvent) channel.readInbound()).release();
+		assertNull(channel.readInbound());
+	}
+
+	@Test
+	public void truncatedRecordIsSkipped() {
+		final SkippedLines skippedLines = new SkippedLines(10, TimeUnit.SECONDS);
+		final EmbeddedChannel channel = new EmbeddedChannel(new BinaryLineEventDecoder(skippedLines));
+		final ByteBuf record = record(UUID.randomUUID(), 2, 55);
+		record.writerIndex(record.writerIndex() - 20);
+		record.setInt(0, record.readableBytes() - 4);
+		channel.writeInbound(record);
+		assertNull(channel.readInbound());
+		assertEquals(skippedLines.getMalformed(), 1);
+	}
+
+	/**
+	 * Builds a version 1 record, which carries the access log message.
+	 */
+	private static ByteBuf record(UUID requestId, int serverStart, int serverStop) {
+		final ByteBuf body = fields(1, requestId, serverStart, serverStop);
+		body.writeBytes("access log line".getBytes(StandardCharsets.UTF_8));
+		return Unpooled.buffer().writeInt(body.readableBytes()).writeBytes(body);
+	}
+
+	/**
+	 * Builds a record the way the logging-binary iRule does.
+	 */
+	private static ByteBuf fieldsRecord(UUID requestId, String applicationAddress, String referer) {
+		final ByteBuf body = fields(2, requestId, 2, 55);
+		writeString(body, applicationAddress, 1);
+		writeString(body, "app.example.com", 2);
+		writeString(body, "1.1", 1);
+		writeString(body, referer, 2);
+		return Unpooled.buffer().writeInt(body.readableBytes()).writeBytes(body);
+	}
+
+	private static ByteBuf fields(int version, UUID requestId, int serverStart, int serverStop) {
+		final ByteBuf body = Unpooled.buffer();
+		body.writeByte(version);
+		writeString(body, "ltm1", 1);
+		body.writeBytes(new byte[]{10, 1, 2, 3});
+		body.writeShort(61001);
+		body.writeInt((int) (1436224520123L >> 32));
+		body.writeInt((int) 1436224520123L);
+		body.writeInt(serverStart);
+		body.writeInt(serverStop);
+		body.writeInt(58);
+		body.writeLong(requestId.getMostSignificantBits());
+		body.writeLong(requestId.getLeastSignificantBits());
+		body.writeShort(200);
+		body.writeInt(-1);
+		writeString(body, "GET", 1);
+		writeString(body, "/foo", 2);
+		writeString(body, "192.168.1.1:50123", 1);
+		writeString(body, "curl/7.43.0", 2);
+		return body;
+	}
+
+	private static void writeString(ByteBuf buffer, String value, int lengthFieldLength) {
+		final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		if (lengthFieldLength == 1) {
+			buffer.writeByte(bytes.length);
+		} else {
+			buffer.writeShort(bytes.length);
+		}
+		buffer.writeBytes(bytes);
+	}
+
+}
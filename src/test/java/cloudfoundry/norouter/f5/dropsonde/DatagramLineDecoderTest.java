@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package cloudfoundry.norouter.f5.dropsonde;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.socket.DatagramPacket;
+import org.testng.annotations.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+
+/**
+ * @author Mike Heath
+ */
+public class DatagramLineDecoderTest {
+
+	private static final InetSocketAddress RECIPIENT = new InetSocketAddress("127.0.0.1", 6514);
+	private static final InetSocketAddress SENDER = new InetSocketAddress("127.0.0.1", 50123);
+
+	@Test
+	public void trailingNewlineIsStripped() {
+		assertEquals(decodeText("LOG ltm1 message\n"), "LOG ltm1 message");
+	}
+
+	@Test
+	public void trailingCarriageReturnAndNewlineAreStripped() {
+		assertEquals(decodeText("LOG ltm1 message\r\n"), "LOG ltm1 message");
+	}
+
+	@Test
+	public void lineWithoutDelimiterIsPassedOn() {
+		assertEquals(decodeText("LOG ltm1 message"), "LOG ltm1 message");
+	}
+
+	@Test
+	public void emptyDatagramsAreDropped() {
+		final EmbeddedChannel channel = new EmbeddedChannel(new DatagramLineDecoder());
+		assertFalse(channel.writeInbound(datagram(new byte[0])));
+		assertFalse(channel.writeInbound(datagram("\r\n".getBytes(StandardCharsets.US_ASCII))));
+		assertNull(channel.readInbound());
+		assertFalse(channel.finish());
+	}
+
+	@Test
+	public void binaryRecordIsPassedOnUnchanged() {
+		// A binary record can legitimately end in bytes that look like a delimiter
+		final byte[] record = {2, 0, 1, '\r', '\n'};
+		final EmbeddedChannel channel = new EmbeddedChannel(new DatagramLineDecoder(false));
+		channel.writeInbound(datagram(record));
+		final ByteBuf decoded = (ByteBuf) channel.readInbound();
+		try {
+			final byte[] bytes = new byte[decoded.readableBytes()];
+			decoded.readBytes(bytes);
+			assertEquals(bytes, record);
+		} finally {
+			decoded.release();
+		}
+		assertFalse(channel.finish());
+	}
+
+	private static String decodeText(String line) {
+		final EmbeddedChannel channel = new EmbeddedChannel(new DatagramLineDecoder());
+		channel.writeInbound(datagram(line.getBytes(StandardCharsets.UTF_8)));
+		final ByteBuf decoded = (ByteBuf) channel.readInbound();
+		try {
+			return decoded.toString(StandardCharsets.UTF_8);
+		} finally {
+			decoded.release();
+			assertFalse(channel.finish());
+		}
+	}
+
+	private static DatagramPacket datagram(byte[] content) {
+		return new DatagramPacket(Unpooled.wrappedBuffer(content), RECIPIENT, SENDER);
+	}
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.f5.dropsonde;
+
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Decodes the envelopes written by {@link HttpStartStopEmitter} with the field numbers and wire types from dropsonde's
+ * envelope.proto, http.proto and uuid.proto.
+ *
+ * @author Mike Heath
+ */
+public class HttpStartStopEmitterTest {
+
+	private static final int VARINT = 0;
+	private static final int LENGTH_DELIMITED = 2;
+
+	private static final UUID REQUEST_ID = UUID.fromString("6ba7b810-9dad-11d1-80b4-00c04fd430c8");
+	private static final UUID APPLICATION_GUID = UUID.fromString("f81d4fae-7dec-11d0-a765-00a0c91e6bf6");
+
+	@Test
+	public void encodeClientEnvelope() {
+		final HttpEvent event = event("PUT", 1234);
+		final Map<Integer, Object> envelope = decode(HttpStartStopEmitter.encode("norouter", event, application(3), 3, 1, 1436224520123L, 1436224520181L));
+
+		assertEquals(string(envelope.get(tag(1, LENGTH_DELIMITED))), "norouter");
+		assertEquals(envelope.get(tag(2, VARINT)), 4L);
+		assertTrue(envelope.containsKey(tag(6, VARINT)));
+
+		final Map<Integer, Object> httpStartStop = decode((byte[]) envelope.get(tag(7, LENGTH_DELIMITED)));
+		assertEquals(httpStartStop.get(tag(1, VARINT)), TimeUnit.MILLISECONDS.toNanos(1436224520123L));
+		assertEquals(httpStartStop.get(tag(2, VARINT)), TimeUnit.MILLISECONDS.toNanos(1436224520181L));
+		assertUuid(httpStartStop.get(tag(3, LENGTH_DELIMITED)), REQUEST_ID);
+		// PeerType Client and Method PUT
+		assertEquals(httpStartStop.get(tag(4, VARINT)), 1L);
+		assertEquals(httpStartStop.get(tag(5, VARINT)), 3L);
+		assertEquals(string(httpStartStop.get(tag(6, LENGTH_DELIMITED))), "/foo?bar=1");
+		assertEquals(string(httpStartStop.get(tag(7, LENGTH_DELIMITED))), "192.168.1.1:50123");
+		assertEquals(string(httpStartStop.get(tag(8, LENGTH_DELIMITED))), "Mozilla/5.0 (X11) \u00e9");
+		assertEquals(httpStartStop.get(tag(9, VARINT)), 200L);
+		assertEquals(httpStartStop.get(tag(10, VARINT)), 1234L);
+		assertUuid(httpStartStop.get(tag(12, LENGTH_DELIMITED)), APPLICATION_GUID);
+		assertEquals(httpStartStop.get(tag(13, VARINT)), 3L);
+	}
+
+	@Test
+	public void encodeServerEnvelopeWithoutContentLengthOrIndex() {
+		final HttpEvent event = event("GET", -1);
+		final Map<Integer, Object> envelope = decode(HttpStartStopEmitter.encode("norouter", event, application(null), 1, 2, 1436224520125L, 1436224520178L));
+
+		final Map<Integer, Object> httpStartStop = decode((byte[]) envelope.get(tag(7, LENGTH_DELIMITED)));
+		// PeerType Server and Method GET
+		assertEquals(httpStartStop.get(tag(4, VARINT)), 2L);
+		assertEquals(httpStartStop.get(tag(5, VARINT)), 1L);
+		assertEquals(httpStartStop.get(tag(10, VARINT)), 0L);
+		assertFalse(httpStartStop.containsKey(tag(13, VARINT)));
+	}
+
+	private static HttpEvent event(String method, long contentLength) {
+		return new HttpEvent("ltm1", AddressIndex.NO_KEY, "10.1.2.3:61001",
+				REQUEST_ID.getMostSignificantBits(), REQUEST_ID.getLeastSignificantBits(),
+				1436224520123L, 1436224520125L, 1436224520178L, 1436224520181L,
+				200, contentLength, method, "192.168.1.1:50123", "/foo?bar=1", "Mozilla/5.0 (X11) \u00e9");
+	}
+
+	private static AddressIndex.Application application(Integer index) {
+		return new AddressIndex.Application(APPLICATION_GUID, index);
+	}
+
+	/**
+	 * Dropsonde's UUID message holds the first eight bytes of the UUID as a little endian low field and the last
+	 * eight bytes as a little endian high field.
+	 */
+	private static void assertUuid(Object encoded, UUID expected) {
+		final Map<Integer, Object> uuid = decode((byte[]) encoded);
+		final ByteBuffer bytes = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+		bytes.putLong((Long) uuid.get(tag(1, VARINT)));
+		bytes.putLong((Long) uuid.get(tag(2, VARINT)));
+		final ByteBuffer expectedBytes = ByteBuffer.allocate(16)
+				.putLong(expected.getMostSignificantBits())
+				.putLong(expected.getLeastSignificantBits());
+		assertEquals(bytes.array(), expectedBytes.array());
+	}
+
+	private static int tag(int field, int wireType) {
+		return field << 3 | wireType;
+	}
+
+	private static String string(Object value) {
+		return new String((byte[]) value, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return the value of each field keyed by its tag, a {@code Long} for varints and a {@code byte[]} for length
+	 * delimited fields.
+	 */
+	private static Map<Integer, Object> decode(byte[] message) {
+		final Map<Integer, Object> fields = new HashMap<>();
+		final int[] index = new int[1];
+		while (index[0] < message.length) {
+			final int tag = (int) varint(message, index);
+			final Object value;
+			switch (tag & 7) {
+				case VARINT:
+					value = varint(message, index);
+					break;
+				case LENGTH_DELIMITED:
+					final int length = (int) varint(message, index);
+					value = Arrays.copyOfRange(message, index[0], index[0] + length);
+					index[0] += length;
+					break;
+				default:
+					throw new AssertionError("Unexpected wire type in tag " + tag);
+			}
+			assertFalse(fields.containsKey(tag), "Repeated tag " + tag);
+			fields.put(tag, value);
+		}
+		return fields;
+	}
+
+	private static long varint(byte[] message, int[] index) {
+		long value = 0;
+		for (int shift = 0; ; shift += 7) {
+			final byte b = message[index[0]++];
+			value |= (long) (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+	}
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.f5.dropsonde;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.testng.annotations.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * @author Mike Heath
+ */
+public class LineEventDecoderTest {
+
+	@Test
+	public void decodeLogEvent() {
+		final UUID requestId = UUID.randomUUID();
+		final LogEvent event = decode("LOG ltm1 10.1.2.3:61001 1436224520123 " + requestId + " GET / HTTP/1.1 200");
+		try {
+			assertEquals(event.getLtmIdentifier(), "ltm1");
+			assertEquals(LogEvent.addressKeyToString(event.getApplicationAddressKey()), "10.1.2.3:61001");
+			assertEquals(event.getApplicationAddressKey(), AddressIndex.keyOf(InetSocketAddress.createUnresolved("10.1.2.3", 61001)));
+			assertEquals(event.getTimestampMillis(), 1436224520123L);
+			assertEquals(event.getRequestId(), requestId);
+			assertEquals(event.getMessage(), "GET / HTTP/1.1 200");
+		} finally {
+			event.release();
+		}
+	}
+
+	@Test
+	public void requestIdWithoutDashes() {
+		final UUID requestId = UUID.randomUUID();
+		final LogEvent event = decode("LOG ltm1 10.1.2.3:61001 1436224520123 " + requestId.toString().replace("-", "") + " message");
+		try {
+			assertEquals(event.getRequestId(), requestId);
+			assertEquals(event.getMessage(), "message");
+		} finally {
+			event.release();
+		}
+	}
+
+	@Test
+	public void nonIpv4AddressHasNoKey() {
+		final LogEvent event = decode("LOG ltm1 router.example.com:80 1436224520123 " + UUID.randomUUID() + " message");
+		try {
+			assertEquals(event.getApplicationAddressKey(), -1L);
+		} finally {
+			event.release();
+		}
+	}
+
+	@Test
+	public void decodeHttpEvent() {
+		final UUID requestId = UUID.randomUUID();
+		final EmbeddedChannel channel = new EmbeddedChannel(new LineEventDecoder());
+		channel.writeInbound(Unpooled.copiedBuffer("HTTP ltm1 10.1.2.3:61001 " + requestId
+				+ " 1436224520123 1436224520125 1436224520180 1436224520181 200 - GET 192.168.1.1:50123 app.example.com 1.1"
+				+ " /foo?bar=1 - Mozilla/5.0 (X11)",
+				StandardCharsets.UTF_8));
+		final LogEvent logEvent = (LogEvent) channel.readInbound();
+		try {
+			assertEquals(logEvent.getTimestampMillis(), 1436224520123L);
+			assertEquals(logEvent.getRequestId(), requestId);
+			assertEquals(logEvent.getMessage(), "app.example.com - [06/Jul/2015:23:15:20 +0000] \"GET /foo?bar=1 HTTP/1.1\" 200 - \"-\" "
+					+ "\"Mozilla/5.0 (X11)\" 192.168.1.1:50123 vcap_request_id:" + requestId + " response_time:0.058");
+		} finally {
+			logEvent.release();
+		}
+		final HttpEvent event = (HttpEvent) channel.readInbound();
+		assertEquals(event.getApplicationAddressKey(), AddressIndex.keyOf(InetSocketAddress.createUnresolved("10.1.2.3", 61001)));
+		assertEquals(event.getRequestId(), requestId);
+		assertEquals(event.getClientStartMillis(), 1436224520123L);
+		assertEquals(event.getServerStartMillis(), 1436224520125L);
+		assertEquals(event.getServerStopMillis(), 1436224520180L);
+		assertEquals(event.getClientStopMillis(), 1436224520181L);
+		assertEquals(event.getStatusCode(), 200);
+		assertEquals(event.getContentLength(), -1L);
+		assertEquals(event.getMethod(), "GET");
+		assertEquals(event.getRemoteAddress(), "192.168.1.1:50123");
+		assertEquals(event.getUri(), "/foo?bar=1");
+		assertEquals(event.getUserAgent(), "Mozilla/5.0 (X11)");
+		assertNull(channel.readInbound());
+	}
+
+	@Test
+	public void requestNotSentToAnApplicationOnlyProducesALogEvent() {
+		final EmbeddedChannel channel = new EmbeddedChannel(new LineEventDecoder());
+		channel.writeInbound(Unpooled.copiedBuffer("HTTP ltm1 10.1.2.3:61001 " + UUID.randomUUID()
+				+ " 1436224520123 - - 1436224520181 502 12 GET 192.168.1.1:50123 app.example.com 1.1 / - curl",
+				StandardCharsets.UTF_8));
+		final LogEvent logEvent = (LogEvent) channel.readInbound();
+		try {
+			assertTrue(logEvent.getMessage().contains("\"GET / HTTP/1.1\" 502 12 "), logEvent.getMessage());
+		} finally {
+			logEvent.release();
+		}
+		assertNull(channel.readInbound());
+	}
+
+	@Test
+	public void dashIsOnlyAcceptedForTheServerTimesAndContentLength() {
+		final SkippedLines skippedLines = new SkippedLines(10, TimeUnit.SECONDS);
+		final EmbeddedChannel channel = new EmbeddedChannel(new LineEventDecoder(skippedLines, (command, line, out) -> false));
+		channel.writeInbound(Unpooled.copiedBuffer("HTTP ltm1 10.1.2.3:61001 " + UUID.randomUUID()
+				+ " - 1436224520125 1436224520180 1436224520181 200 - GET 192.168.1.1:50123 app.example.com 1.1 / - curl",
+				StandardCharsets.UTF_8));
+		channel.writeInbound(Unpooled.copiedBuffer("HTTP ltm1 10.1.2.3:61001 " + UUID.randomUUID()
+				+ " 1436224520123 1436224520125 1436224520180 1436224520181 - 12 GET 192.168.1.1:50123 app.example.com 1.1 / - curl",
+				StandardCharsets.UTF_8));
+		channel.writeInbound(Unpooled.copiedBuffer("HTTP ltm1 10.1.2.3:61001 " + UUID.randomUUID()
+				+ " 1436224520123 1436224520125 1436224520180 1436224520181 4294967496 12 GET 192.168.1.1:50123 app.example.com 1.1 / - curl",
+				StandardCharsets.UTF_8));
+		assertNull(channel.readInbound());
+		assertEquals(skippedLines.getMalformed(), 3);
+	}
+
+	@Test
+	public void malformedLinesAreSkipped() {
+		final SkippedLines skippedLines = new SkippedLines(10, TimeUnit.SECONDS);
+		final EmbeddedChannel channel = new EmbeddedChannel(new LineEventDecoder(skippedLines, (command, line, out) -> command.equals("PING")));
+		channel.writeInbound(Unpooled.copiedBuffer("LOG ltm1 10.1.2.3:61001 not-a-timestamp " + UUID.randomUUID() + " message", StandardCharsets.UTF_8));
+		channel.writeInbound(Unpooled.copiedBuffer("PING ltm1", StandardCharsets.UTF_8));
+		channel.writeInbound(Unpooled.copiedBuffer("BOGUS ltm1", StandardCharsets.UTF_8));
+		channel.writeInbound(Unpooled.copiedBuffer("LOG ltm1 10.1.2.3:61001 1436224520123 " + UUID.randomUUID() + " message", StandardCharsets.UTF_8));
+		assertTrue(channel.isOpen());
+		assertEquals(skippedLines.getMalformed(), 1);
+		assertEquals(skippedLines.getUnknownCommands(), 1);
+		final LogEvent event = (LogEvent) channel.readInbound();
+		try {
+			assertEquals(event.getMessage(), "message");
+		} finally {
+			event.release();
+		}
+	}
+
+	private LogEvent decode(String line) {
+		final EmbeddedChannel channel = new EmbeddedChannel(new LineEventDecoder());
+		channel.writeInbound(Unpooled.copiedBuffer(line, StandardCharsets.UTF_8));
+		return (LogEvent) channel.readInbound();
+	}
+
+}
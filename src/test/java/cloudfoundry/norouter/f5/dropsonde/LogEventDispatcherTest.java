@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.f5.dropsonde;
+
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * @author Mike Heath
+ */
+public class LogEventDispatcherTest {
+
+	private static final String APP1 = "app1";
+	private static final String APP2 = "app2";
+
+	@Test
+	public void readingIsSuspendedAboveTheHighWatermarkAndResumedAtTheLowWatermark() throws Exception {
+		try (LogEventDispatcher dispatcher = new LogEventDispatcher(1, 100, 4, true)) {
+			final EmbeddedChannel channel = channel();
+			final CountDownLatch started = new CountDownLatch(1);
+			final CountDownLatch release = new CountDownLatch(1);
+			dispatcher.dispatch(channel, APP1, () -> block(started, release));
+			assertTrue(started.await(10, TimeUnit.SECONDS));
+			dispatcher.dispatch(channel, APP1, () -> {});
+			dispatcher.dispatch(channel, APP1, () -> {});
+			assertTrue(channel.config().isAutoRead());
+
+			dispatcher.dispatch(channel, APP1, () -> {});
+			assertFalse(channel.config().isAutoRead());
+			assertEquals(dispatcher.getReadPauses(), 1);
+
+			release.countDown();
+			awaitEmitted(dispatcher, 4);
+			// Reading resumes once the backlog of the last emission is released
+			final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+			while (!channel.config().isAutoRead() && System.nanoTime() < deadline) {
+				Thread.sleep(1);
+			}
+			assertTrue(channel.config().isAutoRead());
+			assertEquals(dispatcher.getReadPauses(), 1);
+			assertEquals(dispatcher.getShed(), 0);
+		}
+	}
+
+	@Test
+	public void shedOldest() throws Exception {
+		try (LogEventDispatcher dispatcher = new LogEventDispatcher(1, 2, 100, true)) {
+			final EmbeddedChannel channel = channel();
+			final List<String> emitted = Collections.synchronizedList(new ArrayList<>());
+			final CountDownLatch started = new CountDownLatch(1);
+			final CountDownLatch release = new CountDownLatch(1);
+			dispatcher.dispatch(channel, APP1, () -> block(started, release));
+			assertTrue(started.await(10, TimeUnit.SECONDS));
+			dispatcher.dispatch(channel, APP1, () -> emitted.add("a"));
+			dispatcher.dispatch(channel, APP2, () -> emitted.add("b"));
+			dispatcher.dispatch(channel, APP2, () -> emitted.add("c"));
+			dispatcher.dispatch(channel, APP2, () -> emitted.add("d"));
+			assertEquals(dispatcher.getQueued(), 2);
+
+			release.countDown();
+			awaitEmitted(dispatcher, 3);
+			assertEquals(emitted, Arrays.asList("c", "d"));
+			assertEquals(dispatcher.getShed(), 2);
+			assertEquals(dispatcher.getShedByApplication().get(APP1), Long.valueOf(1));
+			assertEquals(dispatcher.getShedByApplication().get(APP2), Long.valueOf(1));
+		}
+	}
+
+	@Test
+	public void shedNewest() throws Exception {
+		try (LogEventDispatcher dispatcher = new LogEventDispatcher(1, 2, 100, false)) {
+			final EmbeddedChannel channel = channel();
+			final List<String> emitted = Collections.synchronizedList(new ArrayList<>());
+			final CountDownLatch started = new CountDownLatch(1);
+			final CountDownLatch release = new CountDownLatch(1);
+			dispatcher.dispatch(channel, APP1, () -> block(started, release));
+			assertTrue(started.await(10, TimeUnit.SECONDS));
+			dispatcher.dispatch(channel, APP1, () -> emitted.add("a"));
+			dispatcher.dispatch(channel, APP1, () -> emitted.add("b"));
+			dispatcher.dispatch(channel, APP2, () -> emitted.add("c"));
+			dispatcher.dispatch(channel, APP2, () -> emitted.add("d"));
+
+			release.countDown();
+			awaitEmitted(dispatcher, 3);
+			assertEquals(emitted, Arrays.asList("a", "b"));
+			assertEquals(dispatcher.getShed(), 2);
+			assertFalse(dispatcher.getShedByApplication().containsKey(APP1));
+			assertEquals(dispatcher.getShedByApplication().get(APP2), Long.valueOf(2));
+		}
+	}
+
+	@Test
+	public void channelsAreEmittedInParallel() throws Exception {
+		try (LogEventDispatcher dispatcher = new LogEventDispatcher(2, 100, 100, true)) {
+			final EmbeddedChannel blocked = channel();
+			final CountDownLatch started = new CountDownLatch(1);
+			final CountDownLatch release = new CountDownLatch(1);
+			dispatcher.dispatch(blocked, APP1, () -> block(started, release));
+			assertTrue(started.await(10, TimeUnit.SECONDS));
+
+			// A channel assigned to the other emitter isn't held up by the blocked one
+			final CountDownLatch other = new CountDownLatch(1);
+			EmbeddedChannel channel;
+			do {
+				channel = channel();
+			} while ((channel.hashCode() & Integer.MAX_VALUE) % 2 == (blocked.hashCode() & Integer.MAX_VALUE) % 2);
+			dispatcher.dispatch(channel, APP2, other::countDown);
+			assertTrue(other.await(10, TimeUnit.SECONDS));
+			release.countDown();
+		}
+	}
+
+	private static EmbeddedChannel channel() {
+		return new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+	}
+
+	private static void awaitEmitted(LogEventDispatcher dispatcher, long count) throws InterruptedException {
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (dispatcher.getEmitted() < count && System.nanoTime() < deadline) {
+			Thread.sleep(1);
+		}
+		assertEquals(dispatcher.getEmitted(), count);
+	}
+
+	private static void block(CountDownLatch started, CountDownLatch release) {
+		started.countDown();
+		try {
+			release.await(10, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}